@@ -30,6 +30,8 @@ android {
 
 dependencies {
 
+    implementation(project(":protocol"))
+
     implementation("androidx.appcompat:appcompat:1.7.0")
     implementation("com.google.android.material:material:1.12.0")
     implementation("androidx.constraintlayout:constraintlayout:2.2.1")
@@ -0,0 +1,63 @@
+package com.example.awsiotcertapp;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.util.Log;
+
+import com.example.awsiotcertapp.protocol.Metrics;
+import com.example.awsiotcertapp.protocol.Startup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * The process-wide {@link Startup}: broker settings, TLS credentials and the Bluetooth adapter,
+ * brought up side by side on background threads from the first screen's {@code onCreate}. The
+ * screens wait on these parts, so no main thread reads preferences, parses certificates or looks
+ * up the adapter. The MQTT client is built from {@link #broker} on {@link #EXECUTOR} too.
+ */
+final class AppStartup {
+    private static final String TAG = "AppStartup";
+
+    static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(3, r -> {
+        Thread t = new Thread(r, "startup");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static AppStartup instance;
+
+    final Startup                           startup;
+    final Startup.Part<BrokerConfig>        broker;
+    /** {@code null} when the broker is plain TCP. */
+    final Startup.Part<SSLContext>          credentials;
+    /** {@code null} on a device without Bluetooth. */
+    final Startup.Part<BluetoothAdapter>    bluetooth;
+
+    private AppStartup(Context app) {
+        startup     = new Startup(EXECUTOR, Metrics.shared());
+        broker      = startup.add("broker", () -> BrokerConfig.load(app));
+        credentials = startup.add("credentials", broker,
+                config -> () -> config.tls ? TlsCredentials.load(app, config.credentialsDir).join() : null);
+        bluetooth   = startup.add("bluetooth", BluetoothAdapter::getDefaultAdapter);
+    }
+
+    static synchronized AppStartup get(Context ctx) {
+        if (instance == null) instance = new AppStartup(ctx.getApplicationContext());
+        return instance;
+    }
+
+    /** Starts every part that is not running yet; safe to call from the main thread. */
+    static AppStartup start(Context ctx) {
+        AppStartup s = get(ctx);
+        s.startup.startAll();
+        return s;
+    }
+
+    /** Called on every acknowledged publish; only the first one is timed. */
+    void published() {
+        if (startup.firstPublish()) Log.d(TAG, startup.toString());
+    }
+}
@@ -3,7 +3,10 @@ package com.example.awsiotcertapp;
 
 import android.Manifest;
 import android.bluetooth.*;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.*;
 import android.util.Log;
@@ -13,48 +16,63 @@ import android.widget.*;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+
+import com.example.awsiotcertapp.protocol.DeviceConnectionManager;
+import com.example.awsiotcertapp.protocol.Hex;
+import com.example.awsiotcertapp.protocol.SampleStore;
+import com.example.awsiotcertapp.protocol.UartProtocolEngine;
 
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class BluetoothConnection extends AppCompatActivity {
 
     private static final int REQUEST_BLUETOOTH_CONNECT = 100;
-    private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-    private static final int SEND_INTERVAL_MS = 1000;
+    private static final int READ_BUFFER_SIZE = 2048;
+    private static final long HISTORY_SHOWN_MS = 60 * 60 * 1000L;
 
-    Button disconnectBluetoothBtn, listBluetoothDevicesBtn, connectBluetoothBtn;
+    Button disconnectBluetoothBtn, listBluetoothDevicesBtn, connectBluetoothBtn, bridgeBtn;
     ListView listViewDevices;
     TextView resultTextView;
 
     ArrayList<String> deviceList = new ArrayList<>();
     ArrayAdapter<String> devicesnames;
 
-    BluetoothAdapter bluetoothAdapter;
+    /** Looked up on the startup threads; {@code null} on a device without Bluetooth. */
+    CompletableFuture<BluetoothAdapter> bluetoothAdapter;
     BluetoothDevice selectedDevice;
-    BluetoothSocket bluetoothSocket;
-    OutputStream outputStream;
-    InputStream inputStream;
-
-    Handler handler = new Handler();
-    volatile boolean ackReceived = false;
-    int data_stat = 0;
-    byte[] fullDataBuffer = new byte[814];
-    Thread readThread;
+    /** RFCOMM here; the protocol tests run the same engine over a simulated logger. */
+    DeviceConnectionManager.Connector connector;
+    // Set by the connect thread, closed from the UI thread; the engine owns everything else.
+    volatile DeviceConnectionManager.Link link;
+    volatile UartProtocolEngine protocolEngine;
+    boolean bridgeRunning = false;
+
+    private final BroadcastReceiver bridgeStatsReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            resultTextView.setText("Bridge: " + intent.getStringExtra(BridgeService.EXTRA_STATS));
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_bluetooth_connection);
+        bluetoothAdapter = AppStartup.start(this).bluetooth.get();
 
         disconnectBluetoothBtn = findViewById(R.id.disconnectBluetoothBtn);
         listBluetoothDevicesBtn = findViewById(R.id.listBluetoothDevicesBtn);
         connectBluetoothBtn = findViewById(R.id.connectBluetoothBtn);
+        bridgeBtn = findViewById(R.id.bridgeBtn);
         listViewDevices = findViewById(R.id.listViewDevices);
         resultTextView = findViewById(R.id.resultTextView);
 
-        bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        connector = new RfcommConnector(this);
         devicesnames = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, deviceList);
         listViewDevices.setAdapter(devicesnames);
 
@@ -63,6 +81,36 @@ public class BluetoothConnection extends AppCompatActivity {
                 pos));
         connectBluetoothBtn.setOnClickListener(v -> connectToSelectedDevice());
         disconnectBluetoothBtn.setOnClickListener(v -> disconnectBluetooth());
+        bridgeBtn.setOnClickListener(v -> toggleBridge());
+
+        LocalBroadcastManager.getInstance(this)
+                .registerReceiver(bridgeStatsReceiver, new IntentFilter(BridgeService.ACTION_STATS));
+    }
+
+    @Override
+    protected void onDestroy() {
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(bridgeStatsReceiver);
+        super.onDestroy();
+    }
+
+    private void toggleBridge() {
+        Intent intent = new Intent(this, BridgeService.class);
+        if (bridgeRunning) {
+            stopService(intent);
+            bridgeRunning = false;
+            bridgeBtn.setText("Start Bridge");
+            return;
+        }
+        if (selectedDevice == null) {
+            Toast.makeText(this, "Select a device first", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // The bridge opens its own RFCOMM connection
+        if (link != null) disconnectBluetooth();
+        intent.putExtra(BridgeService.EXTRA_DEVICE_ADDRESS, selectedDevice.getAddress());
+        ContextCompat.startForegroundService(this, intent);
+        bridgeRunning = true;
+        bridgeBtn.setText("Stop Bridge");
     }
 
     private void checkAndShowBondedDevices() {
@@ -79,16 +127,27 @@ public class BluetoothConnection extends AppCompatActivity {
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
             return;
         }
-        Set<BluetoothDevice> bondedDevices = bluetoothAdapter.getBondedDevices();
-        for (BluetoothDevice device : bondedDevices) {
-            deviceList.add(device.getName() + " - " + device.getAddress());
-        }
-        devicesnames.notifyDataSetChanged();
+        // The adapter and its bonded devices are fetched off the main thread, then shown on it.
+        bluetoothAdapter.thenApplyAsync(adapter -> {
+            List<String> names = new ArrayList<>();
+            if (adapter == null) return names;
+            for (BluetoothDevice device : adapter.getBondedDevices()) {
+                names.add(device.getName() + " - " + device.getAddress());
+            }
+            return names;
+        }, AppStartup.EXECUTOR).thenAcceptAsync(names -> {
+            deviceList.clear();
+            deviceList.addAll(names);
+            devicesnames.notifyDataSetChanged();
+        }, this::runOnUiThread);
     }
 
     private void selectDevice(int position) {
         String mac = deviceList.get(position).substring(deviceList.get(position).length() - 17);
-        selectedDevice = bluetoothAdapter.getRemoteDevice(mac);
+        // Devices are only listed once the adapter is there; never wait for it on the main thread.
+        BluetoothAdapter adapter = bluetoothAdapter.getNow(null);
+        if (adapter == null) return;
+        selectedDevice = adapter.getRemoteDevice(mac);
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
             return;
         }
@@ -100,19 +159,17 @@ public class BluetoothConnection extends AppCompatActivity {
 
         new Thread(() -> {
             try {
-                if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                    return;
-                }
-                bluetoothSocket = selectedDevice.createRfcommSocketToServiceRecord(MY_UUID);
-                bluetoothSocket.connect();
-                outputStream = bluetoothSocket.getOutputStream();
-                inputStream = bluetoothSocket.getInputStream();
-
-                startReadThread();
-                runOnUiThread(() -> {
-                    Toast.makeText(this, "Connected", Toast.LENGTH_SHORT).show();
-                    sendSetTimeCommand();
-                });
+                DeviceConnectionManager.Link connected = connector.connect(selectedDevice.getAddress());
+
+                UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+                opts.setReadBufferSize(READ_BUFFER_SIZE);
+                UartProtocolEngine engine = new UartProtocolEngine(connected.input(), connected.output(), opts, protocolListener);
+                engine.timeSynced().thenAccept(setupNanos -> runOnUiThread(() -> resultTextView.setText(
+                        "✅ Time ACK received after " + setupNanos / 1_000_000 + " ms. Sending data request...")));
+                link = connected;
+                protocolEngine = engine;
+                engine.start();
+                runOnUiThread(() -> Toast.makeText(this, "Connected", Toast.LENGTH_SHORT).show());
             } catch (IOException e) {
                 e.printStackTrace();
                 runOnUiThread(() -> Toast.makeText(this, "Connection failed: " + e.getMessage(), Toast.LENGTH_LONG).show());
@@ -120,132 +177,42 @@ public class BluetoothConnection extends AppCompatActivity {
         }).start();
     }
 
-    private void sendSetTimeCommand() {
-        handler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                if (!ackReceived) {
-                    Calendar c = Calendar.getInstance();
-                    byte[] cmd = new byte[10];
-                    cmd[0] = 0x50;
-                    cmd[1] = 0x00;
-                    cmd[2] = 0x07;
-                    cmd[3] = (byte) (c.get(Calendar.YEAR));     // low byte of year
-                    cmd[4] = (byte) (c.get(Calendar.MONTH) + 1); // month
-                    cmd[5] = (byte) c.get(Calendar.DAY_OF_MONTH);
-                    cmd[6] = (byte) c.get(Calendar.HOUR_OF_DAY);
-                    cmd[7] = (byte) c.get(Calendar.MINUTE);
-                    cmd[8] = (byte) c.get(Calendar.SECOND);
-                    cmd[9] = 0x5F;
-                    try {
-                        outputStream.write(cmd);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    handler.postDelayed(this, SEND_INTERVAL_MS);
-                }
-            }
-        }, SEND_INTERVAL_MS);
-    }
-
-    private void startReadThread() {
-        readThread = new Thread(() -> {
-            byte[] buffer = new byte[2048];
-            int bytes;
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    bytes = inputStream.read(buffer);
-                    if (bytes > 0) handleIncomingData(Arrays.copyOf(buffer, bytes));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    break;
-                }
-            }
-        });
-        readThread.start();
-    }
-
-    ByteArrayOutputStream dynamicDataBuffer = new ByteArrayOutputStream();
-
-    private void handleIncomingData(byte[] data) {
-        if (data.length >= 3 && data[0] == 0x50 && data[1] == 0x02 && data[data.length - 1] == 0x5F && !ackReceived) {
-            ackReceived = true;
-            runOnUiThread(() -> resultTextView.setText("✅ Time ACK received. Sending data request..."));
-            sendUART("40014F"); // Request data
-            data_stat = 1;
+    private final UartProtocolEngine.Listener protocolListener = new UartProtocolEngine.Listener() {
+        @Override
+        public void onStateChanged(UartProtocolEngine.State state) {
         }
-        else if (data_stat == 1) {
-            // Accumulate variable-length data starting with 0x40 and ending with 0x4F
-            if (data[0] == 0x40) {
-                dynamicDataBuffer.reset(); // start fresh
-            }
-
-            try {
-                dynamicDataBuffer.write(data);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
-            if (data[data.length - 1] == 0x4F) {
-                data_stat = 2;
-                sendUART("40024F"); // Ask for checksum
-            }
-        }
-        else if (data_stat == 2 && data.length == 3 && data[0] == 0x40 && data[2] == 0x4F) {
-            int receivedChecksum = data[1] & 0xFF;
-            byte[] fullData = dynamicDataBuffer.toByteArray();
-
-            int sum = 0;
-            for (int i = 1; i < fullData.length - 1; i++) {
-                sum += (fullData[i] & 0xFF);
-            }
 
-            if ((sum % 256) == receivedChecksum) {
-                data_stat = 7;
-                runOnUiThread(() -> {
-                    resultTextView.setText("✅ Checksum matched. Sending to MainActivity...");
-                    Log.d("BT", "Received " + dynamicDataBuffer.size() + " bytes total");
-                    Toast.makeText(getApplicationContext(), bytesToHex(fullData),Toast.LENGTH_LONG).show();
-//                    Intent intent = new Intent(this, MainActivity.class);
-//                    intent.putExtra("received_data_hex", bytesToHex(fullData));
-//                    startActivity(intent);
-                });
-            } else {
-                data_stat = 5;
-                sendUART("40044F"); // Resend data
-                dynamicDataBuffer.reset();
-            }
+        @Override
+        public void onTransferComplete(byte[] fullData, long elapsedNanos) {
+            long receivedAt = System.currentTimeMillis();
+            runOnUiThread(() -> {
+                SampleStore history = ReadingHistory.get(selectedDevice.getAddress(), ReadingHistory.DEFAULT_CHANNELS);
+                history.append(receivedAt, fullData, 0, fullData.length);
+                int lastHour = history.recent(HISTORY_SHOWN_MS).size();
+                resultTextView.setText("✅ Checksum matched, " + lastHour + " samples in the last hour. Sending to MainActivity...");
+                Log.d("BT", "Received " + fullData.length + " bytes total in " + elapsedNanos / 1_000_000 + " ms");
+                Toast.makeText(getApplicationContext(), Hex.encode(fullData),Toast.LENGTH_LONG).show();
+                Intent intent = new Intent(BluetoothConnection.this, MainActivity.class);
+                intent.putExtra(MainActivity.EXTRA_RECEIVED_DATA, fullData);
+                startActivity(intent);
+            });
         }
-    }
 
-    private void sendUART(String hex) {
-        try {
-            outputStream.write(hexStringToBytes(hex));
-        } catch (IOException e) {
-            e.printStackTrace();
+        @Override
+        public void onTransferFailed(UartProtocolEngine.State state, String reason) {
+            runOnUiThread(() -> resultTextView.setText("❌ Transfer failed in " + state + ": " + reason));
         }
-    }
-
-    private byte[] hexStringToBytes(String hex) {
-        int len = hex.length();
-        byte[] bytes = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            bytes[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
-                    + Character.digit(hex.charAt(i + 1), 16));
-        }
-        return bytes;
-    }
-
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) sb.append(String.format("%02X", b));
-        return sb.toString();
-    }
+    };
 
     private void disconnectBluetooth() {
+        UartProtocolEngine engine = protocolEngine;
+        DeviceConnectionManager.Link l = link;
+        protocolEngine = null;
+        link = null;
         try {
-            if (bluetoothSocket != null) bluetoothSocket.close();
-            if (readThread != null) readThread.interrupt();
+            // Returns once the engine has stopped writing, so the socket is closed under no one.
+            if (engine != null) engine.close();
+            if (l != null) l.close();
             Toast.makeText(this, "Disconnected", Toast.LENGTH_SHORT).show();
         } catch (IOException e) {
             e.printStackTrace();
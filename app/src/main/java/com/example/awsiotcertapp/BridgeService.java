@@ -0,0 +1,338 @@
+package com.example.awsiotcertapp;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+
+import com.example.awsiotcertapp.protocol.DeviceConnectionManager;
+import com.example.awsiotcertapp.protocol.FrameBridge;
+import com.example.awsiotcertapp.protocol.Metrics;
+import com.example.awsiotcertapp.protocol.PayloadCodecs;
+import com.example.awsiotcertapp.protocol.ReconnectController;
+import com.example.awsiotcertapp.protocol.SampleSchema;
+import com.example.awsiotcertapp.protocol.SampleStore;
+import com.example.awsiotcertapp.protocol.ShadowSync;
+import com.example.awsiotcertapp.protocol.UartProtocolEngine;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Long-running Bluetooth-to-MQTT bridge. Owns the RFCOMM sessions to one or more loggers, through a
+ * {@link DeviceConnectionManager}, and one {@link MqttClientHandler}; every verified payload goes
+ * from the manager's merged output through a bounded {@link FrameBridge} queue to the publisher,
+ * without passing through an Activity.
+ */
+public class BridgeService extends Service implements MqttClientHandler.Listener {
+    private static final String TAG = "BridgeService";
+    private static final String CHANNEL_ID = "bridge";
+    private static final int    NOTIFICATION_ID = 1;
+    private static final int    QUEUE_CAPACITY = 256;
+    private static final long   PUBLISH_RETRY_MS = 500;
+    private static final long   STATS_INTERVAL_MS = 5000;
+    private static final int    OUTBOX_MAX_MB = 64;
+    private static final int    MAX_DEVICES = 7; // RFCOMM links one controller handles at once
+    private static final int    TIME_SYNC_ATTEMPTS = 20; // a logger busy with a transfer is asked again
+
+    public static final String EXTRA_DEVICE_ADDRESS = "device_address";
+    /**
+     * Several loggers at once, as a {@code String[]}; takes precedence over {@link #EXTRA_DEVICE_ADDRESS}.
+     * Each logger's payloads go to {@code <topic>/<address>}.
+     */
+    public static final String EXTRA_DEVICE_ADDRESSES = "device_addresses";
+    public static final String EXTRA_TOPIC = "topic";
+    /** Delay between transfers; 0 fetches a single payload. */
+    public static final String EXTRA_POLL_INTERVAL_MS = "poll_interval_ms";
+    /** Turns on {@link Metrics} and publishes a JSON snapshot to {@code <topic>/stats} with every stats report. */
+    public static final String EXTRA_PUBLISH_METRICS = "publish_metrics";
+    /**
+     * Fetch payloads in CRC-checked chunks of this many bytes (1 to 255), refetching only the chunks
+     * that fail; needs logger firmware that speaks the chunked commands. 0 (the default) fetches whole payloads.
+     */
+    public static final String EXTRA_CHUNK_SIZE = "chunk_size";
+    /**
+     * Length of the loggers' data frame, markers included, so that payload bytes equal to the end
+     * marker are read as data; see {@link UartProtocolEngine.Options#setPayloadLength}. 0 (the
+     * default) ends each frame at the first end marker.
+     */
+    public static final String EXTRA_PAYLOAD_LENGTH = "payload_length";
+    /**
+     * How readings are encoded on the wire: {@code raw} (the default), {@code hex}, {@code json},
+     * {@code delta} or {@code delta+deflate}; see {@link PayloadCodecs#byName}. The last three read
+     * each reading as a logger frame of {@link #EXTRA_CHANNELS} 16-bit channels.
+     */
+    public static final String EXTRA_CODEC = "codec";
+    public static final String EXTRA_CHANNELS = "channels";
+    private static final int   SCHEMA_VERSION = 1;
+    /**
+     * Connect to this broker instead of the saved one, e.g. a staging broker or a load-test stand-in;
+     * {@link #EXTRA_BROKER_PORT} defaults to 8883 and {@link #EXTRA_BROKER_TLS} to {@code true}.
+     */
+    public static final String EXTRA_BROKER_HOST = "broker_host";
+    public static final String EXTRA_BROKER_PORT = "broker_port";
+    public static final String EXTRA_BROKER_TLS = "broker_tls";
+    /**
+     * Put a per-logger sequence number in front of every reading, so a subscriber can drop the
+     * copies a reconnect sends again; see {@link MqttClientHandler#enableSequencing()}.
+     */
+    public static final String EXTRA_SEQUENCED = "sequenced";
+    /** Record every logger session to {@code files/captures}, for replay in the protocol tests. */
+    public static final String EXTRA_CAPTURE_SESSIONS = "capture_sessions";
+    /**
+     * Follow the desired settings under {@code <topic>/shadow} (see {@link ShadowSync}) and report
+     * the applied ones: {@code pollMs} of the device {@value #SHADOW_GATEWAY}, and {@code clock} of
+     * a logger, whose change sends that logger the time-set frame again.
+     */
+    public static final String EXTRA_SHADOW_SYNC = "shadow_sync";
+    public static final String SHADOW_GATEWAY = "gateway";
+
+    /**
+     * Publish the kept samples of every logger stamped from {@link #EXTRA_FROM_MS} up to
+     * {@link #EXTRA_TO_MS} again, as one {@link SampleStore.Window#toJson JSON window} per logger to
+     * {@code <topic>/history/<address>}. Only while the bridge runs.
+     */
+    public static final String ACTION_REPUBLISH = "com.example.awsiotcertapp.REPUBLISH";
+    public static final String EXTRA_FROM_MS = "from_ms";
+    public static final String EXTRA_TO_MS = "to_ms";
+
+    /** Local broadcast carrying {@link #EXTRA_STATS}, sent every few seconds while the bridge runs. */
+    public static final String ACTION_STATS = "com.example.awsiotcertapp.BRIDGE_STATS";
+    public static final String EXTRA_STATS = "stats";
+    /** JSON snapshot of {@link Metrics#shared()}, present when metrics are enabled. */
+    public static final String EXTRA_METRICS = "metrics";
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    /** Kept so onDestroy removes this service's gauge from the process-wide registry. */
+    private final LongSupplier             queueDepth = () -> bridge.stats().queueDepth;
+
+    private MqttClientHandler       mqtt;
+    private FrameBridge             bridge;
+    private DeviceConnectionManager devices;
+    private String                  topic;
+    private long                    pollIntervalMs;
+    private boolean                 publishMetrics;
+    private int                     channels;
+    private ShadowSync              shadow;
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Every start may come from startForegroundService(), so this goes first, before any stopSelf().
+        startForeground(NOTIFICATION_ID, buildNotification());
+        if (intent != null && ACTION_REPUBLISH.equals(intent.getAction())) {
+            long from = intent.getLongExtra(EXTRA_FROM_MS, 0);
+            long to = intent.getLongExtra(EXTRA_TO_MS, Long.MAX_VALUE);
+            if (bridge == null) {
+                onLog("! Bridge not running, nothing republished");
+                stopSelf();
+            } else {
+                scheduler.execute(() -> republish(from, to));
+            }
+            return START_NOT_STICKY;
+        }
+        if (intent == null || bridge != null) return START_NOT_STICKY;
+        String[] requested = intent.getStringArrayExtra(EXTRA_DEVICE_ADDRESSES);
+        boolean perDeviceTopics = requested != null && requested.length > 0;
+        String single = intent.getStringExtra(EXTRA_DEVICE_ADDRESS);
+        String[] addresses = perDeviceTopics ? requested : single == null ? null : new String[]{single};
+        topic = intent.getStringExtra(EXTRA_TOPIC);
+        if (topic == null) topic = "bt/data";
+        pollIntervalMs = intent.getLongExtra(EXTRA_POLL_INTERVAL_MS, 60_000);
+        publishMetrics = intent.getBooleanExtra(EXTRA_PUBLISH_METRICS, false);
+        int chunkSize = intent.getIntExtra(EXTRA_CHUNK_SIZE, 0);
+        int payloadLength = intent.getIntExtra(EXTRA_PAYLOAD_LENGTH, 0);
+        channels = intent.getIntExtra(EXTRA_CHANNELS, ReadingHistory.DEFAULT_CHANNELS);
+        if (publishMetrics) Metrics.shared().setEnabled(true);
+        if (addresses == null) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        try {
+            // A role of its own, so its persistent client ID never collides with the activity's.
+            BrokerConfig broker = BrokerConfig.load(this);
+            String host = intent.getStringExtra(EXTRA_BROKER_HOST);
+            if (host != null) {
+                broker.setHost(host);
+                broker.setPort(intent.getIntExtra(EXTRA_BROKER_PORT, BrokerConfig.DEFAULT_PORT));
+                broker.setTls(intent.getBooleanExtra(EXTRA_BROKER_TLS, true));
+            }
+            mqtt = new MqttClientHandler(getApplicationContext(), broker, "Bridge", this);
+            mqtt.enableOfflineStore(new File(getFilesDir(), "mqtt-outbox"), OUTBOX_MAX_MB);
+            if (intent.getBooleanExtra(EXTRA_SEQUENCED, false)) mqtt.enableSequencing();
+            String codec = intent.getStringExtra(EXTRA_CODEC);
+            if (codec != null) {
+                SampleSchema schema = SampleSchema.loggerFrame(SCHEMA_VERSION, channels);
+                mqtt.setCodecs(new PayloadCodecs().setDefault(PayloadCodecs.byName(codec, schema)));
+            }
+            mqtt.connect();
+        } catch (Exception e) {
+            onLog("! INIT EX: " + e.getMessage());
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        // The outbox takes frames while offline, so the bridge only waits on disk writes.
+        bridge = new FrameBridge(QUEUE_CAPACITY, PUBLISH_RETRY_MS, new FrameBridge.Sink() {
+            @Override public boolean publish(byte[] frame) {
+                return mqtt.publish(topic, frame, 0, frame.length);
+            }
+
+            @Override public boolean publish(String address, byte[] frame) {
+                String to = perDeviceTopics ? topic + "/" + address : topic;
+                return mqtt.publish(to, frame, 0, frame.length);
+            }
+        });
+        bridge.start();
+        Metrics.shared().gauge("bridge.queue_depth", queueDepth);
+        scheduler.scheduleAtFixedRate(this::reportStats, STATS_INTERVAL_MS, STATS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        UartProtocolEngine.Options engineOptions = new UartProtocolEngine.Options();
+        engineOptions.setChunkSize(chunkSize);
+        engineOptions.setPayloadLength(payloadLength);
+        engineOptions.setReadBufferSize(Math.max(2048, payloadLength));
+        File captures = intent.getBooleanExtra(EXTRA_CAPTURE_SESSIONS, false) ? new File(getFilesDir(), "captures") : null;
+        devices = new DeviceConnectionManager(new RfcommConnector(this, captures), MAX_DEVICES, engineOptions, deviceListener);
+        devices.setPollInterval(pollIntervalMs);
+        for (String address : addresses) {
+            if (!devices.open(address)) onLog("! No session slot for " + address);
+        }
+        if (intent.getBooleanExtra(EXTRA_SHADOW_SYNC, false)) startShadow(addresses);
+        return START_NOT_STICKY;
+    }
+
+    private void startShadow(String[] addresses) {
+        // As text, so the codec meant for logger frames leaves it alone.
+        shadow = new ShadowSync(topic + "/shadow", ShadowSync.Role.GATEWAY,
+                (to, payload) -> mqtt.publish(to, new String(payload, StandardCharsets.UTF_8)),
+                ReconnectController.scheduler(scheduler), new ShadowSync.Options(), this::onDesired);
+        for (String filter : shadow.filters()) mqtt.router().add(filter, shadow);
+        shadow.update(SHADOW_GATEWAY, Collections.singletonMap("pollMs", pollIntervalMs));
+        mqtt.whenConnected().thenRun(() -> {
+            mqtt.subscribe(shadow.filters().toArray(new String[0]));
+            shadow.requestFull(SHADOW_GATEWAY);
+            for (String address : addresses) shadow.requestFull(address);
+        });
+    }
+
+    /** The controller changed the desired settings of {@code device}; only the changed keys are here. */
+    private void onDesired(String device, Map<String, Object> delta) {
+        Map<String, Object> applied = new LinkedHashMap<>();
+        if (SHADOW_GATEWAY.equals(device)) {
+            Object poll = delta.get("pollMs");
+            if (poll instanceof Long) {
+                pollIntervalMs = (Long) poll;
+                devices.setPollInterval(pollIntervalMs);
+                applied.put("pollMs", poll);
+            }
+        } else if (delta.containsKey("clock")) {
+            Object clock = shadow.followed(device).get("clock");
+            scheduler.execute(() -> syncTime(device, clock, TIME_SYNC_ATTEMPTS));
+        }
+        if (!applied.isEmpty()) shadow.update(device, applied);
+    }
+
+    /** Sends {@code address} the time-set frame, retrying while it is busy, then reports {@code clock} as applied. */
+    private void syncTime(String address, Object clock, int attempts) {
+        if (devices.syncTime(address)) {
+            shadow.update(address, Collections.singletonMap("clock", clock));
+        } else if (attempts > 1 && devices.openDevices().contains(address)) {
+            scheduler.schedule(() -> syncTime(address, clock, attempts - 1), PUBLISH_RETRY_MS, TimeUnit.MILLISECONDS);
+        } else {
+            onLog("! Time sync of " + address + " not sent");
+        }
+    }
+
+    /** Called on the manager's single output thread, in the order the transfers completed. */
+    private final DeviceConnectionManager.Listener deviceListener = new DeviceConnectionManager.Listener() {
+        @Override
+        public void onReading(DeviceConnectionManager.Reading reading) {
+            ReadingHistory.get(reading.address, channels)
+                    .append(reading.receivedAtMillis, reading.payload, 0, reading.payload.length);
+            if (!bridge.offer(reading.address, reading.payload)) {
+                onLog("! Bridge queue full, dropped " + reading.payload.length + " bytes from " + reading.address);
+            }
+        }
+
+        @Override
+        public void onDeviceFailed(String address, String reason) {
+            onLog("! " + address + ": " + reason);
+        }
+
+        @Override
+        public void onDeviceReady(String address, long setupNanos) {
+            onLog("** " + address + " ready in " + setupNanos / 1_000_000 + " ms");
+        }
+    };
+
+    private void republish(long fromMillis, long toMillis) {
+        for (Map.Entry<String, SampleStore> e : ReadingHistory.all().entrySet()) {
+            SampleStore.Window window = e.getValue().query(fromMillis, toMillis);
+            if (window.size() == 0) continue;
+            // As text, so the codec meant for logger frames leaves it alone.
+            String json = new String(window.toJson(), StandardCharsets.US_ASCII);
+            if (!mqtt.publish(topic + "/history/" + e.getKey(), json)) {
+                onLog("! Republish of " + e.getKey() + " failed");
+            }
+        }
+    }
+
+    private void reportStats() {
+        FrameBridge.Stats stats = bridge.stats();
+        String line = stats + " offline=" + mqtt.pendingOffline();
+        Log.d(TAG, line);
+        Intent intent = new Intent(ACTION_STATS);
+        intent.putExtra(EXTRA_STATS, line);
+        if (publishMetrics) {
+            String json = mqtt.metricsSnapshot();
+            intent.putExtra(EXTRA_METRICS, json);
+            if (mqtt.isConnected()) mqtt.publish(topic + "/stats", json);
+        }
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+
+    private Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Bluetooth bridge", NotificationManager.IMPORTANCE_LOW);
+            getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle("Bluetooth to MQTT bridge")
+                .setContentText("Forwarding logger data")
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setOngoing(true)
+                .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        scheduler.shutdownNow();
+        Metrics.shared().removeGauge("bridge.queue_depth", queueDepth);
+        if (devices != null) devices.close();
+        if (bridge != null) bridge.close();
+        if (mqtt != null) mqtt.close();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onLog(String line) {
+        Log.d(TAG, line);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.awsiotcertapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+
+/**
+ * Where the MQTT client connects and with what. Defaults to AWS IoT Core with the certificates
+ * bundled as raw resources; a test or staging broker (such as the embedded broker the load tests
+ * run against) can be configured instead, with plain TCP, a username and password, or
+ * certificates read from a directory. Persisted in the {@code mqtt} shared preferences.
+ */
+final class BrokerConfig {
+    static final String DEFAULT_HOST = "a2iyihwz3gxngo-ats.iot.ap-south-1.amazonaws.com";
+    static final int    DEFAULT_PORT = 8883;
+
+    private static final String PREFS = "mqtt";
+
+    String host = DEFAULT_HOST;
+    int    port = DEFAULT_PORT;
+    boolean tls = true;
+    String userName;
+    String password;
+    File   credentialsDir;
+
+    void setHost(String host)            { this.host = host; }
+    void setPort(int port)               { this.port = port; }
+
+    /** Plain TCP when off; only for brokers on a trusted network. */
+    void setTls(boolean tls)             { this.tls = tls; }
+
+    /** Sent in CONNECT when set; AWS IoT authenticates by certificate and ignores them. */
+    void setUserName(String userName)    { this.userName = userName; }
+    void setPassword(String password)    { this.password = password; }
+
+    /**
+     * Reads {@code root_ca.pem}, {@code client_certificate.crt} and {@code private_key.key} from
+     * {@code dir} instead of the bundled resources; {@code null} for the bundled ones.
+     */
+    void setCredentialsDir(File dir)     { this.credentialsDir = dir; }
+
+    String serverUri() {
+        return (tls ? "ssl" : "tcp") + "://" + host + ":" + port;
+    }
+
+    static BrokerConfig load(Context ctx) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        BrokerConfig c = new BrokerConfig();
+        c.host     = prefs.getString("broker.host", DEFAULT_HOST);
+        c.port     = prefs.getInt("broker.port", DEFAULT_PORT);
+        c.tls      = prefs.getBoolean("broker.tls", true);
+        c.userName = prefs.getString("broker.user", null);
+        c.password = prefs.getString("broker.password", null);
+        String dir = prefs.getString("broker.credentials_dir", null);
+        c.credentialsDir = dir == null ? null : new File(dir);
+        return c;
+    }
+
+    void save(Context ctx) {
+        ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit()
+                .putString("broker.host", host)
+                .putInt("broker.port", port)
+                .putBoolean("broker.tls", tls)
+                .putString("broker.user", userName)
+                .putString("broker.password", password)
+                .putString("broker.credentials_dir", credentialsDir == null ? null : credentialsDir.getPath())
+                .apply();
+    }
+}
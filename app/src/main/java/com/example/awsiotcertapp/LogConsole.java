@@ -0,0 +1,82 @@
+package com.example.awsiotcertapp;
+
+import android.text.Editable;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import com.example.awsiotcertapp.protocol.LogRing;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * On-screen log fed from any thread. Lines go into a {@link LogRing} and are rendered in one batch
+ * on the next display frame, so a burst of MQTT callbacks costs one TextView update and one scroll
+ * per frame instead of one per line. The view keeps only the newest {@code maxLines} lines.
+ */
+final class LogConsole {
+    private final TextView    view;
+    private final ScrollView  scroll;
+    private final int         maxLines;
+    private final LogRing     ring;
+    private final Choreographer choreographer;
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    private final StringBuilder scratch = new StringBuilder(1024);
+    private final Choreographer.FrameCallback renderFrame = frameTimeNanos -> render();
+    private final Runnable scrollToEnd;
+
+    private int lines;
+
+    /** Must be created on the main thread. */
+    LogConsole(TextView view, ScrollView scroll, int maxLines) {
+        this.view          = view;
+        this.scroll        = scroll;
+        this.maxLines      = maxLines;
+        this.ring          = new LogRing(maxLines * 2);
+        this.choreographer = Choreographer.getInstance();
+        this.scrollToEnd   = () -> scroll.fullScroll(View.FOCUS_DOWN);
+        view.setText("", TextView.BufferType.EDITABLE);
+    }
+
+    /** Queues a line without blocking; see {@link LogRing#offer} for how the parts are joined. */
+    void log(String event, Object subject, Object detail) {
+        ring.offer(event, subject, detail);
+        if (frameScheduled.compareAndSet(false, true)) choreographer.postFrameCallback(renderFrame);
+    }
+
+    private void render() {
+        frameScheduled.set(false);
+        // Whatever would scroll out of the view right away is never rendered.
+        int queued = ring.size();
+        int skipped = queued > maxLines ? ring.skip(queued - maxLines) : 0;
+        long dropped = ring.takeDropped() + skipped;
+
+        scratch.setLength(0);
+        if (dropped > 0) scratch.append("… ").append(dropped).append(" lines not shown\n");
+        int added = ring.drainTo(scratch, maxLines) + (dropped > 0 ? 1 : 0);
+        if (added == 0) return;
+
+        Editable text = view.getEditableText();
+        text.append(scratch);
+        lines += added;
+        if (lines > maxLines) {
+            int cut = 0;
+            for (int excess = lines - maxLines; excess > 0; excess--) cut = indexAfterNewline(text, cut);
+            text.delete(0, cut);
+            lines = maxLines;
+        }
+        scroll.post(scrollToEnd);
+        // Lines that arrived while rendering without scheduling a frame of their own.
+        if (!ring.isEmpty() && frameScheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(renderFrame);
+        }
+    }
+
+    private static int indexAfterNewline(CharSequence text, int from) {
+        for (int i = from, n = text.length(); i < n; i++) {
+            if (text.charAt(i) == '\n') return i + 1;
+        }
+        return text.length();
+    }
+}
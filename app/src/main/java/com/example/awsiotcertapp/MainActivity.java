@@ -3,24 +3,35 @@ package com.example.awsiotcertapp;
 
 import android.content.Intent;
 import android.os.Bundle;
-import android.view.View;
 import android.widget.*;
 import androidx.appcompat.app.AppCompatActivity;
 import org.eclipse.paho.client.mqttv3.MqttException;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 public class MainActivity extends AppCompatActivity implements MqttClientHandler.Listener {
 
+    /** Raw payload bytes handed over by {@link BluetoothConnection}, published as binary. */
+    public static final String EXTRA_RECEIVED_DATA = "received_data";
+    private static final int MAX_LOG_LINES = 500;
+
     private Spinner spinnerRole;
     private Button buttonConnect, buttonDisconnect, buttonSubscribe, buttonPublish;
     private EditText editTextSubTopic, editTextPubTopic, editTextMessage;
     private TextView textViewLog;
     private ScrollView scrollLog;
     private MqttClientHandler mqtt;
+    /** The client of {@link #mqttRole}, once it is built. */
+    private CompletableFuture<MqttClientHandler> connecting;
+    private String mqttRole;
+    private LogConsole console;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        AppStartup.start(this);
 
         spinnerRole      = findViewById(R.id.spinnerRole);
         buttonConnect    = findViewById(R.id.buttonConnect);
@@ -32,6 +43,7 @@ public class MainActivity extends AppCompatActivity implements MqttClientHandler
         editTextMessage  = findViewById(R.id.editTextMessage);
         textViewLog      = findViewById(R.id.textViewLog);
         scrollLog        = findViewById(R.id.scrollLog);
+        console          = new LogConsole(textViewLog, scrollLog, MAX_LOG_LINES);
 
         // Spinner role setup
         ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(
@@ -39,24 +51,7 @@ public class MainActivity extends AppCompatActivity implements MqttClientHandler
         adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         spinnerRole.setAdapter(adapter);
 
-        buttonConnect.setOnClickListener(v -> {
-            String role = spinnerRole.getSelectedItem().toString();
-            try {
-                mqtt = new MqttClientHandler(getApplicationContext(), role, this);
-                mqtt.connect();
-            } catch (Exception e) {
-                onLog("! INIT EX: " + e.getMessage());
-                return;
-            }
-            boolean canSub = role.equals("Subscriber") || role.equals("Both");
-            boolean canPub = role.equals("Publisher")  || role.equals("Both");
-
-            editTextSubTopic.setEnabled(canSub);
-            buttonSubscribe.setEnabled(canSub);
-            editTextPubTopic.setEnabled(canPub);
-            editTextMessage.setEnabled(canPub);
-            buttonPublish.setEnabled(canPub);
-        });
+        buttonConnect.setOnClickListener(v -> connect(spinnerRole.getSelectedItem().toString()));
 
         buttonDisconnect.setOnClickListener(v -> {
             if (mqtt != null && mqtt.isConnected()) {
@@ -71,8 +66,9 @@ public class MainActivity extends AppCompatActivity implements MqttClientHandler
         });
 
         buttonSubscribe.setOnClickListener(v -> {
-            String topic = editTextSubTopic.getText().toString().trim();
-            if (!topic.isEmpty()) mqtt.subscribe(topic);
+            // Several filters may be given, comma separated; they go out in one SUBSCRIBE.
+            String topics = editTextSubTopic.getText().toString().trim();
+            if (!topics.isEmpty()) mqtt.subscribe(topics.split("\\s*,\\s*"));
         });
 
         buttonPublish.setOnClickListener(v -> {
@@ -81,25 +77,77 @@ public class MainActivity extends AppCompatActivity implements MqttClientHandler
             if (!topic.isEmpty() && !msg.isEmpty()) mqtt.publish(topic, msg);
         });
 
-        // Handle incoming hex data from BluetoothConnection
+        // Handle incoming binary data from BluetoothConnection
         Intent intent = getIntent();
-        if (intent != null && intent.hasExtra("received_data_hex")) {
-            String hexData = intent.getStringExtra("received_data_hex");
-            if (hexData != null) {
+        if (intent != null && intent.hasExtra(EXTRA_RECEIVED_DATA)) {
+            byte[] data = intent.getByteArrayExtra(EXTRA_RECEIVED_DATA);
+            if (data != null) {
                 spinnerRole.setSelection(2); // Set to "Both"
                 editTextPubTopic.setText("bt/data");
-                editTextMessage.setText(hexData);
-                buttonConnect.performClick();
-                new android.os.Handler().postDelayed(() -> buttonPublish.performClick(), 2000);
+                editTextMessage.setText(data.length + " bytes from Bluetooth");
+                // Sent as soon as the broker is there rather than after a fixed delay.
+                connect(spinnerRole.getSelectedItem().toString())
+                        .thenCompose(MqttClientHandler::whenConnected)
+                        .thenAcceptAsync(client -> {
+                            String topic = editTextPubTopic.getText().toString().trim();
+                            if (!topic.isEmpty()) client.publish(topic, data, 0, data.length);
+                        }, this::runOnUiThread);
             }
         }
     }
 
+    /**
+     * Connects as {@code role} and enables the controls for it. The client for a new role is built
+     * on the startup threads once the broker settings are loaded; the same role reuses its client.
+     */
+    private CompletableFuture<MqttClientHandler> connect(String role) {
+        if (connecting == null || !role.equals(mqttRole)) {
+            // The old client stays in place, closed, until the new one is there.
+            MqttClientHandler previous = mqtt;
+            mqttRole = role;
+            connecting = AppStartup.get(this).broker.get().thenApplyAsync(broker -> {
+                try {
+                    if (previous != null) previous.close();
+                    MqttClientHandler client = new MqttClientHandler(getApplicationContext(), broker, role, this);
+                    // Readings a bridge resent after a reconnect are shown once
+                    client.enableDeduplication();
+                    return client;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, AppStartup.EXECUTOR);
+        }
+        CompletableFuture<MqttClientHandler> ready = connecting;
+        return ready.thenApplyAsync(client -> {
+            if (ready != connecting) {
+                client.close(); // another role was picked meanwhile; its client replaces this one
+                return client;
+            }
+            mqtt = client;
+            if (!client.isConnected()) client.connect();
+            boolean canSub = role.equals("Subscriber") || role.equals("Both");
+            boolean canPub = role.equals("Publisher")  || role.equals("Both");
+
+            editTextSubTopic.setEnabled(canSub);
+            buttonSubscribe.setEnabled(canSub);
+            editTextPubTopic.setEnabled(canPub);
+            editTextMessage.setEnabled(canPub);
+            buttonPublish.setEnabled(canPub);
+            return client;
+        }, this::runOnUiThread).whenCompleteAsync((client, error) -> {
+            if (error == null) return;
+            if (ready == connecting) connecting = null; // the next click tries again
+            onLog("! INIT EX: " + (error.getCause() != null ? error.getCause() : error).getMessage());
+        }, this::runOnUiThread);
+    }
+
     @Override
     public void onLog(String line) {
-        runOnUiThread(() -> {
-            textViewLog.append(line + "\n");
-            scrollLog.post(() -> scrollLog.fullScroll(View.FOCUS_DOWN));
-        });
+        console.log(line, null, null);
+    }
+
+    @Override
+    public void onLog(String event, Object subject, Object detail) {
+        console.log(event, subject, detail);
     }
 }
@@ -0,0 +1,45 @@
+package com.example.awsiotcertapp;
+
+import com.example.awsiotcertapp.protocol.SampleSchema;
+import com.example.awsiotcertapp.protocol.SampleStore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The samples of every logger this process has received from, one {@link SampleStore} per device
+ * address. Process-wide, so what the bridge or a manual transfer received can still be shown and
+ * re-published after the screen or service that received it is gone.
+ */
+final class ReadingHistory {
+    /** Channels of a logger frame when nothing says otherwise. */
+    static final int  DEFAULT_CHANNELS = 1;
+    private static final int  SCHEMA_VERSION = 1;
+    private static final int  MAX_SAMPLES_PER_DEVICE = 256 * 1024;
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+
+    private static final Map<String, SampleStore> stores = new LinkedHashMap<>();
+
+    private ReadingHistory() { }
+
+    /**
+     * The store of {@code address}, created on first use for logger frames of {@code channels}
+     * channels; a later call with another channel count gets the existing store.
+     */
+    static synchronized SampleStore get(String address, int channels) {
+        SampleStore store = stores.get(address);
+        if (store == null) {
+            SampleStore.Options opts = new SampleStore.Options();
+            opts.setMaxSamples(MAX_SAMPLES_PER_DEVICE);
+            opts.setMaxAgeMs(MAX_AGE_MS);
+            store = new SampleStore(SampleSchema.loggerFrame(SCHEMA_VERSION, channels), opts);
+            stores.put(address, store);
+        }
+        return store;
+    }
+
+    /** The stores by device address, in the order the devices were first seen. */
+    static synchronized Map<String, SampleStore> all() {
+        return new LinkedHashMap<>(stores);
+    }
+}
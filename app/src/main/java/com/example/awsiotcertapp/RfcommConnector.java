@@ -0,0 +1,86 @@
+package com.example.awsiotcertapp;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import androidx.core.app.ActivityCompat;
+
+import com.example.awsiotcertapp.protocol.DeviceConnectionManager;
+import com.example.awsiotcertapp.protocol.Metrics;
+import com.example.awsiotcertapp.protocol.SessionCapture;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Opens serial-port-profile RFCOMM sockets for {@link DeviceConnectionManager}. With a capture
+ * directory, every session is also recorded there by {@link SessionCapture}, for replay against
+ * the simulated logger in the protocol tests.
+ */
+final class RfcommConnector implements DeviceConnectionManager.Connector {
+    private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private final Context context;
+    private final File    captureDir;
+
+    RfcommConnector(Context context) {
+        this(context, null);
+    }
+
+    RfcommConnector(Context context, File captureDir) {
+        this.context    = context.getApplicationContext();
+        this.captureDir = captureDir;
+    }
+
+    @Override
+    public DeviceConnectionManager.Link connect(String address) throws IOException {
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+            throw new IOException("missing BLUETOOTH_CONNECT permission");
+        }
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothSocket socket = device.createRfcommSocketToServiceRecord(SPP_UUID);
+        long start = Metrics.shared().startTimer();
+        try {
+            socket.connect();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        Metrics.shared().histogram("bt.connect").recordSince(start);
+        DeviceConnectionManager.Link link = new DeviceConnectionManager.Link() {
+            @Override public InputStream input() throws IOException {
+                return socket.getInputStream();
+            }
+
+            @Override public OutputStream output() throws IOException {
+                return socket.getOutputStream();
+            }
+
+            @Override public void close() throws IOException {
+                socket.close();
+            }
+        };
+        if (captureDir == null) return link;
+        if (!captureDir.isDirectory() && !captureDir.mkdirs()) {
+            link.close();
+            throw new IOException("cannot create " + captureDir);
+        }
+        File file = new File(captureDir, address.replace(':', '-') + "-" + System.currentTimeMillis() + ".txt");
+        try {
+            return SessionCapture.record(link, new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            link.close();
+            throw e;
+        }
+    }
+}
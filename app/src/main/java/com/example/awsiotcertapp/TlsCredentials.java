@@ -0,0 +1,78 @@
+package com.example.awsiotcertapp;
+
+import android.content.Context;
+
+import com.example.awsiotcertapp.protocol.Metrics;
+import com.example.awsiotcertapp.protocol.SslContextCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Loads the AWS IoT certificates from raw resources, or from the directory set with
+ * {@link BrokerConfig#setCredentialsDir}, on a background thread and resolves them through the
+ * process-wide {@link SslContextCache}, so only the first connect pays for parsing.
+ */
+final class TlsCredentials {
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "tls-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private TlsCredentials() {
+    }
+
+    /** @param dir holds the PEM files, or {@code null} for the bundled resources */
+    static CompletableFuture<SSLContext> load(Context ctx, File dir) {
+        Context app = ctx.getApplicationContext();
+        long start = Metrics.shared().startTimer();
+        return CompletableFuture.supplyAsync(() -> dir == null
+                        ? new byte[][]{
+                                readRaw(app, R.raw.root_ca),
+                                readRaw(app, R.raw.client_certificate),
+                                readRaw(app, R.raw.private_key)}
+                        : new byte[][]{
+                                readFile(new File(dir, "root_ca.pem")),
+                                readFile(new File(dir, "client_certificate.crt")),
+                                readFile(new File(dir, "private_key.key"))}, LOADER)
+                .thenCompose(pem -> SslContextCache.shared().getAsync(pem[0], pem[1], pem[2], LOADER))
+                .thenApply(ssl -> {
+                    Metrics.shared().histogram("tls.context_load").recordSince(start);
+                    return ssl;
+                });
+    }
+
+    private static byte[] readRaw(Context ctx, int id) {
+        try (InputStream in = ctx.getResources().openRawResource(id)) {
+            return readAll(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] readFile(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            return readAll(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[2048];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,110 @@
+plugins {
+    id("java-library")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    testImplementation("junit:junit:4.13.2")
+    // Real client for the end-to-end tests against the embedded broker.
+    testImplementation("org.eclipse.paho:org.eclipse.paho.client.mqttv3:1.2.5")
+}
+
+tasks.register<JavaExec>("publishBenchmark") {
+    description = "Compares batched and unbatched publishing against a simulated broker."
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.example.awsiotcertapp.protocol.bench.PublishBenchmark")
+}
+
+tasks.register<JavaExec>("acquisitionBenchmark") {
+    description = "Measures aggregate readings per second for 1 to 8 simulated loggers."
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.example.awsiotcertapp.protocol.bench.AcquisitionBenchmark")
+}
+
+tasks.register<JavaExec>("engineBenchmark") {
+    description = "Transfers per second, latency and flushes per transfer for one engine over a zero-delay fake logger."
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.example.awsiotcertapp.protocol.bench.EngineBenchmark")
+}
+
+tasks.register<JavaExec>("codecBenchmark") {
+    description = "Reports bytes on the wire and encode time per reading for every payload codec."
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.example.awsiotcertapp.protocol.bench.CodecBenchmark")
+}
+
+tasks.register<JavaExec>("loadTest") {
+    description = "Drives N TLS publishers against the embedded broker; --args=\"publishers=16 latency=20 drop=0.01\"."
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.example.awsiotcertapp.protocol.bench.LoadGenerator")
+}
+
+tasks.register<JavaExec>("linkBenchmark") {
+    description = "Readings per second and retries for one simulated logger as fragmentation and corruption grow."
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.example.awsiotcertapp.protocol.bench.LinkBenchmark")
+}
+
+tasks.register<JavaExec>("storeBenchmark") {
+    description = "Heap per sample, append cost and range-query latency of a full sample store."
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.example.awsiotcertapp.protocol.bench.StoreBenchmark")
+}
+
+tasks.register<JavaExec>("startupBenchmark") {
+    description = "Main-thread time and time to first publish of a cold start, sequential and through Startup."
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.example.awsiotcertapp.protocol.bench.StartupBenchmark")
+}
+
+tasks.register<JavaExec>("shadowBenchmark") {
+    description = "Bytes and time-set commands of patch-based shadow sync against whole documents."
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.example.awsiotcertapp.protocol.bench.ShadowBenchmark")
+}
+
+// JMH micro-benchmarks for the byte-level hot paths live in src/jmh. `./gradlew :protocol:jmh` runs
+// them with the GC profiler and stores the JSON in jmh-results/<commit>.json, so a later run can be
+// checked against it with `./gradlew :protocol:jmhCompare -Pbaseline=<commit>`.
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets["main"].output
+    runtimeClasspath += sourceSets["main"].output
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+val jmhResults = layout.projectDirectory.dir("jmh-results")
+val commit = providers.exec { commandLine("git", "rev-parse", "--short", "HEAD") }
+        .standardOutput.asText.map { it.trim() }
+
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks with -prof gc; -Pjmh.include=<regex> picks a subset."
+    group = "verification"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val include = providers.gradleProperty("jmh.include")
+    val results = jmhResults.file(commit.map { "$it.json" })
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOfNotNull(include.orNull, "-prof", "gc", "-rf", "json", "-rff", results.get().asFile.path)
+    })
+    doFirst { jmhResults.asFile.mkdirs() }
+}
+
+tasks.register<JavaExec>("jmhCompare") {
+    description = "Compares the results of HEAD with those of -Pbaseline=<commit>; fails on a >10% regression."
+    group = "verification"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("com.example.awsiotcertapp.protocol.jmh.CompareResults")
+    val baseline = providers.gradleProperty("baseline")
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(jmhResults.file("${baseline.get()}.json").asFile.path,
+                jmhResults.file("${commit.get()}.json").asFile.path)
+    })
+}
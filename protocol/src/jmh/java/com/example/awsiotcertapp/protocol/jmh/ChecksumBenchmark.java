@@ -0,0 +1,63 @@
+package com.example.awsiotcertapp.protocol.jmh;
+
+import com.example.awsiotcertapp.protocol.Frame;
+import com.example.awsiotcertapp.protocol.FrameDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The checksum alone, over a frame that is already buffered: the decoder's running sum, a fresh
+ * sum over the ring ({@link Frame#sum}), and the legacy copy-and-loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+
+    Frame frame;
+    ByteArrayOutputStream legacyBuffer;
+
+    @Setup
+    public void setUp() {
+        byte[] bytes = new byte[814];
+        Random random = new Random(42);
+        for (int i = 1; i < bytes.length - 1; i++) bytes[i] = (byte) random.nextInt(0x40);
+        bytes[0] = Frame.DATA_START;
+        bytes[bytes.length - 1] = Frame.DATA_END;
+        // Frames are views into the decoder's ring; keep the last one, the ring is not reused here.
+        new FrameDecoder(2048, f -> frame = f).feed(bytes, 0, bytes.length);
+        legacyBuffer = new ByteArrayOutputStream();
+        legacyBuffer.write(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public int running() {
+        return frame.checksum();
+    }
+
+    @Benchmark
+    public int resum() {
+        return frame.sum(1, frame.length() - 1) & 0xFF;
+    }
+
+    @Benchmark
+    public int legacy() {
+        return Legacy.checksum(legacyBuffer);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.awsiotcertapp.protocol.jmh;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prints two JMH JSON result files side by side and marks every benchmark whose time or
+ * allocation per operation grew by more than the threshold. Exits with 1 if any did.
+ * <p>
+ * Usage: {@code CompareResults <baseline.json> <current.json> [threshold %, default 10]}
+ */
+public final class CompareResults {
+
+    private static final Pattern BENCHMARK = Pattern.compile("\"benchmark\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern PARAMS    = Pattern.compile("\"params\"\\s*:\\s*\\{([^}]*)\\}");
+    private static final Pattern SCORE     = Pattern.compile("\"score\"\\s*:\\s*\"?([-+0-9.eE]+|NaN)\"?");
+
+    static final class Result {
+        final double nanosPerOp;
+        final double bytesPerOp;
+
+        Result(double nanosPerOp, double bytesPerOp) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: CompareResults <baseline.json> <current.json> [threshold %]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, Result> before = read(Paths.get(args[0]));
+        Map<String, Result> after  = read(Paths.get(args[1]));
+
+        int regressions = 0;
+        System.out.println(String.format(Locale.US, "%-60s %12s %12s %8s %10s %10s %8s",
+                "benchmark", "ns/op", "was", "delta", "B/op", "was", "delta"));
+        for (Map.Entry<String, Result> e : after.entrySet()) {
+            Result now = e.getValue();
+            Result was = before.get(e.getKey());
+            if (was == null) {
+                System.out.println(String.format(Locale.US, "%-60s %12.1f %12s %8s %10.0f",
+                        e.getKey(), now.nanosPerOp, "-", "new", now.bytesPerOp));
+                continue;
+            }
+            double time  = change(was.nanosPerOp, now.nanosPerOp);
+            double alloc = change(was.bytesPerOp, now.bytesPerOp);
+            boolean worse = time > threshold || alloc > threshold;
+            if (worse) regressions++;
+            System.out.println(String.format(Locale.US, "%-60s %12.1f %12.1f %+7.1f%% %10.0f %10.0f %+7.1f%%%s",
+                    e.getKey(), now.nanosPerOp, was.nanosPerOp, time,
+                    now.bytesPerOp, was.bytesPerOp, alloc, worse ? "  REGRESSION" : ""));
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed by more than " + threshold + "%");
+            System.exit(1);
+        }
+    }
+
+    private static double change(double was, double now) {
+        if (Double.isNaN(was) || Double.isNaN(now)) return 0;
+        if (was == 0) return now == 0 ? 0 : Double.POSITIVE_INFINITY;
+        return (now - was) / was * 100;
+    }
+
+    /** Benchmark name plus parameters, mapped to the primary score and {@code gc.alloc.rate.norm}. */
+    static Map<String, Result> read(Path file) throws IOException {
+        String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Map<String, Result> results = new LinkedHashMap<>();
+        Matcher m = BENCHMARK.matcher(json);
+        int start = m.find() ? m.start() : -1;
+        while (start >= 0) {
+            String fqn = m.group(1);
+            int end = m.find() ? m.start() : json.length();
+            String entry = json.substring(start, end);
+
+            // Class.method is enough to tell the benchmarks apart.
+            String name = fqn.substring(fqn.lastIndexOf('.', fqn.lastIndexOf('.') - 1) + 1);
+            Matcher params = PARAMS.matcher(entry);
+            if (params.find()) name += "{" + params.group(1).replaceAll("[\\s\"]", "") + "}";
+            results.put(name, new Result(score(entry, "\"primaryMetric\""), score(entry, "\"gc.alloc.rate.norm\"")));
+            start = end < json.length() ? end : -1;
+        }
+        return results;
+    }
+
+    private static double score(String entry, String key) {
+        int at = entry.indexOf(key);
+        if (at < 0) return Double.NaN;
+        Matcher m = SCORE.matcher(entry);
+        return m.find(at) ? Double.parseDouble(m.group(1)) : Double.NaN;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.awsiotcertapp.protocol.jmh;
+
+import com.example.awsiotcertapp.protocol.BatchEnvelope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Building and splitting a {@link BatchEnvelope} of 24-byte readings. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvelopeBenchmark {
+
+    @Param({"1", "50", "500"})
+    int messages;
+
+    byte[] reading;
+    byte[] sealed;
+
+    @Setup
+    public void setUp() {
+        reading = new byte[24];
+        new Random(42).nextBytes(reading);
+        sealed = seal();
+    }
+
+    @Benchmark
+    public byte[] seal() {
+        BatchEnvelope envelope = new BatchEnvelope(4096);
+        for (int i = 0; i < messages; i++) envelope.add(reading, 0, reading.length);
+        return envelope.seal();
+    }
+
+    @Benchmark
+    public List<byte[]> decode() {
+        return BatchEnvelope.decode(sealed);
+    }
+}
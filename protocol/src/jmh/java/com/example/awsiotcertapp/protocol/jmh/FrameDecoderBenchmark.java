@@ -0,0 +1,71 @@
+package com.example.awsiotcertapp.protocol.jmh;
+
+import com.example.awsiotcertapp.protocol.Frame;
+import com.example.awsiotcertapp.protocol.FrameDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One 814-byte data frame arriving in RFCOMM-sized reads, decoded and checksummed. The legacy
+ * variant accumulates the reads in a {@link ByteArrayOutputStream} and sums a copy at the end,
+ * as {@code handleIncomingData} did.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+
+    @Param({"64", "990"})
+    int readSize;
+
+    byte[] frame;
+    FrameDecoder decoder;
+    ByteArrayOutputStream legacyBuffer;
+    int checksum;
+
+    @Setup
+    public void setUp() {
+        frame = new byte[814];
+        Random random = new Random(42);
+        for (int i = 1; i < frame.length - 1; i++) frame[i] = (byte) random.nextInt(0x40);
+        frame[0] = Frame.DATA_START;
+        frame[frame.length - 1] = Frame.DATA_END;
+        decoder = new FrameDecoder(2048, f -> checksum = f.checksum());
+        decoder.setExpectedDataLength(frame.length);
+        legacyBuffer = new ByteArrayOutputStream();
+    }
+
+    @Benchmark
+    public int decode() {
+        for (int off = 0; off < frame.length; off += readSize) {
+            decoder.feed(frame, off, Math.min(readSize, frame.length - off));
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public int decodeLegacy() {
+        legacyBuffer.reset();
+        for (int off = 0; off < frame.length; off += readSize) {
+            legacyBuffer.write(frame, off, Math.min(readSize, frame.length - off));
+        }
+        return Legacy.checksum(legacyBuffer);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.awsiotcertapp.protocol.jmh;
+
+import com.example.awsiotcertapp.protocol.Hex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Hex text in both directions: a 3-byte command and an 814-byte logger payload. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark {
+
+    @Param({"3", "814"})
+    int size;
+
+    byte[] bytes;
+    String text;
+
+    @Setup
+    public void setUp() {
+        bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        text = Hex.encode(bytes);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Hex.encode(bytes);
+    }
+
+    @Benchmark
+    public byte[] encodeToAscii() {
+        return Hex.encodeToAscii(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public String encodeLegacy() {
+        return Legacy.bytesToHex(bytes);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Hex.decode(text);
+    }
+
+    @Benchmark
+    public byte[] decodeLegacy() {
+        return Legacy.hexStringToBytes(text);
+    }
+}
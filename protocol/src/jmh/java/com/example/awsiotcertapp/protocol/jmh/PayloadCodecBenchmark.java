@@ -0,0 +1,65 @@
+package com.example.awsiotcertapp.protocol.jmh;
+
+import com.example.awsiotcertapp.protocol.PayloadCodec;
+import com.example.awsiotcertapp.protocol.PayloadCodecs;
+import com.example.awsiotcertapp.protocol.SampleSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Encoding one logger frame of 40 three-channel samples with each payload codec. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadCodecBenchmark {
+
+    @Param({"raw", "hex", "json", "delta", "delta+deflate"})
+    String codec;
+
+    PayloadCodec encoder;
+    byte[]       reading;
+    byte[]       encoded;
+
+    @Setup
+    public void setUp() {
+        encoder = PayloadCodecs.byName(codec, SampleSchema.loggerFrame(1, 3));
+        Random random = new Random(42);
+        reading = new byte[2 + 40 * 6];
+        reading[0] = 0x40;
+        int[] values = {2150, 5200, 10130};
+        for (int i = 0; i < 40; i++) {
+            for (int c = 0; c < 3; c++) {
+                values[c] += random.nextInt(5) - 2;
+                reading[1 + i * 6 + c * 2] = (byte) (values[c] >>> 8);
+                reading[2 + i * 6 + c * 2] = (byte) values[c];
+            }
+        }
+        reading[reading.length - 1] = 0x4F;
+        encoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return encoder.encode(reading, 0, reading.length);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return encoder.decode(encoded);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Wire format for batched publishes: {@code 0xB1}, a varint message count, then each message as
+ * a varint length followed by its bytes. Records are appended into one growable buffer and
+ * framed with a single copy when the batch is sealed.
+ */
+public final class BatchEnvelope {
+    public static final byte MAGIC = (byte) 0xB1;
+
+    private byte[] records;
+    private int    size;
+    private int    count;
+
+    public BatchEnvelope(int initialCapacity) {
+        this.records = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public void add(byte[] payload, int offset, int len) {
+        ensure(Varint.size(len) + len);
+        size = Varint.write(records, size, len);
+        System.arraycopy(payload, offset, records, size, len);
+        size += len;
+        count++;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /** Size of the envelope {@link #seal()} would produce. */
+    public int encodedSize() {
+        return 1 + Varint.size(count) + size;
+    }
+
+    public byte[] seal() {
+        byte[] out = new byte[encodedSize()];
+        out[0] = MAGIC;
+        int pos = Varint.write(out, 1, count);
+        System.arraycopy(records, 0, out, pos, size);
+        return out;
+    }
+
+    public static List<byte[]> decode(byte[] envelope) {
+        if (envelope.length == 0 || envelope[0] != MAGIC) throw new IllegalArgumentException("not a batch envelope");
+        int[] pos = {1};
+        int count = (int) Varint.read(envelope, pos);
+        List<byte[]> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int len = (int) Varint.read(envelope, pos);
+            if (pos[0] + len > envelope.length) throw new IllegalArgumentException("truncated envelope");
+            messages.add(Arrays.copyOfRange(envelope, pos[0], pos[0] + len));
+            pos[0] += len;
+        }
+        return messages;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra <= records.length) return;
+        records = Arrays.copyOf(records, Math.max(records.length * 2, size + extra));
+    }
+}
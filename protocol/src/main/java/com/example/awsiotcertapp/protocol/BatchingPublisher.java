@@ -0,0 +1,195 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces messages for the same topic into one {@link BatchEnvelope} publish. A topic's batch is
+ * flushed when it reaches {@link Options#setMaxBatchBytes(int)} or {@link Options#setMaxDelayMs(long)}
+ * after its first message, whichever comes first. At most {@link Options#setMaxInFlight(int)}
+ * publishes wait for their acknowledgement at once; beyond that the flushing thread blocks, which
+ * pushes back on the producer.
+ * <p>
+ * With batching turned off every message is published on its own, still under the in-flight limit.
+ */
+public final class BatchingPublisher {
+
+    public interface Transport {
+        /** Publishes {@code payload}; {@code done} must be called exactly once with the outcome. */
+        void publish(String topic, byte[] payload, Callback done);
+    }
+
+    public interface Callback {
+        void onComplete(Throwable error);
+    }
+
+    public interface Listener {
+        void onBatchComplete(String topic, int messages, int bytes, Throwable error);
+    }
+
+    public static final class Options {
+        int     maxBatchBytes  = 16 * 1024;
+        long    maxDelayMs     = 50;
+        int     maxInFlight    = 8;
+        boolean batching       = true;
+        long    closeTimeoutMs = 5_000;
+
+        public void setMaxBatchBytes(int bytes) { this.maxBatchBytes = bytes; }
+        public void setMaxDelayMs(long ms)      { this.maxDelayMs = ms; }
+        public void setMaxInFlight(int max)     { this.maxInFlight = max; }
+        public void setBatching(boolean on)     { this.batching = on; }
+
+        /** How long {@link #close()} waits for room in the in-flight window before failing what is left. */
+        public void setCloseTimeoutMs(long ms)  { this.closeTimeoutMs = ms; }
+    }
+
+    private final class Batch {
+        final String        topic;
+        final BatchEnvelope envelope;
+        ScheduledFuture<?>  timer;
+
+        Batch(String topic) {
+            this.topic    = topic;
+            this.envelope = new BatchEnvelope(Math.min(opts.maxBatchBytes, 4096));
+        }
+    }
+
+    private final Transport  transport;
+    private final Options    opts;
+    private final Listener   listener;
+    private final Semaphore  inFlight;
+    private final Map<String, Batch> open = new HashMap<>();
+    private boolean closed;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "batch-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public BatchingPublisher(Transport transport, Options opts, Listener listener) {
+        this.transport = transport;
+        this.opts      = opts;
+        this.listener  = listener;
+        this.inFlight  = new Semaphore(opts.maxInFlight);
+    }
+
+    /**
+     * Queues {@code len} bytes of {@code payload} for {@code topic}. The bytes are copied into the
+     * topic's batch, so the caller may reuse the array. Blocks while the in-flight window is full.
+     * Once {@link #close()} was called the message is failed through the listener instead.
+     */
+    public void publish(String topic, byte[] payload, int offset, int len) throws InterruptedException {
+        Batch full = null;
+        boolean rejected;
+        synchronized (this) {
+            rejected = closed;
+            if (!rejected && opts.batching) {
+                Batch batch = open.get(topic);
+                if (batch == null) {
+                    Batch created = new Batch(topic);
+                    created.timer = timer.schedule(() -> flushIfOpen(created), opts.maxDelayMs, TimeUnit.MILLISECONDS);
+                    open.put(topic, created);
+                    batch = created;
+                }
+                batch.envelope.add(payload, offset, len);
+                if (batch.envelope.encodedSize() >= opts.maxBatchBytes) {
+                    open.remove(topic);
+                    batch.timer.cancel(false);
+                    full = batch;
+                }
+            }
+        }
+        if (rejected) {
+            if (listener != null) listener.onBatchComplete(topic, 1, len, new IllegalStateException("publisher closed"));
+        } else if (!opts.batching) {
+            byte[] body = offset == 0 && len == payload.length ? payload : Arrays.copyOfRange(payload, offset, offset + len);
+            send(topic, body, 1);
+        } else if (full != null) {
+            send(full.topic, full.envelope.seal(), full.envelope.count());
+        }
+    }
+
+    /** Sends every open batch now. */
+    public void flush() throws InterruptedException {
+        List<Batch> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(open.values());
+            open.clear();
+        }
+        for (Batch batch : pending) {
+            batch.timer.cancel(false);
+            send(batch.topic, batch.envelope.seal(), batch.envelope.count());
+        }
+    }
+
+    /** Publishes awaiting their acknowledgement. */
+    public int inFlight() {
+        return opts.maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Stops taking messages, stops the flush timer and sends the batches still open. A batch that
+     * finds no room in the in-flight window within {@link Options#setCloseTimeoutMs(long)} is failed
+     * through the listener, so close never waits on acknowledgements that may not come.
+     */
+    public void close() throws InterruptedException {
+        List<Batch> pending;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            pending = new ArrayList<>(open.values());
+            open.clear();
+        }
+        timer.shutdownNow();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(opts.closeTimeoutMs);
+        for (Batch batch : pending) {
+            byte[] payload = batch.envelope.seal();
+            int messages = batch.envelope.count();
+            if (inFlight.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                transmit(batch.topic, payload, messages);
+            } else if (listener != null) {
+                listener.onBatchComplete(batch.topic, messages, payload.length,
+                        new TimeoutException("in-flight window still full when closing"));
+            }
+        }
+    }
+
+    private void flushIfOpen(Batch batch) {
+        synchronized (this) {
+            if (open.get(batch.topic) != batch) return;
+            open.remove(batch.topic);
+        }
+        try {
+            send(batch.topic, batch.envelope.seal(), batch.envelope.count());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(String topic, byte[] payload, int messages) throws InterruptedException {
+        inFlight.acquire();
+        transmit(topic, payload, messages);
+    }
+
+    /** Hands the batch to the transport; the caller holds one in-flight permit for it. */
+    private void transmit(String topic, byte[] payload, int messages) {
+        try {
+            transport.publish(topic, payload, error -> {
+                inFlight.release();
+                if (listener != null) listener.onBatchComplete(topic, messages, payload.length, error);
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            if (listener != null) listener.onBatchComplete(topic, messages, payload.length, e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+
+/**
+ * Receive side of one chunked transfer: which chunks were asked for, which arrived intact, and
+ * which have to be asked for again. Only the chunks that failed are fetched a second time, and up to
+ * {@code window} requests are kept in flight so the link never idles for a round trip.
+ * <p>
+ * Commands, host to device. Numbers are sent as two 7-bit groups with the top bit set, so a command
+ * can never contain the {@code 0x4F} end marker:
+ * <pre>
+ *   40 08 S S 4F   snapshot the log into chunks of S bytes and send chunk 0
+ *   40 09 I I 4F   send chunk I of that snapshot
+ * </pre>
+ * Chunks, device to host, all {@code chunkSize + 10} bytes long; the decoder is set to that fixed
+ * length, so payload bytes may take any value:
+ * <pre>
+ *   40 09 Ihi Ilo Nhi Nlo L data[chunkSize] CRChi CRClo 4F
+ * </pre>
+ * {@code I} is the chunk index, {@code N} the number of chunks, {@code L} how many data bytes are
+ * used (less than {@code chunkSize} only in the last chunk), and the CRC is {@link Crc16} over
+ * everything from the type byte to the end of the data.
+ * <p>
+ * The link delivers in order, so when chunk {@code k} arrives every chunk requested before it that
+ * is still missing was lost or corrupted, and goes straight back into the request queue. Chunks
+ * that went missing at the end of the window are only noticed by the engine's step timeout, which
+ * calls {@link #timedOut()}. Not thread-safe; confined to the engine's loop thread.
+ */
+final class ChunkedTransfer {
+    static final byte START    = 0x08;
+    static final byte FETCH    = 0x09;
+    static final byte CHUNK    = 0x09;
+    static final int  OVERHEAD = 10;
+    /** Largest chunk size and chunk index a command can carry; a log may have one chunk more. */
+    static final int  MAX_NUMBER = (1 << 14) - 1;
+
+    private final int    chunkSize;
+    private final int    window;
+    private final BitSet received = new BitSet();
+    /** Requested and not yet answered, in the order the requests went out. */
+    private final ArrayDeque<Integer> outstanding = new ArrayDeque<>();
+    private final ArrayDeque<Integer> missing     = new ArrayDeque<>();
+    private final Metrics.Counter     retransmits;
+    private final Metrics.Counter     corrupt;
+
+    private boolean needsStart = true;
+    private int     count      = -1;
+    private int     next;
+    private int     lastLength;
+    private byte[]  data;
+
+    ChunkedTransfer(int chunkSize, int window, Metrics.Counter retransmits, Metrics.Counter corrupt) {
+        this.chunkSize   = chunkSize;
+        this.window      = window;
+        this.retransmits = retransmits;
+        this.corrupt     = corrupt;
+    }
+
+    /** The next command to send, or {@code null} while the window is full or nothing is left to ask for. */
+    byte[] nextCommand() {
+        if (outstanding.size() >= window) return null;
+        if (needsStart) {
+            needsStart = false;
+            outstanding.add(0);
+            next = 1;
+            return command(START, chunkSize);
+        }
+        Integer again = missing.poll();
+        if (again != null) {
+            retransmits.inc();
+            outstanding.add(again);
+            return command(FETCH, again);
+        }
+        // Until chunk count is known, ask for a window's worth; the device ignores indices past the end.
+        int limit = count < 0 ? window : count;
+        if (next < limit) {
+            outstanding.add(next);
+            return command(FETCH, next++);
+        }
+        return null;
+    }
+
+    /**
+     * Takes in one chunk frame; returns {@code true} once every chunk has arrived intact. Throws
+     * {@link IllegalArgumentException} if the device split the log into more chunks than a command
+     * can ask for, which no retry will fix.
+     */
+    boolean accept(Frame frame) {
+        int end = chunkSize + 7;
+        if (frame.length() != chunkSize + OVERHEAD || frame.get(1) != CHUNK
+                || frame.crc16(1, end) != ((frame.get(end) & 0xFF) << 8 | (frame.get(end + 1) & 0xFF))) {
+            corrupt.inc();
+            return false;
+        }
+        int index = (frame.get(2) & 0xFF) << 8 | (frame.get(3) & 0xFF);
+        int total = (frame.get(4) & 0xFF) << 8 | (frame.get(5) & 0xFF);
+        int len   = frame.get(6) & 0xFF;
+        if (total == 0 || index >= total || (count >= 0 && total != count) || len > chunkSize
+                || (index < total - 1 && len != chunkSize)) {
+            corrupt.inc();
+            return false;
+        }
+        if (count < 0) {
+            if (total > MAX_NUMBER + 1) {
+                throw new IllegalArgumentException(total + " chunks, more than " + (MAX_NUMBER + 1) + " can be fetched");
+            }
+            learnCount(total);
+        }
+
+        if (outstanding.contains(index)) {
+            // Everything asked for before this chunk was answered, or lost, by now.
+            for (int j; (j = outstanding.poll()) != index; ) {
+                if (!received.get(j) && !missing.contains(j)) missing.add(j);
+            }
+        }
+        if (!received.get(index)) {
+            frame.copyTo(7, data, index * chunkSize, len);
+            received.set(index);
+            missing.remove(index);
+            if (index == count - 1) lastLength = len;
+        }
+        return received.cardinality() == count;
+    }
+
+    /**
+     * Nothing arrived for a whole step: everything in flight is asked for again, or, if not a single
+     * chunk came through, the transfer starts over with a new snapshot.
+     */
+    void timedOut() {
+        if (count < 0) {
+            outstanding.clear();
+            missing.clear();
+            needsStart = true;
+            return;
+        }
+        for (Integer j; (j = outstanding.poll()) != null; ) {
+            if (!received.get(j) && !missing.contains(j)) missing.add(j);
+        }
+    }
+
+    int receivedChunks() {
+        return received.cardinality();
+    }
+
+    byte[] payload() {
+        return Arrays.copyOf(data, (count - 1) * chunkSize + lastLength);
+    }
+
+    private void learnCount(int total) {
+        count = total;
+        data = new byte[total * chunkSize];
+        // Drop the optimistic requests past the end; the device does not answer them.
+        for (Iterator<Integer> it = outstanding.iterator(); it.hasNext(); ) {
+            if (it.next() >= total) it.remove();
+        }
+    }
+
+    static byte[] command(byte type, int number) {
+        if (number < 0 || number > MAX_NUMBER) {
+            throw new IllegalArgumentException(number + " does not fit in a command, the most is " + MAX_NUMBER);
+        }
+        return new byte[]{0x40, type, (byte) (0x80 | number >>> 7), (byte) (0x80 | number & 0x7F), 0x4F};
+    }
+
+    /** Reads back a number written by {@link #command}. */
+    static int number(Frame cmd) {
+        return (cmd.get(2) & 0x7F) << 7 | (cmd.get(3) & 0x7F);
+    }
+
+    /** Device side: chunk {@code index} of {@code data}, as the engine expects it. */
+    static byte[] encodeChunk(byte[] data, int index, int chunkSize) {
+        int total = Math.max(1, (data.length + chunkSize - 1) / chunkSize);
+        int from  = index * chunkSize;
+        int len   = Math.min(chunkSize, data.length - from);
+        byte[] f = new byte[chunkSize + OVERHEAD];
+        f[0] = 0x40;
+        f[1] = CHUNK;
+        f[2] = (byte) (index >>> 8);
+        f[3] = (byte) index;
+        f[4] = (byte) (total >>> 8);
+        f[5] = (byte) total;
+        f[6] = (byte) len;
+        System.arraycopy(data, from, f, 7, len);
+        int crc = Crc16.of(f, 1, chunkSize + 6);
+        f[chunkSize + 7] = (byte) (crc >>> 8);
+        f[chunkSize + 8] = (byte) crc;
+        f[chunkSize + 9] = 0x4F;
+        return f;
+    }
+}
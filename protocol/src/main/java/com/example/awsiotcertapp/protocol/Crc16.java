@@ -0,0 +1,31 @@
+package com.example.awsiotcertapp.protocol;
+
+/** CRC-16/CCITT-FALSE (polynomial 0x1021, initial value 0xFFFF), table-driven; guards each chunk of a chunked transfer. */
+public final class Crc16 {
+    public static final int INITIAL = 0xFFFF;
+
+    private static final char[] TABLE = new char[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            TABLE[i] = (char) crc;
+        }
+    }
+
+    private Crc16() {
+    }
+
+    public static int of(byte[] bytes, int offset, int len) {
+        int crc = INITIAL;
+        for (int i = offset, end = offset + len; i < end; i++) crc = update(crc, bytes[i]);
+        return crc;
+    }
+
+    public static int update(int crc, byte b) {
+        return ((crc << 8) ^ TABLE[((crc >>> 8) ^ b) & 0xFF]) & 0xFFFF;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Receiving side of the {@link Sequencer}: drops messages whose sequence number was already seen
+ * for their device and epoch. Each device and epoch has a {@link SequenceWindow} that starts at 0,
+ * where the {@link Sequencer} starts, so numbers that arrive after a higher one are still taken;
+ * only the most recently used {@code maxStreams} are kept. A message more than the window's
+ * capacity behind the newest one counts as a repeat. Messages without a stamp always pass.
+ */
+public final class Deduplicator {
+
+    private final int window;
+    private final Map<String, SequenceWindow> streams;
+    private long duplicates;
+
+    public Deduplicator(int window, int maxStreams) {
+        this.window  = window;
+        this.streams = new LinkedHashMap<String, SequenceWindow>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, SequenceWindow> eldest) {
+                return size() > maxStreams;
+            }
+        };
+    }
+
+    /** {@code false} if this sequence number of {@code device} was seen before in {@code epoch}. */
+    public synchronized boolean firstDelivery(String device, long epoch, long sequence) {
+        String key = device + '@' + epoch;
+        SequenceWindow seen = streams.get(key);
+        if (seen == null) {
+            seen = new SequenceWindow(window, 0);
+            streams.put(key, seen);
+        }
+        if (seen.add(sequence)) return true;
+        duplicates++;
+        return false;
+    }
+
+    /** {@link #firstDelivery(String, long, long)} for the stamp of {@code message}. */
+    public boolean firstDelivery(String device, byte[] message) {
+        Sequencer.Stamp s = Sequencer.read(message);
+        return s == null || firstDelivery(device, s.epoch, s.sequence);
+    }
+
+    /**
+     * A handler that passes each first delivery to {@code next} without its stamp and drops the
+     * repeats. The topic is the device.
+     */
+    public TopicRouter.Handler filter(TopicRouter.Handler next) {
+        return (topic, payload) -> {
+            ByteBuffer message = unstamped(topic, payload);
+            if (message != null) next.onMessage(topic, message);
+        };
+    }
+
+    /**
+     * {@code payload} without its stamp, {@code payload} itself if it has none, or {@code null} if
+     * it is a repeat.
+     */
+    public ByteBuffer unstamped(String device, ByteBuffer payload) {
+        if (!payload.hasRemaining() || payload.get(payload.position()) != Sequencer.MAGIC) return payload;
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        Sequencer.Stamp s = Sequencer.read(bytes);
+        if (s == null) return payload;
+        if (!firstDelivery(device, s.epoch, s.sequence)) return null;
+        return ByteBuffer.wrap(bytes, s.offset, bytes.length - s.offset).slice();
+    }
+
+    /** Messages dropped as repeats. */
+    public synchronized long duplicates() {
+        return duplicates;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw DEFLATE over another codec's output, primed with a preset dictionary. A single reading is
+ * too short for DEFLATE to find repeats in by itself; a dictionary made of typical readings gives it
+ * back-references from the first byte on. Consumers need the same dictionary, so its id is sent
+ * along:
+ * <pre>
+ *   0xDF  varint dictionary id  deflated bytes     (0 = no dictionary)
+ *   0xDE  the inner codec's bytes, stored           (when deflating would not make them smaller)
+ * </pre>
+ * One deflater and one inflater are reused under the codec's lock.
+ */
+public final class DeflateCodec implements PayloadCodec {
+    public static final byte DEFLATED = (byte) 0xDF;
+    public static final byte STORED   = (byte) 0xDE;
+
+    private final PayloadCodec inner;
+    private final byte[]       dictionary;
+    private final int          dictionaryId;
+    private final Deflater     deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater     inflater = new Inflater(true);
+    private byte[]             scratch  = new byte[512];
+
+    /**
+     * @param dictionary   preset dictionary, or {@code null} for none
+     * @param dictionaryId identifies {@code dictionary} to consumers; must be above 0 if there is one
+     */
+    public DeflateCodec(PayloadCodec inner, byte[] dictionary, int dictionaryId) {
+        if ((dictionary == null) != (dictionaryId == 0)) {
+            throw new IllegalArgumentException("dictionary id must be 0 exactly when there is no dictionary");
+        }
+        this.inner        = inner;
+        this.dictionary   = dictionary;
+        this.dictionaryId = dictionaryId;
+    }
+
+    /**
+     * A dictionary of at most {@code maxBytes} made of {@code samples} as {@code inner} encodes them.
+     * DEFLATE reaches back at most 32 KB and finds the nearest matches cheapest, so the most
+     * typical readings belong at the end of the list.
+     */
+    public static byte[] trainDictionary(PayloadCodec inner, List<byte[]> samples, int maxBytes) {
+        byte[] dict = new byte[Math.min(maxBytes, 32 * 1024)];
+        int start = dict.length;
+        for (int i = samples.size() - 1; i >= 0 && start > 0; i--) {
+            byte[] sample = samples.get(i);
+            byte[] encoded = inner.encode(sample, 0, sample.length);
+            int n = Math.min(encoded.length, start);
+            start -= n;
+            System.arraycopy(encoded, encoded.length - n, dict, start, n);
+        }
+        return Arrays.copyOfRange(dict, start, dict.length);
+    }
+
+    @Override public String name() {
+        return inner.name() + "+deflate";
+    }
+
+    @Override public synchronized byte[] encode(byte[] payload, int offset, int len) {
+        byte[] plain = inner.encode(payload, offset, len);
+        deflater.reset();
+        if (dictionary != null) deflater.setDictionary(dictionary);
+        deflater.setInput(plain);
+        deflater.finish();
+        int header = 1 + Varint.size(dictionaryId);
+        int n = header;
+        while (!deflater.finished()) {
+            if (n == scratch.length) scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            n += deflater.deflate(scratch, n, scratch.length - n);
+            if (n - header >= plain.length) return stored(plain);
+        }
+        scratch[0] = DEFLATED;
+        Varint.write(scratch, 1, dictionaryId);
+        return Arrays.copyOf(scratch, n);
+    }
+
+    @Override public synchronized byte[] decode(byte[] wire) {
+        if (wire.length == 0) throw new IllegalArgumentException("empty reading");
+        if (wire[0] == STORED) return inner.decode(Arrays.copyOfRange(wire, 1, wire.length));
+        if (wire[0] != DEFLATED) throw new IllegalArgumentException("not a deflated reading");
+        int[] pos = {1};
+        long id = Varint.read(wire, pos);
+        if (id != dictionaryId) throw new IllegalArgumentException("reading needs dictionary " + id + ", codec has " + dictionaryId);
+        inflater.reset();
+        if (dictionary != null) inflater.setDictionary(dictionary);
+        inflater.setInput(wire, pos[0], wire.length - pos[0]);
+        int n = 0;
+        try {
+            while (!inflater.finished()) {
+                if (n == scratch.length) scratch = Arrays.copyOf(scratch, scratch.length * 2);
+                int got = inflater.inflate(scratch, n, scratch.length - n);
+                if (got == 0 && inflater.needsInput()) throw new IllegalArgumentException("truncated reading");
+                n += got;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupt reading: " + e.getMessage(), e);
+        }
+        return inner.decode(Arrays.copyOf(scratch, n));
+    }
+
+    private static byte[] stored(byte[] plain) {
+        byte[] out = new byte[plain.length + 1];
+        out[0] = STORED;
+        System.arraycopy(plain, 0, out, 1, plain.length);
+        return out;
+    }
+}
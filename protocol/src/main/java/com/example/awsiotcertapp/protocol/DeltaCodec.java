@@ -0,0 +1,104 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.Arrays;
+
+/**
+ * Compact, lossless encoding of a reading laid out by a {@link SampleSchema}. Samples are stored
+ * column by column, each value as the ZigZag varint of its difference to the previous value of the
+ * same channel, so slowly changing sensors cost about one byte per value:
+ * <pre>
+ *   0xD5  varint schema version  varint sample count n
+ *   n == 0:  varint length, the reading as it is
+ *   n  > 0:  header bytes, channel 0 deltas .. channel c-1 deltas,
+ *            varint length + bytes left over after the last whole sample, trailer bytes
+ * </pre>
+ */
+public final class DeltaCodec implements PayloadCodec {
+    public static final byte MAGIC = (byte) 0xD5;
+
+    private final SampleSchema schema;
+
+    public DeltaCodec(SampleSchema schema) {
+        this.schema = schema;
+    }
+
+    public SampleSchema schema() {
+        return schema;
+    }
+
+    @Override public String name() {
+        return "delta";
+    }
+
+    @Override public byte[] encode(byte[] payload, int offset, int len) {
+        SampleSchema s = schema;
+        int n = s.sampleCount(len);
+        int values = n * s.channels;
+        byte[] out = new byte[1 + 5 + 5 + 5 + len + values * 5];
+        out[0] = MAGIC;
+        int pos = Varint.write(out, 1, s.version);
+        pos = Varint.write(out, pos, n);
+        if (n == 0) {
+            pos = Varint.write(out, pos, len);
+            System.arraycopy(payload, offset, out, pos, len);
+            return Arrays.copyOf(out, pos + len);
+        }
+        System.arraycopy(payload, offset, out, pos, s.headerBytes);
+        pos += s.headerBytes;
+        int samples = offset + s.headerBytes;
+        int stride = s.stride();
+        for (int c = 0; c < s.channels; c++) {
+            long prev = 0;
+            for (int i = 0, at = samples + c * s.sampleBytes; i < n; i++, at += stride) {
+                long v = s.read(payload, at);
+                pos = Varint.write(out, pos, Varint.zigZag(v - prev));
+                prev = v;
+            }
+        }
+        int rest = len - s.headerBytes - s.trailerBytes - n * stride;
+        pos = Varint.write(out, pos, rest);
+        System.arraycopy(payload, samples + n * stride, out, pos, rest + s.trailerBytes);
+        return Arrays.copyOf(out, pos + rest + s.trailerBytes);
+    }
+
+    @Override public byte[] decode(byte[] wire) {
+        if (wire.length == 0 || wire[0] != MAGIC) throw new IllegalArgumentException("not a delta-encoded reading");
+        SampleSchema s = schema;
+        int[] pos = {1};
+        long version = Varint.read(wire, pos);
+        if (version != s.version) {
+            throw new IllegalArgumentException("reading uses schema " + version + ", codec has " + s.version);
+        }
+        int n = (int) Varint.read(wire, pos);
+        if (n == 0) return bytes(wire, pos, (int) Varint.read(wire, pos));
+
+        int stride = s.stride();
+        byte[] header = bytes(wire, pos, s.headerBytes);
+        long[] columns = new long[n * s.channels];
+        for (int c = 0; c < s.channels; c++) {
+            long prev = 0;
+            for (int i = 0; i < n; i++) {
+                prev += Varint.unZigZag(Varint.read(wire, pos));
+                columns[c * n + i] = prev;
+            }
+        }
+        int rest = (int) Varint.read(wire, pos);
+        byte[] out = new byte[s.headerBytes + n * stride + rest + s.trailerBytes];
+        System.arraycopy(header, 0, out, 0, s.headerBytes);
+        for (int c = 0; c < s.channels; c++) {
+            for (int i = 0; i < n; i++) {
+                s.write(out, s.headerBytes + i * stride + c * s.sampleBytes, columns[c * n + i]);
+            }
+        }
+        byte[] tail = bytes(wire, pos, rest + s.trailerBytes);
+        System.arraycopy(tail, 0, out, s.headerBytes + n * stride, tail.length);
+        return out;
+    }
+
+    private static byte[] bytes(byte[] wire, int[] pos, int len) {
+        if (len < 0 || pos[0] + len > wire.length) throw new IllegalArgumentException("truncated reading");
+        byte[] b = Arrays.copyOfRange(wire, pos[0], pos[0] + len);
+        pos[0] += len;
+        return b;
+    }
+}
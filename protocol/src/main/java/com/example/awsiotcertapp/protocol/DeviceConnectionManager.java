@@ -0,0 +1,370 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps protocol sessions with several loggers open at once. Each session has its own
+ * {@link UartProtocolEngine}; their read loops share one pool with a thread per allowed session,
+ * their timeouts share one timer, and connects are made one at a time on a single thread.
+ * <p>
+ * Readings from every device are merged into one stream: they are numbered in the order their
+ * transfers completed and handed to {@link Listener#onReading} on a single delivery thread in that
+ * order, so the listener never sees two readings at once.
+ * <p>
+ * A session whose link is lost, because a read or write failed or the device hung up, gives up its
+ * slot and is reopened in the background with {@link ReconnectController}'s backoff until it
+ * connects again or {@link #disconnect} is called.
+ */
+public final class DeviceConnectionManager implements Closeable {
+
+    /** An open byte link to one device, for example an RFCOMM socket. */
+    public interface Link extends Closeable {
+        InputStream input() throws IOException;
+
+        OutputStream output() throws IOException;
+    }
+
+    public interface Connector {
+        /** Opens a link to {@code address}; may block. */
+        Link connect(String address) throws IOException;
+    }
+
+    public interface Listener {
+        /** Called on the delivery thread, one reading at a time, in {@link Reading#sequence} order. */
+        void onReading(Reading reading);
+
+        /**
+         * A connect or transfer failed. The session, if any, stays open for the next request,
+         * unless its link was lost; then the device is reconnected in the background.
+         */
+        void onDeviceFailed(String address, String reason);
+
+        /** The device acknowledged the time sync, {@code setupNanos} after {@link #open} was called. */
+        default void onDeviceReady(String address, long setupNanos) {
+        }
+    }
+
+    public static final class Reading {
+        /** Position in the merged stream, across all devices. */
+        public final long   sequence;
+        public final String address;
+        public final byte[] payload;
+        public final long   receivedAtMillis;
+        public final long   elapsedNanos;
+
+        Reading(long sequence, String address, byte[] payload, long receivedAtMillis, long elapsedNanos) {
+            this.sequence         = sequence;
+            this.address          = address;
+            this.payload          = payload;
+            this.receivedAtMillis = receivedAtMillis;
+            this.elapsedNanos     = elapsedNanos;
+        }
+    }
+
+    private final class Session implements UartProtocolEngine.Listener {
+        final String              address;
+        final long                openedAt = System.nanoTime();
+        /** Set once the device has lost a link; {@code null} for the first connect. */
+        final ReconnectController reconnect;
+        Link                      link;
+        UartProtocolEngine        engine;
+
+        Session(String address, ReconnectController reconnect) {
+            this.address   = address;
+            this.reconnect = reconnect;
+        }
+
+        @Override public void onStateChanged(UartProtocolEngine.State state) { }
+
+        @Override public void onTransferComplete(byte[] payload, long elapsedNanos) {
+            deliver(address, payload, elapsedNanos);
+        }
+
+        @Override public void onTransferFailed(UartProtocolEngine.State state, String reason) {
+            delivery.execute(() -> listener.onDeviceFailed(address, reason));
+        }
+
+        @Override public void onLinkLost(String reason) {
+            linkLost(this, reason);
+        }
+    }
+
+    private final Connector                  connector;
+    private final Listener                   listener;
+    private final UartProtocolEngine.Options engineOptions;
+    private final Semaphore                  slots;
+    private final ThreadPoolExecutor         readers;
+    private final ThreadPoolExecutor         loops;
+    private final ExecutorService            connects;
+    private final ExecutorService            delivery;
+    private final ScheduledExecutorService   timer;
+    private final Map<String, Session>       sessions = new ConcurrentHashMap<>();
+    private final Metrics.Histogram          setupTime;
+
+    /** Devices whose link was lost, while they wait for their next attempt. */
+    private final Map<String, ReconnectController> reconnects = new ConcurrentHashMap<>();
+    private final ReconnectController.Scheduler    reconnectScheduler;
+    private final Random                           random = new Random();
+    private volatile ReconnectController.Options   reconnectOptions;
+
+    private long               nextSequence;
+    private ScheduledFuture<?> polling;
+
+    /**
+     * @param maxSessions   how many devices may be connected at once; also the reader pool size,
+     *                      while the sessions' event loops share at most one thread per core
+     * @param engineOptions applied to every session; its executor and timer settings are replaced
+     */
+    public DeviceConnectionManager(Connector connector, int maxSessions,
+                                   UartProtocolEngine.Options engineOptions, Listener listener) {
+        this.connector     = connector;
+        this.listener      = listener;
+        this.engineOptions = engineOptions;
+        this.slots         = new Semaphore(maxSessions);
+        this.readers       = new ThreadPoolExecutor(maxSessions, maxSessions, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemon("device-reader"));
+        this.readers.allowCoreThreadTimeOut(true);
+        int loopThreads = Math.max(1, Math.min(maxSessions, Runtime.getRuntime().availableProcessors()));
+        this.loops = new ThreadPoolExecutor(loopThreads, loopThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemon("device-loop"));
+        this.loops.allowCoreThreadTimeOut(true);
+        this.connects = Executors.newSingleThreadExecutor(daemon("device-connect"));
+        this.delivery = Executors.newSingleThreadExecutor(daemon("device-output"));
+        this.timer    = Executors.newSingleThreadScheduledExecutor(daemon("device-timer"));
+        this.setupTime = engineOptions.metrics.histogram("bt.session_setup");
+        this.reconnectScheduler = ReconnectController.scheduler(timer);
+        ReconnectController.Options backoff = new ReconnectController.Options();
+        backoff.setMetrics(engineOptions.metrics);
+        backoff.setMetricsPrefix("bt");
+        this.reconnectOptions = backoff;
+    }
+
+    /** Backoff for reopening devices whose link was lost; applies to links lost from now on. */
+    public void setReconnectOptions(ReconnectController.Options opts) {
+        this.reconnectOptions = opts;
+    }
+
+    /**
+     * Connects to {@code address} in the background and starts its first transfer. Returns
+     * {@code false} if the device is already open or being reconnected, or every session slot is
+     * taken.
+     */
+    public boolean open(String address) {
+        return !reconnects.containsKey(address) && open(address, null);
+    }
+
+    private boolean open(String address, ReconnectController reconnect) {
+        if (sessions.containsKey(address) || !slots.tryAcquire()) return false;
+        Session session = new Session(address, reconnect);
+        if (sessions.putIfAbsent(address, session) != null) {
+            slots.release();
+            return false;
+        }
+        connects.execute(() -> connect(session));
+        return true;
+    }
+
+    /** Starts another transfer on {@code address} if it is connected and idle. */
+    public boolean request(String address) {
+        Session s = sessions.get(address);
+        return s != null && request(s);
+    }
+
+    /** Starts a transfer on every connected, idle device; returns how many were started. */
+    public int requestAll() {
+        int started = 0;
+        for (Session s : sessions.values()) {
+            if (request(s)) started++;
+        }
+        return started;
+    }
+
+    /**
+     * Sends the time-set frame to {@code address} again if it is connected and idle, e.g. after its
+     * clock settings changed; {@code false} if it is busy and should be asked again later.
+     */
+    public boolean syncTime(String address) {
+        Session s = sessions.get(address);
+        if (s == null) return false;
+        UartProtocolEngine engine;
+        synchronized (s) {
+            engine = s.engine;
+        }
+        if (engine == null) return false;
+        try {
+            engine.syncTime();
+            return true;
+        } catch (IllegalStateException busy) {
+            return false;
+        }
+    }
+
+    /** Calls {@link #requestAll()} every {@code periodMs}; 0 stops polling. */
+    public synchronized void setPollInterval(long periodMs) {
+        if (polling != null) polling.cancel(false);
+        polling = periodMs > 0
+                ? timer.scheduleWithFixedDelay(this::requestAll, periodMs, periodMs, TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    /** Closes the session with {@code address}, or stops reconnecting it. */
+    public void disconnect(String address) {
+        ReconnectController waiting = reconnects.remove(address);
+        if (waiting != null) waiting.stop();
+        Session s = sessions.remove(address);
+        if (s != null) {
+            if (s.reconnect != null) s.reconnect.stop();
+            closeSession(s);
+            slots.release();
+        }
+    }
+
+    public List<String> openDevices() {
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    @Override public void close() {
+        setPollInterval(0);
+        for (String address : openDevices()) disconnect(address);
+        for (String address : new ArrayList<>(reconnects.keySet())) disconnect(address);
+        connects.shutdownNow();
+        readers.shutdownNow();
+        loops.shutdownNow();
+        timer.shutdownNow();
+        delivery.shutdown();
+    }
+
+    private void connect(Session session) {
+        try {
+            Link link = connector.connect(session.address);
+            synchronized (session) {
+                session.link = link; // from here on closeSession closes it, whatever fails next
+            }
+            UartProtocolEngine.Options opts = engineOptions.copy();
+            opts.setReadExecutor(readers);
+            opts.setLoopExecutor(loops);
+            opts.setTimer(timer);
+            UartProtocolEngine engine = new UartProtocolEngine(link.input(), link.output(), opts, session);
+            synchronized (session) {
+                session.engine = engine;
+            }
+            if (sessions.get(session.address) != session) {
+                closeSession(session); // disconnected while connecting
+                return;
+            }
+            engine.timeSynced().thenRun(() -> {
+                long setup = System.nanoTime() - session.openedAt;
+                setupTime.record(setup);
+                delivery.execute(() -> listener.onDeviceReady(session.address, setup));
+            });
+            // Before the engine runs, or a link lost right away would find the controller still connecting.
+            if (session.reconnect != null) session.reconnect.connected();
+            engine.start();
+        } catch (RejectedExecutionException closing) {
+            closeSession(session); // the manager was closed while connecting
+        } catch (IOException | RuntimeException e) {
+            // e.g. the link could not be opened, or the engine rejected its options
+            closeSession(session);
+            if (sessions.remove(session.address, session)) {
+                slots.release();
+                if (session.reconnect != null) {
+                    reconnects.put(session.address, session.reconnect);
+                    session.reconnect.connectFailed(e);
+                }
+                delivery.execute(() -> listener.onDeviceFailed(session.address, "connect failed: " + e.getMessage()));
+            }
+        }
+    }
+
+    /** On the session's loop thread: frees its slot and starts getting the device back. */
+    private void linkLost(Session s, String reason) {
+        if (!sessions.remove(s.address, s)) return; // disconnected on purpose
+        closeSession(s);
+        slots.release();
+        if (s.reconnect != null) {
+            reconnects.put(s.address, s.reconnect);
+            s.reconnect.connectionLost(new IOException(reason));
+            return;
+        }
+        ReconnectController[] self = new ReconnectController[1];
+        self[0] = new ReconnectController(() -> reopen(s.address, self[0]), reconnectOptions,
+                reconnectScheduler, random, null);
+        reconnects.put(s.address, self[0]);
+        self[0].start();
+    }
+
+    /** One attempt of {@code reconnect}; its outcome is reported by {@link #connect(Session)}. */
+    private void reopen(String address, ReconnectController reconnect) {
+        if (!reconnects.remove(address, reconnect)) return; // disconnected meanwhile
+        if (open(address, reconnect)) return;
+        if (sessions.containsKey(address)) {
+            reconnect.stop(); // opened again by hand
+        } else {
+            reconnects.put(address, reconnect);
+            reconnect.connectFailed(new IOException("no free session slot"));
+        }
+    }
+
+    private boolean request(Session s) {
+        UartProtocolEngine engine;
+        synchronized (s) {
+            engine = s.engine;
+        }
+        if (engine == null) return false;
+        try {
+            engine.requestTransfer();
+            return true;
+        } catch (IllegalStateException busy) {
+            return false;
+        }
+    }
+
+    private void deliver(String address, byte[] payload, long elapsedNanos) {
+        long now = System.currentTimeMillis();
+        // Numbering and queueing under one lock keeps the delivery order equal to the numbering.
+        synchronized (delivery) {
+            Reading r = new Reading(nextSequence++, address, payload, now, elapsedNanos);
+            delivery.execute(() -> listener.onReading(r));
+        }
+    }
+
+    private static void closeSession(Session s) {
+        UartProtocolEngine engine;
+        Link link;
+        synchronized (s) {
+            engine = s.engine;
+            link   = s.link;
+        }
+        if (engine != null) engine.close();
+        try {
+            if (link != null) link.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Read-only view of one frame inside a {@link FrameDecoder} ring buffer.
+ * A view is only valid inside the {@link FrameDecoder.Listener} callback that received it;
+ * call {@link #copyTo(byte[], int)} if the bytes need to outlive the callback.
+ */
+public final class Frame {
+    public static final byte TIME_START = 0x50;
+    public static final byte TIME_END   = 0x5F;
+    public static final byte DATA_START = 0x40;
+    public static final byte DATA_END   = 0x4F;
+
+    private byte[] buf;
+    private int    mask;
+    private int    start;
+    private int    length;
+    private int    payloadSum;
+
+    Frame() {
+    }
+
+    void set(byte[] buf, int mask, int start, int length, int payloadSum) {
+        this.buf        = buf;
+        this.mask       = mask;
+        this.start      = start;
+        this.length     = length;
+        this.payloadSum = payloadSum;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /** Byte at {@code index} within the frame, markers included. */
+    public byte get(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        return buf[(start + index) & mask];
+    }
+
+    public byte startMarker() {
+        return buf[start & mask];
+    }
+
+    public boolean isTimeFrame() {
+        return startMarker() == TIME_START;
+    }
+
+    public boolean isDataFrame() {
+        return startMarker() == DATA_START;
+    }
+
+    /** Unsigned sum of the bytes between the start and end markers, accumulated while decoding. */
+    public int payloadSum() {
+        return payloadSum;
+    }
+
+    /** The logger's mod-256 checksum of this frame's payload. */
+    public int checksum() {
+        return payloadSum & 0xFF;
+    }
+
+    /** Unsigned sum of the bytes in {@code [from, to)}. */
+    public int sum(int from, int to) {
+        int s = 0;
+        for (int i = from; i < to; i++) s += buf[(start + i) & mask] & 0xFF;
+        return s;
+    }
+
+    /** {@link Crc16} of the bytes in {@code [from, to)}. */
+    public int crc16(int from, int to) {
+        int crc = Crc16.INITIAL;
+        for (int i = from; i < to; i++) crc = Crc16.update(crc, buf[(start + i) & mask]);
+        return crc;
+    }
+
+    /** Copies {@code len} bytes starting at frame offset {@code from} into {@code dst} at {@code off}. */
+    public void copyTo(int from, byte[] dst, int off, int len) {
+        for (int i = 0; i < len; i++) dst[off + i] = buf[(start + from + i) & mask];
+    }
+
+    /** Copies the whole frame into {@code dst} at {@code off}, returns the number of bytes copied. */
+    public int copyTo(byte[] dst, int off) {
+        int first = Math.min(length, buf.length - (start & mask));
+        System.arraycopy(buf, start & mask, dst, off, first);
+        if (first < length) System.arraycopy(buf, 0, dst, off + first, length - first);
+        return length;
+    }
+
+    /** Writes the frame to {@code out} straight from the ring, in at most two writes. */
+    public void writeTo(OutputStream out) throws IOException {
+        int first = Math.min(length, buf.length - (start & mask));
+        out.write(buf, start & mask, first);
+        if (first < length) out.write(buf, 0, length - first);
+    }
+
+    public byte[] toByteArray() {
+        byte[] copy = new byte[length];
+        copyTo(copy, 0);
+        return copy;
+    }
+}
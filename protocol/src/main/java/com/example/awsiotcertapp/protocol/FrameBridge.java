@@ -0,0 +1,148 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands verified frames from the Bluetooth reader thread to a publisher thread through a bounded
+ * queue. {@link #offer(byte[])} never blocks the reader: when the queue is full the frame is
+ * dropped and counted. Frames are published in arrival order; a frame the sink refuses (e.g. while
+ * MQTT is reconnecting) is retried until it is accepted or the bridge is closed.
+ */
+public final class FrameBridge {
+
+    public interface Sink {
+        /** @return {@code false} if the frame could not be taken right now and should be retried */
+        boolean publish(byte[] frame);
+
+        /** Frames offered with {@link #offer(String, byte[])} arrive here; by default the source is ignored. */
+        default boolean publish(String source, byte[] frame) {
+            return publish(frame);
+        }
+    }
+
+    private static final class Pending {
+        final String source;
+        final byte[] frame;
+
+        Pending(String source, byte[] frame) {
+            this.source = source;
+            this.frame  = frame;
+        }
+    }
+
+    public static final class Stats {
+        public final long enqueued;
+        public final long published;
+        public final long dropped;
+        public final long bytesPublished;
+        public final int  queueDepth;
+        public final int  maxQueueDepth;
+        public final long uptimeNanos;
+
+        Stats(long enqueued, long published, long dropped, long bytesPublished,
+              int queueDepth, int maxQueueDepth, long uptimeNanos) {
+            this.enqueued       = enqueued;
+            this.published      = published;
+            this.dropped        = dropped;
+            this.bytesPublished = bytesPublished;
+            this.queueDepth     = queueDepth;
+            this.maxQueueDepth  = maxQueueDepth;
+            this.uptimeNanos    = uptimeNanos;
+        }
+
+        public double framesPerSecond() {
+            return uptimeNanos == 0 ? 0 : published * 1e9 / uptimeNanos;
+        }
+
+        public double bytesPerSecond() {
+            return uptimeNanos == 0 ? 0 : bytesPublished * 1e9 / uptimeNanos;
+        }
+
+        @Override public String toString() {
+            return String.format(Locale.US,
+                    "in=%d out=%d dropped=%d depth=%d max=%d %.1f frames/s %.0f B/s",
+                    enqueued, published, dropped, queueDepth, maxQueueDepth, framesPerSecond(), bytesPerSecond());
+        }
+    }
+
+    private final BlockingQueue<Pending> queue;
+    private final long                  retryDelayMs;
+    private final Sink                  sink;
+
+    private final AtomicLong enqueued       = new AtomicLong();
+    private final AtomicLong published      = new AtomicLong();
+    private final AtomicLong dropped        = new AtomicLong();
+    private final AtomicLong bytesPublished = new AtomicLong();
+    private volatile int     maxQueueDepth;
+    private volatile long    startNanos;
+    private volatile boolean closed;
+    private Thread           publisher;
+
+    public FrameBridge(int capacity, long retryDelayMs, Sink sink) {
+        this.queue        = new ArrayBlockingQueue<>(capacity);
+        this.retryDelayMs = retryDelayMs;
+        this.sink         = sink;
+    }
+
+    public synchronized void start() {
+        if (publisher != null) throw new IllegalStateException("already started");
+        startNanos = System.nanoTime();
+        publisher = new Thread(this::publishLoop, "frame-bridge");
+        publisher.setDaemon(true);
+        publisher.start();
+    }
+
+    /** Queues a frame for publishing; the bridge takes ownership of the array. */
+    public boolean offer(byte[] frame) {
+        return offer(null, frame);
+    }
+
+    /** Queues a frame together with the device it came from, for {@link Sink#publish(String, byte[])}. */
+    public boolean offer(String source, byte[] frame) {
+        if (closed || !queue.offer(new Pending(source, frame))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        enqueued.incrementAndGet();
+        int depth = queue.size();
+        if (depth > maxQueueDepth) maxQueueDepth = depth;
+        return true;
+    }
+
+    public Stats stats() {
+        long start = startNanos;
+        return new Stats(enqueued.get(), published.get(), dropped.get(), bytesPublished.get(),
+                queue.size(), maxQueueDepth, start == 0 ? 0 : System.nanoTime() - start);
+    }
+
+    /** Stops the publisher; frames still queued are discarded. */
+    public void close() {
+        closed = true;
+        Thread t;
+        synchronized (this) {
+            t = publisher;
+        }
+        if (t != null) t.interrupt();
+        queue.clear();
+    }
+
+    private void publishLoop() {
+        try {
+            while (!closed) {
+                Pending next = queue.take();
+                while (!sink.publish(next.source, next.frame)) {
+                    if (closed) return;
+                    TimeUnit.MILLISECONDS.sleep(retryDelayMs);
+                }
+                published.incrementAndGet();
+                bytesPublished.addAndGet(next.frame.length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
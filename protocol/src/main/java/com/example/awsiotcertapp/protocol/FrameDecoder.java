@@ -0,0 +1,201 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming decoder for the logger's UART framing ({@code 0x50 .. 0x5F} time frames and
+ * {@code 0x40 .. 0x4F} data frames) on top of a fixed-capacity byte ring.
+ * <p>
+ * Reads go straight into the ring and frames are handed out as {@link Frame} views over it,
+ * so a steady stream of reads allocates nothing. Frames may be split or merged across reads
+ * in any way; bytes outside a frame are skipped. The payload checksum is summed while the bytes
+ * are scanned, so it is known the moment the end marker arrives.
+ * Not thread-safe: feed it from one reader thread.
+ */
+public final class FrameDecoder {
+
+    public interface Listener {
+        void onFrame(Frame frame);
+    }
+
+    private final byte[]   buf;
+    private final int      mask;
+    private final Frame    view = new Frame();
+    private final Listener listener;
+
+    private long head;            // first byte still owned by the ring
+    private long tail;            // next byte to be written
+    private long scan;            // next byte to be inspected
+    private long frameStart = -1; // start of the frame being assembled, -1 while hunting
+    private byte endMarker;
+    private int  frameSum;        // running sum of the bytes between the markers seen so far
+    /** Set by whoever drives the protocol, possibly from another thread while no frame is handed out. */
+    private volatile int expectedDataLength;
+    private volatile boolean checkScannedEnds;
+
+    private long skippedBytes;
+    private long overflows;
+
+    /**
+     * @param capacity ring size in bytes, rounded up to a power of two; bounds the largest frame
+     */
+    public FrameDecoder(int capacity, Listener listener) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.buf      = new byte[size];
+        this.mask     = size - 1;
+        this.listener = listener;
+    }
+
+    /**
+     * Fixes the length of the next data frames, markers included. The payload of a data frame may
+     * legitimately contain {@code 0x4F}, so when the size is known it is safer than scanning for the
+     * end marker. {@code 0} (the default) goes back to scanning. May be called from another thread,
+     * e.g. from the {@link Listener} of the frame before; a frame already being assembled may then
+     * be dropped.
+     */
+    public void setExpectedDataLength(int length) {
+        if (length != 0 && length < 2) throw new IllegalArgumentException("length must be 0 or >= 2");
+        this.expectedDataLength = length;
+    }
+
+    /**
+     * While scanning, take a {@code 0x4F} as the end of a data frame only if nothing was received
+     * after it yet, or if the checksum reply for the bytes before it follows ({@code 40 sum 4F}).
+     * Any other {@code 0x4F} is part of the payload. For a peer that sends nothing after a data
+     * frame but its checksum reply, as the logger does.
+     */
+    public void setCheckScannedEnds(boolean check) {
+        this.checkScannedEnds = check;
+    }
+
+    public int capacity() {
+        return buf.length;
+    }
+
+    /** Bytes currently held by the ring (a partial frame, or scanned-but-unconsumed input). */
+    public int buffered() {
+        return (int) (tail - head);
+    }
+
+    public long skippedBytes() {
+        return skippedBytes;
+    }
+
+    /** Number of frames dropped because they did not fit in the ring. */
+    public long overflows() {
+        return overflows;
+    }
+
+    /**
+     * Performs one {@link InputStream#read(byte[], int, int)} directly into the ring's free space
+     * and dispatches every frame completed by it.
+     *
+     * @return the number of bytes read, or {@code -1} at end of stream
+     */
+    public int readFrom(InputStream in) throws IOException {
+        if (tail - head == buf.length) dropOversizedFrame();
+        int pos = (int) (tail & mask);
+        int free = buf.length - (int) (tail - head);
+        int n = in.read(buf, pos, Math.min(free, buf.length - pos));
+        if (n > 0) {
+            tail += n;
+            decode();
+        }
+        return n;
+    }
+
+    /** Copies {@code len} bytes into the ring and dispatches the frames they complete. */
+    public void feed(byte[] src, int off, int len) {
+        while (len > 0) {
+            if (tail - head == buf.length) dropOversizedFrame();
+            int pos = (int) (tail & mask);
+            int free = buf.length - (int) (tail - head);
+            int n = Math.min(len, Math.min(free, buf.length - pos));
+            System.arraycopy(src, off, buf, pos, n);
+            tail += n;
+            off += n;
+            len -= n;
+            decode();
+        }
+    }
+
+    /** Discards any partial frame, e.g. after the link was reset. */
+    public void reset() {
+        head = tail;
+        scan = tail;
+        frameStart = -1;
+    }
+
+    private void decode() {
+        int expected = expectedDataLength;
+        while (scan < tail) {
+            byte b = buf[(int) (scan & mask)];
+            if (frameStart < 0) {
+                if (b == Frame.TIME_START) {
+                    frameStart = scan;
+                    endMarker = Frame.TIME_END;
+                    frameSum = 0;
+                } else if (b == Frame.DATA_START) {
+                    frameStart = scan;
+                    endMarker = Frame.DATA_END;
+                    frameSum = 0;
+                } else {
+                    skippedBytes++;
+                    head = scan + 1;
+                }
+                scan++;
+                continue;
+            }
+            long length = scan - frameStart + 1;
+            boolean fixed = endMarker == Frame.DATA_END && expected > 0;
+            if (fixed && length == expected && b != endMarker) {
+                // Not a frame after all: drop the start byte and hunt again from the next one.
+                skippedBytes++;
+                scan = frameStart + 1;
+                head = scan;
+                frameStart = -1;
+                continue;
+            }
+            if (b == endMarker && (!fixed || length == expected)) {
+                if (endMarker == Frame.DATA_END && !fixed && checkScannedEnds) {
+                    int end = scannedEnd(scan);
+                    if (end < 0) return; // wait for the bytes that tell
+                    if (end == 0) {
+                        frameSum += b & 0xFF;
+                        scan++;
+                        continue;
+                    }
+                }
+                view.set(buf, mask, (int) (frameStart & mask), (int) length, frameSum);
+                frameStart = -1;
+                scan++;
+                head = scan;
+                listener.onFrame(view);
+                expected = expectedDataLength; // the listener may have set the next frame's length
+                continue;
+            }
+            frameSum += b & 0xFF;
+            scan++;
+        }
+    }
+
+    /** 1 if the {@code 0x4F} at {@code at} ends the data frame, 0 if it is payload, -1 if that is not known yet. */
+    private int scannedEnd(long at) {
+        long after = tail - at - 1;
+        if (after == 0) return 1; // the read ended there
+        if (buf[(int) (at + 1 & mask)] != Frame.DATA_START) return 0;
+        if (after == 1) return -1;
+        if ((buf[(int) (at + 2 & mask)] & 0xFF) != (frameSum & 0xFF)) return 0;
+        if (after == 2) return -1;
+        return buf[(int) (at + 3 & mask)] == Frame.DATA_END ? 1 : 0;
+    }
+
+    private void dropOversizedFrame() {
+        overflows++;
+        skippedBytes += tail - head;
+        reset();
+    }
+}
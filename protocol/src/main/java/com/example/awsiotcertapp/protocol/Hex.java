@@ -0,0 +1,51 @@
+package com.example.awsiotcertapp.protocol;
+
+/** Table-driven hex codec; replaces the per-byte {@code String.format("%02X")} loop. */
+public final class Hex {
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private Hex() {
+    }
+
+    public static String encode(byte[] bytes) {
+        return encode(bytes, 0, bytes.length);
+    }
+
+    public static String encode(byte[] bytes, int offset, int len) {
+        char[] out = new char[len * 2];
+        for (int i = 0; i < len; i++) {
+            int b = bytes[offset + i] & 0xFF;
+            out[i * 2]     = DIGITS[b >>> 4];
+            out[i * 2 + 1] = DIGITS[b & 0x0F];
+        }
+        return new String(out);
+    }
+
+    /** Hex digits as ASCII bytes, ready to be used as a message payload. */
+    public static byte[] encodeToAscii(byte[] bytes, int offset, int len) {
+        byte[] out = new byte[len * 2];
+        for (int i = 0; i < len; i++) {
+            int b = bytes[offset + i] & 0xFF;
+            out[i * 2]     = (byte) DIGITS[b >>> 4];
+            out[i * 2 + 1] = (byte) DIGITS[b & 0x0F];
+        }
+        return out;
+    }
+
+    public static byte[] decode(CharSequence hex) {
+        int len = hex.length();
+        if ((len & 1) != 0) throw new IllegalArgumentException("odd number of hex digits: " + len);
+        byte[] out = new byte[len / 2];
+        for (int i = 0; i < len; i += 2) {
+            out[i / 2] = (byte) ((digit(hex.charAt(i)) << 4) | digit(hex.charAt(i + 1)));
+        }
+        return out;
+    }
+
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        throw new IllegalArgumentException("not a hex digit: " + c);
+    }
+}
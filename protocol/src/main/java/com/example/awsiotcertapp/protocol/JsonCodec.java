@@ -0,0 +1,106 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Readable form of a reading for debugging, with the samples as one array per channel:
+ * {@code {"v":1,"n":3,"head":"40","ch":[[1,2,3],[7,7,8]],"rest":"","tail":"4F"}}. Bytes outside
+ * the samples are kept as hex, so the encoding stays lossless.
+ */
+public final class JsonCodec implements PayloadCodec {
+
+    private final SampleSchema schema;
+
+    public JsonCodec(SampleSchema schema) {
+        this.schema = schema;
+    }
+
+    @Override public String name() {
+        return "json";
+    }
+
+    @Override public byte[] encode(byte[] payload, int offset, int len) {
+        SampleSchema s = schema;
+        int n = s.sampleCount(len);
+        int head = n == 0 ? 0 : s.headerBytes;
+        int tail = n == 0 ? 0 : s.trailerBytes;
+        int stride = s.stride();
+        int samples = offset + head;
+        StringBuilder sb = new StringBuilder(32 + len * 4);
+        sb.append("{\"v\":").append(s.version).append(",\"n\":").append(n);
+        sb.append(",\"head\":\"").append(Hex.encode(payload, offset, head)).append("\",\"ch\":[");
+        for (int c = 0; c < s.channels; c++) {
+            if (c > 0) sb.append(',');
+            sb.append('[');
+            for (int i = 0, at = samples + c * s.sampleBytes; i < n; i++, at += stride) {
+                if (i > 0) sb.append(',');
+                sb.append(s.read(payload, at));
+            }
+            sb.append(']');
+        }
+        int rest = len - head - tail - n * stride;
+        sb.append("],\"rest\":\"").append(Hex.encode(payload, samples + n * stride, rest));
+        sb.append("\",\"tail\":\"").append(Hex.encode(payload, offset + len - tail, tail)).append("\"}");
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override public byte[] decode(byte[] wire) {
+        String json = new String(wire, StandardCharsets.US_ASCII);
+        SampleSchema s = schema;
+        long version = Long.parseLong(field(json, "v"));
+        if (version != s.version) {
+            throw new IllegalArgumentException("reading uses schema " + version + ", codec has " + s.version);
+        }
+        int n = Integer.parseInt(field(json, "n"));
+        byte[] head = Hex.decode(unquote(field(json, "head")));
+        byte[] rest = Hex.decode(unquote(field(json, "rest")));
+        byte[] tail = Hex.decode(unquote(field(json, "tail")));
+        int stride = s.stride();
+        byte[] out = new byte[head.length + n * stride + rest.length + tail.length];
+        System.arraycopy(head, 0, out, 0, head.length);
+
+        String ch = field(json, "ch");
+        int at = 1; // past the outer '['
+        for (int c = 0; c < s.channels; c++) {
+            at = ch.indexOf('[', at) + 1;
+            for (int i = 0; i < n; i++) {
+                int end = i == n - 1 ? ch.indexOf(']', at) : ch.indexOf(',', at);
+                if (end < 0) throw new IllegalArgumentException("channel " + c + " has fewer than " + n + " samples");
+                s.write(out, head.length + i * stride + c * s.sampleBytes, Long.parseLong(ch.substring(at, end).trim()));
+                at = end + 1;
+            }
+        }
+        System.arraycopy(rest, 0, out, head.length + n * stride, rest.length);
+        System.arraycopy(tail, 0, out, out.length - tail.length, tail.length);
+        return out;
+    }
+
+    /** The raw text of a top-level value: a number, a string with its quotes, or an array. */
+    private static String field(String json, String name) {
+        String key = "\"" + name + "\":";
+        int start = json.indexOf(key);
+        if (start < 0) throw new IllegalArgumentException("missing \"" + name + "\"");
+        start += key.length();
+        int end;
+        char first = json.charAt(start);
+        if (first == '"') {
+            end = json.indexOf('"', start + 1) + 1;
+        } else if (first == '[') {
+            int depth = 0;
+            end = start;
+            do {
+                char ch = json.charAt(end++);
+                if (ch == '[') depth++;
+                else if (ch == ']') depth--;
+            } while (depth > 0);
+        } else {
+            end = start;
+            while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}') end++;
+        }
+        return json.substring(start, end);
+    }
+
+    private static String unquote(String s) {
+        return s.substring(1, s.length() - 1);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free log queue for many producer threads and one consumer. A producer never blocks:
+ * when the ring is full the event is dropped and counted. Events are kept as their parts
+ * ({@code event}, {@code subject}, {@code detail}) and only turned into text by the consumer, so
+ * lines that are dropped or skipped never cost a string concatenation.
+ * <p>
+ * Each slot carries a sequence number in the style of a Vyukov bounded queue: a producer claims a
+ * position with a CAS on the tail, fills the slot and publishes it by advancing the slot's sequence;
+ * the consumer frees it again by moving the sequence one lap ahead.
+ */
+public final class LogRing {
+
+    private final int             mask;
+    private final AtomicLongArray sequence;
+    private final String[]        events;
+    private final Object[]        subjects;
+    private final Object[]        details;
+    private final AtomicLong      tail    = new AtomicLong();
+    private final AtomicLong      dropped = new AtomicLong();
+    private volatile long head; // written by the consumer only
+
+    /** @param capacity rounded up to a power of two */
+    public LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask     = size - 1;
+        sequence = new AtomicLongArray(size);
+        events   = new String[size];
+        subjects = new Object[size];
+        details  = new Object[size];
+        for (int i = 0; i < size; i++) sequence.set(i, i);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Queues one line. {@code subject} and {@code detail} may be {@code null}; they are only
+     * rendered if the line is drained. Returns {@code false} if the ring was full.
+     */
+    public boolean offer(String event, Object subject, Object detail) {
+        long pos;
+        int i;
+        while (true) {
+            pos = tail.get();
+            i = (int) pos & mask;
+            long seq = sequence.get(i);
+            if (seq < pos) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (seq == pos && tail.compareAndSet(pos, pos + 1)) break;
+        }
+        events[i]   = event;
+        subjects[i] = subject;
+        details[i]  = detail;
+        sequence.set(i, pos + 1);
+        return true;
+    }
+
+    /**
+     * Renders up to {@code max} queued lines into {@code out}, one per line, oldest first. Lines
+     * beyond {@code max} stay queued. Must only be called from the consumer thread.
+     *
+     * @return the number of lines taken
+     */
+    public int drainTo(StringBuilder out, int max) {
+        int n = 0;
+        while (n < max) {
+            int i = (int) head & mask;
+            if (sequence.get(i) != head + 1) break;
+            appendTo(out, events[i], subjects[i], details[i]);
+            out.append('\n');
+            release(i);
+            n++;
+        }
+        return n;
+    }
+
+    /** Throws away up to {@code max} queued lines without rendering them; consumer thread only. */
+    public int skip(int max) {
+        int n = 0;
+        while (n < max) {
+            int i = (int) head & mask;
+            if (sequence.get(i) != head + 1) break;
+            release(i);
+            n++;
+        }
+        return n;
+    }
+
+    /** Lines queued right now; only a snapshot when producers are active. */
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Lines refused because the ring was full, since the last call. */
+    public long takeDropped() {
+        return dropped.getAndSet(0);
+    }
+
+    /** The text of one line: {@code event[subject] detail}, leaving out what is {@code null}. */
+    public static String format(String event, Object subject, Object detail) {
+        StringBuilder sb = new StringBuilder(64);
+        appendTo(sb, event, subject, detail);
+        return sb.toString();
+    }
+
+    static void appendTo(StringBuilder out, String event, Object subject, Object detail) {
+        out.append(event);
+        if (subject != null) out.append('[').append(subject).append(']');
+        if (detail != null) {
+            out.append(' ');
+            if (detail instanceof Throwable) {
+                out.append(((Throwable) detail).getMessage());
+            } else {
+                out.append(detail);
+            }
+        }
+    }
+
+    private void release(int i) {
+        events[i]   = null;
+        subjects[i] = null;
+        details[i]  = null;
+        sequence.set(i, head + mask + 1);
+        head++;
+    }
+}
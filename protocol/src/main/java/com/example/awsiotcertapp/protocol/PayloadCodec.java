@@ -0,0 +1,49 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Turns one reading into the bytes that are published, and back. Codecs are chosen per topic with
+ * {@link PayloadCodecs}; every implementation here may be shared between threads.
+ */
+public interface PayloadCodec {
+
+    /** Short name for logs and benchmark reports. */
+    String name();
+
+    byte[] encode(byte[] payload, int offset, int len);
+
+    /** @throws IllegalArgumentException if {@code wire} was not produced by this codec */
+    byte[] decode(byte[] wire);
+
+    /** The bytes as they are; a whole array is passed through without a copy. */
+    PayloadCodec RAW = new PayloadCodec() {
+        @Override public String name() {
+            return "raw";
+        }
+
+        @Override public byte[] encode(byte[] payload, int offset, int len) {
+            return offset == 0 && len == payload.length ? payload : Arrays.copyOfRange(payload, offset, offset + len);
+        }
+
+        @Override public byte[] decode(byte[] wire) {
+            return wire;
+        }
+    };
+
+    /** Upper-case hex text, for consumers that still expect the old string payloads. */
+    PayloadCodec HEX = new PayloadCodec() {
+        @Override public String name() {
+            return "hex";
+        }
+
+        @Override public byte[] encode(byte[] payload, int offset, int len) {
+            return Hex.encodeToAscii(payload, offset, len);
+        }
+
+        @Override public byte[] decode(byte[] wire) {
+            return Hex.decode(new String(wire, StandardCharsets.US_ASCII));
+        }
+    };
+}
@@ -0,0 +1,78 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the {@link PayloadCodec} for each publish by topic. Rules are MQTT topic filters tried in
+ * the order they were added; the first that matches wins, and topics no rule matches use the
+ * default ({@link PayloadCodec#RAW} unless changed). The choice is cached per topic, so after the
+ * first publish to a topic finding its codec is a single map lookup.
+ */
+public final class PayloadCodecs {
+
+    private static final class Rule {
+        final String       filter;
+        final PayloadCodec codec;
+
+        Rule(String filter, PayloadCodec codec) {
+            this.filter = filter;
+            this.codec  = codec;
+        }
+    }
+
+    private final List<Rule>                rules   = new ArrayList<>();
+    private final Map<String, PayloadCodec> byTopic = new ConcurrentHashMap<>();
+    private volatile PayloadCodec           fallback = PayloadCodec.RAW;
+
+    /** Encodes topics matching {@code filter} with {@code codec}, unless an earlier rule matches. */
+    public synchronized PayloadCodecs use(String filter, PayloadCodec codec) {
+        TopicRouter.validate(filter);
+        rules.add(new Rule(filter, codec));
+        byTopic.clear();
+        return this;
+    }
+
+    public synchronized PayloadCodecs setDefault(PayloadCodec codec) {
+        fallback = codec;
+        byTopic.clear();
+        return this;
+    }
+
+    public PayloadCodec forTopic(String topic) {
+        PayloadCodec codec = byTopic.get(topic);
+        if (codec == null) {
+            codec = resolve(topic);
+            byTopic.put(topic, codec);
+        }
+        return codec;
+    }
+
+    public byte[] encode(String topic, byte[] payload, int offset, int len) {
+        return forTopic(topic).encode(payload, offset, len);
+    }
+
+    private synchronized PayloadCodec resolve(String topic) {
+        for (Rule r : rules) {
+            if (TopicRouter.matches(r.filter, topic)) return r.codec;
+        }
+        return fallback;
+    }
+
+    /**
+     * The codec called {@code name}: {@code raw}, {@code hex}, {@code json}, {@code delta} or
+     * {@code delta+deflate} (without a preset dictionary), reading samples laid out by {@code schema}.
+     */
+    public static PayloadCodec byName(String name, SampleSchema schema) {
+        switch (name) {
+            case "raw":           return PayloadCodec.RAW;
+            case "hex":           return PayloadCodec.HEX;
+            case "json":          return new JsonCodec(schema);
+            case "delta":         return new DeltaCodec(schema);
+            case "delta+deflate": return new DeflateCodec(new DeltaCodec(schema), null, 0);
+            default: throw new IllegalArgumentException("unknown codec " + name);
+        }
+    }
+}
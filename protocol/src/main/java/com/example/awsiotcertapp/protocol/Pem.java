@@ -0,0 +1,64 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.Arrays;
+
+/**
+ * Minimal PEM reader. Decodes Base64 straight from the raw bytes, skipping the armour lines and
+ * whitespace, so it runs unchanged on the JVM and on Android versions without {@code java.util.Base64}.
+ */
+public final class Pem {
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) DECODE[alphabet.charAt(i)] = (byte) i;
+    }
+
+    private Pem() {
+    }
+
+    /** DER bytes of the first PEM block in {@code pem}. */
+    public static byte[] decode(byte[] pem) {
+        int begin = indexOf(pem, "-----BEGIN", 0);
+        if (begin < 0) throw new IllegalArgumentException("no PEM block");
+        int bodyStart = lineEnd(pem, indexOf(pem, "-----", begin + 10) + 5);
+        int bodyEnd = indexOf(pem, "-----END", bodyStart);
+        if (bodyEnd < 0) throw new IllegalArgumentException("unterminated PEM block");
+
+        byte[] out = new byte[(bodyEnd - bodyStart) * 3 / 4];
+        int len = 0;
+        int acc = 0;
+        int bits = 0;
+        for (int i = bodyStart; i < bodyEnd; i++) {
+            int c = pem[i];
+            if (c == '=') break;
+            if (c == '\r' || c == '\n' || c == ' ' || c == '\t') continue;
+            int v = c >= 0 && c < 128 ? DECODE[c] : -1;
+            if (v < 0) throw new IllegalArgumentException("bad Base64 character " + (char) c);
+            acc = (acc << 6) | v;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[len++] = (byte) (acc >> bits);
+            }
+        }
+        return len == out.length ? out : Arrays.copyOf(out, len);
+    }
+
+    private static int lineEnd(byte[] b, int from) {
+        while (from < b.length && b[from] != '\n') from++;
+        return Math.min(from + 1, b.length);
+    }
+
+    private static int indexOf(byte[] b, String s, int from) {
+        outer:
+        for (int i = Math.max(from, 0); i <= b.length - s.length(); i++) {
+            for (int j = 0; j < s.length(); j++) {
+                if (b[i + j] != s.charAt(j)) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when to (re)connect to the broker. Failed attempts back off with decorrelated jitter
+ * ({@code delay = min(max, random(base, 3 * previous delay))}), so a fleet of gateways that lost the
+ * broker together spreads out instead of reconnecting in lock-step. After
+ * {@link Options#setFailuresToOpen} failures in a row the circuit opens: no attempts at all for
+ * {@link Options#setOpenMs}, then a single trial attempt that either closes it again or re-opens it.
+ * <p>
+ * While the network is down nothing is attempted. When it comes back the backoff and the circuit
+ * are reset and the next attempt follows within a short random delay, without waiting out the
+ * backoff built up while offline.
+ * <p>
+ * The controller only schedules; the {@link Connector} makes the attempt and reports the outcome
+ * through {@link #connected()} and {@link #connectFailed(Throwable)}. Time comes from a
+ * {@link Scheduler}, which tests replace with a virtual clock.
+ */
+public final class ReconnectController {
+
+    public enum State { IDLE, CONNECTING, CONNECTED, BACKOFF, CIRCUIT_OPEN, NO_NETWORK, STOPPED }
+
+    /** Timers, real or virtual. */
+    public interface Scheduler {
+        long nowMillis();
+
+        Cancellable schedule(Runnable task, long delayMs);
+    }
+
+    public interface Cancellable {
+        void cancel();
+    }
+
+    public interface Connector {
+        /** Starts one attempt without blocking; its outcome must be reported to the controller. */
+        void connect();
+    }
+
+    public interface Listener {
+        /** {@code delayMs} is the time until the next attempt while backing off or open, else 0. */
+        void onStateChanged(State state, long delayMs);
+    }
+
+    public static final class Options {
+        long    baseDelayMs     = 1_000;
+        long    maxDelayMs      = 120_000;
+        int     failuresToOpen  = 8;
+        long    openMs          = 300_000;
+        long    networkJitterMs = 2_000;
+        Metrics metrics         = Metrics.shared();
+        String  metricsPrefix   = "mqtt";
+
+        /** Smallest backoff, and the scale of the jitter. */
+        public void setBaseDelayMs(long ms)     { this.baseDelayMs = ms; }
+        public void setMaxDelayMs(long ms)      { this.maxDelayMs = ms; }
+        public void setFailuresToOpen(int n)    { this.failuresToOpen = n; }
+        public void setOpenMs(long ms)          { this.openMs = ms; }
+
+        /** The attempt after the network returns is spread over this window. */
+        public void setNetworkJitterMs(long ms) { this.networkJitterMs = ms; }
+
+        public void setMetrics(Metrics metrics) { this.metrics = metrics; }
+
+        /** Names the counters {@code <prefix>.connect_attempts} and {@code <prefix>.circuit_opened}. */
+        public void setMetricsPrefix(String prefix) { this.metricsPrefix = prefix; }
+    }
+
+    private final Connector       connector;
+    private final Options         opts;
+    private final Scheduler       scheduler;
+    private final Random          random;
+    private final Listener        listener;
+    private final Metrics.Counter attempts;
+    private final Metrics.Counter circuitOpened;
+
+    private State       state = State.IDLE;
+    private boolean     networkUp = true;
+    private int         failures;
+    private long        sleepMs;
+    private long        nextAttemptAt;
+    private Cancellable pending;
+
+    public ReconnectController(Connector connector, Options opts, Scheduler scheduler, Random random,
+                               Listener listener) {
+        this.connector     = connector;
+        this.opts          = opts;
+        this.scheduler     = scheduler;
+        this.random        = random;
+        this.listener      = listener;
+        this.sleepMs       = opts.baseDelayMs;
+        this.attempts      = opts.metrics.counter(opts.metricsPrefix + ".connect_attempts");
+        this.circuitOpened = opts.metrics.counter(opts.metricsPrefix + ".circuit_opened");
+    }
+
+    /** A {@link Scheduler} running on {@code executor} with the wall clock. */
+    public static Scheduler scheduler(ScheduledExecutorService executor) {
+        return new Scheduler() {
+            @Override public long nowMillis() {
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+            }
+
+            @Override public Cancellable schedule(Runnable task, long delayMs) {
+                ScheduledFuture<?> f = executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+                return () -> f.cancel(false);
+            }
+        };
+    }
+
+    /** Makes the first attempt now, or as soon as the network is up. */
+    public void start() {
+        synchronized (this) {
+            if (state != State.IDLE && state != State.STOPPED) return;
+            if (!networkUp) {
+                setState(State.NO_NETWORK, 0);
+                return;
+            }
+            failures = 0;
+            sleepMs = opts.baseDelayMs;
+            setState(State.CONNECTING, 0);
+        }
+        attempt();
+    }
+
+    /** Cancels any pending attempt; nothing happens until {@link #start()}. */
+    public synchronized void stop() {
+        cancelPending();
+        setState(State.STOPPED, 0);
+    }
+
+    public synchronized void connected() {
+        if (state == State.STOPPED) return;
+        cancelPending();
+        failures = 0;
+        sleepMs = opts.baseDelayMs;
+        setState(State.CONNECTED, 0);
+    }
+
+    public synchronized void connectFailed(Throwable cause) {
+        if (state != State.CONNECTING) return;
+        failures++;
+        if (!networkUp) {
+            setState(State.NO_NETWORK, 0);
+        } else if (failures >= opts.failuresToOpen) {
+            circuitOpened.inc();
+            scheduleAttempt(State.CIRCUIT_OPEN, opts.openMs);
+        } else {
+            scheduleAttempt(State.BACKOFF, nextBackoff());
+        }
+    }
+
+    public synchronized void connectionLost(Throwable cause) {
+        if (state != State.CONNECTED) return;
+        if (!networkUp) {
+            setState(State.NO_NETWORK, 0);
+        } else {
+            // Everyone lost the same broker at the same moment: do not all come back at once.
+            scheduleAttempt(State.BACKOFF, nextBackoff());
+        }
+    }
+
+    public synchronized void networkAvailable() {
+        boolean wasDown = !networkUp;
+        networkUp = true;
+        if (state == State.NO_NETWORK || (wasDown && (state == State.BACKOFF || state == State.CIRCUIT_OPEN))) {
+            failures = 0;
+            sleepMs = opts.baseDelayMs;
+            scheduleAttempt(State.BACKOFF, opts.networkJitterMs <= 0 ? 0 : (long) (random.nextDouble() * opts.networkJitterMs));
+        }
+    }
+
+    public synchronized void networkLost() {
+        networkUp = false;
+        if (state == State.BACKOFF || state == State.CIRCUIT_OPEN) {
+            cancelPending();
+            setState(State.NO_NETWORK, 0);
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /** Milliseconds until the pending attempt, or -1 if none is scheduled. */
+    public synchronized long untilNextAttempt() {
+        return pending == null ? -1 : Math.max(0, nextAttemptAt - scheduler.nowMillis());
+    }
+
+    /** Decorrelated jitter: the next delay is drawn from {@code [base, 3 * previous]}, capped. */
+    private long nextBackoff() {
+        long base = opts.baseDelayMs;
+        long upper = Math.max(base, Math.min(opts.maxDelayMs, sleepMs * 3));
+        sleepMs = Math.min(opts.maxDelayMs, base + (long) (random.nextDouble() * (upper - base)));
+        return sleepMs;
+    }
+
+    private void scheduleAttempt(State waiting, long delayMs) {
+        cancelPending();
+        setState(waiting, delayMs);
+        nextAttemptAt = scheduler.nowMillis() + delayMs;
+        Cancellable[] self = new Cancellable[1];
+        self[0] = pending = scheduler.schedule(() -> {
+            synchronized (this) {
+                if (pending != self[0]) return; // cancelled or replaced
+                pending = null;
+                setState(State.CONNECTING, 0);
+            }
+            attempt();
+        }, delayMs);
+    }
+
+    /** Outside the lock: the connector may report back on this thread. */
+    private void attempt() {
+        attempts.inc();
+        try {
+            connector.connect();
+        } catch (RuntimeException e) {
+            connectFailed(e);
+        }
+    }
+
+    private void cancelPending() {
+        if (pending != null) pending.cancel();
+        pending = null;
+    }
+
+    private void setState(State next, long delayMs) {
+        if (state == next && delayMs == 0) return;
+        state = next;
+        if (listener != null) listener.onStateChanged(next, delayMs);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.awsiotcertapp.protocol;
+
+/**
+ * Layout of the sensor samples inside one reading: a fixed header, then samples of
+ * {@code channels} interleaved integers, then a fixed trailer. The version travels with every
+ * encoded reading so a consumer knows which layout to decode it with.
+ */
+public final class SampleSchema {
+    public final int     version;
+    public final int     headerBytes;
+    public final int     trailerBytes;
+    public final int     channels;
+    public final int     sampleBytes;
+    public final boolean signed;
+    public final boolean bigEndian;
+
+    /**
+     * @param sampleBytes width of one channel value: 1, 2 or 4 bytes
+     */
+    public SampleSchema(int version, int headerBytes, int trailerBytes, int channels, int sampleBytes,
+                        boolean signed, boolean bigEndian) {
+        if (version < 0 || headerBytes < 0 || trailerBytes < 0 || channels < 1) {
+            throw new IllegalArgumentException("bad schema");
+        }
+        if (sampleBytes != 1 && sampleBytes != 2 && sampleBytes != 4) {
+            throw new IllegalArgumentException("sample width must be 1, 2 or 4 bytes");
+        }
+        this.version      = version;
+        this.headerBytes  = headerBytes;
+        this.trailerBytes = trailerBytes;
+        this.channels     = channels;
+        this.sampleBytes  = sampleBytes;
+        this.signed       = signed;
+        this.bigEndian    = bigEndian;
+    }
+
+    /** A logger data frame: the {@code 0x40} and {@code 0x4F} markers around unsigned 16-bit big-endian values. */
+    public static SampleSchema loggerFrame(int version, int channels) {
+        return new SampleSchema(version, 1, 1, channels, 2, false, true);
+    }
+
+    /** Bytes of one sample across all channels. */
+    public int stride() {
+        return channels * sampleBytes;
+    }
+
+    /** Whole samples in a reading of {@code len} bytes; 0 if it cannot even hold the header and trailer. */
+    public int sampleCount(int len) {
+        int body = len - headerBytes - trailerBytes;
+        return body <= 0 ? 0 : body / stride();
+    }
+
+    long read(byte[] buf, int pos) {
+        long v = 0;
+        for (int i = 0; i < sampleBytes; i++) {
+            int b = buf[pos + (bigEndian ? i : sampleBytes - 1 - i)] & 0xFF;
+            v = v << 8 | b;
+        }
+        if (signed) {
+            int shift = 64 - 8 * sampleBytes;
+            v = v << shift >> shift;
+        }
+        return v;
+    }
+
+    void write(byte[] buf, int pos, long v) {
+        for (int i = 0; i < sampleBytes; i++) {
+            buf[pos + (bigEndian ? sampleBytes - 1 - i : i)] = (byte) (v >>> 8 * i);
+        }
+    }
+}
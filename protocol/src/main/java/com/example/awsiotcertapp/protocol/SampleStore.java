@@ -0,0 +1,277 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory history of one device's samples, kept column by column so a long history stays
+ * small and fast to scan. Readings are split into samples with a {@link SampleSchema} and
+ * appended to fixed-size blocks:
+ * <ul>
+ *   <li>each channel is a primitive array of the block's capacity, as wide as the schema's values
+ *       ({@code byte[]}, {@code short[]} or {@code int[]}), with no per-sample objects;</li>
+ *   <li>timestamps are varint deltas to the previous sample, usually one byte each;</li>
+ *   <li>every block records its first and last time, and a range query binary-searches the blocks
+ *       and decodes only the ones that overlap.</li>
+ * </ul>
+ * Time never goes backwards within a store: a sample older than the last one is stored with the
+ * last one's time. Whole blocks are evicted, oldest first, once the store holds more than
+ * {@link Options#setMaxSamples} samples or a block is older than {@link Options#setMaxAgeMs}.
+ */
+public final class SampleStore {
+
+    public static final class Options {
+        int  blockSamples = 1024;
+        int  maxSamples   = 256 * 1024;
+        long maxAgeMs     = 24 * 60 * 60 * 1000L;
+        long samplePeriodMs;
+
+        public void setBlockSamples(int samples) { this.blockSamples = samples; }
+
+        /** Upper bound on the samples kept; eviction drops whole blocks, so up to a block fewer may be kept. */
+        public void setMaxSamples(int samples)   { this.maxSamples = samples; }
+        public void setMaxAgeMs(long ms)         { this.maxAgeMs = ms; }
+
+        /**
+         * Spacing of the samples within one reading: the last one is stamped with the time the
+         * reading arrived, the others this much earlier each. 0 (the default) stamps them all
+         * with the arrival time.
+         */
+        public void setSamplePeriodMs(long ms)   { this.samplePeriodMs = ms; }
+    }
+
+    /** Samples in a time range, as primitive columns. */
+    public static final class Window {
+        public final int      version;
+        public final long[]   times;
+        /** {@code values[channel][i]} is the value of sample {@code i} on {@code channel}. */
+        public final long[][] values;
+
+        Window(int version, long[] times, long[][] values) {
+            this.version = version;
+            this.times   = times;
+            this.values  = values;
+        }
+
+        public int size() {
+            return times.length;
+        }
+
+        /**
+         * {@code {"v":1,"n":3,"t0":1700000000000,"dt":[0,1000,1000],"ch":[[1,2,3],[7,7,8]]}}:
+         * the first time, each time as the difference to the one before, and one array per
+         * channel, in the register of the {@link JsonCodec}.
+         */
+        public byte[] toJson() {
+            int n = times.length;
+            StringBuilder sb = new StringBuilder(48 + n * (4 + 6 * values.length));
+            sb.append("{\"v\":").append(version).append(",\"n\":").append(n);
+            sb.append(",\"t0\":").append(n == 0 ? 0 : times[0]).append(",\"dt\":[");
+            for (int i = 0; i < n; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(i == 0 ? 0 : times[i] - times[i - 1]);
+            }
+            sb.append("],\"ch\":[");
+            for (int c = 0; c < values.length; c++) {
+                if (c > 0) sb.append(',');
+                sb.append('[');
+                for (int i = 0; i < n; i++) {
+                    if (i > 0) sb.append(',');
+                    sb.append(values[c][i]);
+                }
+                sb.append(']');
+            }
+            return sb.append("]}").toString().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final class Block {
+        // One of these holds the columns, by sample width.
+        final byte[][]  bytes;
+        final short[][] shorts;
+        final int[][]   ints;
+        byte[]        times;
+        int           timeBytes;
+        int           count;
+        long          first;
+        long          last;
+
+        Block() {
+            int width = schema.sampleBytes;
+            this.bytes  = width == 1 ? new byte[schema.channels][opts.blockSamples] : null;
+            this.shorts = width == 2 ? new short[schema.channels][opts.blockSamples] : null;
+            this.ints   = width == 4 ? new int[schema.channels][opts.blockSamples] : null;
+            this.times   = new byte[opts.blockSamples * 2];
+        }
+
+        boolean full() {
+            return count == opts.blockSamples;
+        }
+
+        void add(long time, byte[] reading, int at) {
+            if (count == 0) first = time;
+            if (timeBytes + 10 > times.length) times = Arrays.copyOf(times, times.length * 2);
+            timeBytes = Varint.write(times, timeBytes, count == 0 ? 0 : time - last);
+            last = time;
+            for (int c = 0; c < schema.channels; c++) {
+                long v = schema.read(reading, at + c * schema.sampleBytes);
+                if (bytes != null) bytes[c][count] = (byte) v;
+                else if (shorts != null) shorts[c][count] = (short) v;
+                else ints[c][count] = (int) v;
+            }
+            count++;
+        }
+
+        /** The value of sample {@code i} on channel {@code c}, widened back as the schema says. */
+        long value(int c, int i) {
+            if (bytes != null) return schema.signed ? bytes[c][i] : bytes[c][i] & 0xFFL;
+            if (shorts != null) return schema.signed ? shorts[c][i] : shorts[c][i] & 0xFFFFL;
+            return schema.signed ? ints[c][i] : ints[c][i] & 0xFFFFFFFFL;
+        }
+
+        /** Drops the slack of the timestamp buffer once nothing more is added. */
+        void seal() {
+            times = Arrays.copyOf(times, timeBytes);
+        }
+
+        long bytes() {
+            return (long) schema.channels * opts.blockSamples * schema.sampleBytes + times.length;
+        }
+    }
+
+    private final SampleSchema schema;
+    private final Options      opts;
+    /** Oldest first; every block but the last is full and sealed. */
+    private final List<Block>  blocks = new ArrayList<>();
+
+    private long samples;
+    private long evicted;
+
+    public SampleStore(SampleSchema schema, Options opts) {
+        if (opts.blockSamples < 1) throw new IllegalArgumentException("blocks must hold at least one sample");
+        this.schema = schema;
+        this.opts   = opts;
+    }
+
+    /**
+     * Appends the samples of a reading that arrived at {@code receivedAtMillis}, then evicts what
+     * has grown too old or too much. Returns the number of samples appended.
+     */
+    public synchronized int append(long receivedAtMillis, byte[] reading, int offset, int len) {
+        int n = schema.sampleCount(len);
+        int stride = schema.stride();
+        int at = offset + schema.headerBytes;
+        Block tail = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        for (int i = 0; i < n; i++, at += stride) {
+            long time = receivedAtMillis - (n - 1 - i) * opts.samplePeriodMs;
+            if (tail != null && time < tail.last) time = tail.last;
+            if (tail == null || tail.full()) {
+                if (tail != null) tail.seal();
+                tail = new Block();
+                blocks.add(tail);
+            }
+            tail.add(time, reading, at);
+        }
+        samples += n;
+        evict(receivedAtMillis);
+        return n;
+    }
+
+    /**
+     * Drops the blocks whose newest sample is older than the age limit at {@code nowMillis}, and
+     * the oldest ones while the size limit is exceeded.
+     */
+    public synchronized void evict(long nowMillis) {
+        long oldest = nowMillis - opts.maxAgeMs;
+        while (!blocks.isEmpty()) {
+            Block b = blocks.get(0);
+            boolean tooOld = b.last < oldest;
+            boolean tooMany = samples > opts.maxSamples && blocks.size() > 1;
+            if (!tooOld && !tooMany) break;
+            blocks.remove(0);
+            samples -= b.count;
+            evicted += b.count;
+        }
+    }
+
+    /** The samples stamped from {@code fromMillis} up to, not including, {@code toMillis}. */
+    public synchronized Window query(long fromMillis, long toMillis) {
+        int start = firstBlockEndingAtOrAfter(fromMillis);
+        int upperBound = 0;
+        int end = start;
+        for (; end < blocks.size() && blocks.get(end).first < toMillis; end++) upperBound += blocks.get(end).count;
+
+        long[] times = new long[upperBound];
+        long[][] values = new long[schema.channels][upperBound];
+        int n = 0;
+        for (int bi = start; bi < end; bi++) {
+            Block b = blocks.get(bi);
+            int[] pos = {0};
+            long time = b.first;
+            for (int i = 0; i < b.count; i++) {
+                time += Varint.read(b.times, pos);
+                if (time < fromMillis) continue;
+                if (time >= toMillis) break;
+                times[n] = time;
+                for (int c = 0; c < values.length; c++) values[c][n] = b.value(c, i);
+                n++;
+            }
+        }
+        if (n < upperBound) {
+            times = Arrays.copyOf(times, n);
+            for (int c = 0; c < values.length; c++) values[c] = Arrays.copyOf(values[c], n);
+        }
+        return new Window(schema.version, times, values);
+    }
+
+    /** The samples of the last {@code ms} milliseconds before the newest one. */
+    public synchronized Window recent(long ms) {
+        if (blocks.isEmpty()) return query(0, 0);
+        long newest = blocks.get(blocks.size() - 1).last;
+        return query(newest - ms, newest + 1);
+    }
+
+    public synchronized long size() {
+        return samples;
+    }
+
+    /** Samples dropped by the age and size limits so far. */
+    public synchronized long evicted() {
+        return evicted;
+    }
+
+    /** Time of the oldest sample kept, or -1 if the store is empty. */
+    public synchronized long firstTime() {
+        return blocks.isEmpty() ? -1 : blocks.get(0).first;
+    }
+
+    /** Time of the newest sample, or -1 if the store is empty. */
+    public synchronized long lastTime() {
+        return blocks.isEmpty() ? -1 : blocks.get(blocks.size() - 1).last;
+    }
+
+    /** Heap taken by the sample columns and timestamps. */
+    public synchronized long memoryBytes() {
+        long bytes = 0;
+        for (Block b : blocks) bytes += b.bytes();
+        return bytes;
+    }
+
+    /** Index of the first block whose newest sample is at or after {@code time}. */
+    private int firstBlockEndingAtOrAfter(long time) {
+        int lo = 0;
+        int hi = blocks.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blocks.get(mid).last < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    @Override public synchronized String toString() {
+        return "SampleStore[" + samples + " samples, " + blocks.size() + " blocks, " + memoryBytes() / 1024 + " KB]";
+    }
+}
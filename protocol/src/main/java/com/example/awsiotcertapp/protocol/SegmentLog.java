@@ -0,0 +1,307 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped message log made of fixed-size segment files. Used as a
+ * store-and-forward buffer: records are appended while offline, read back in batches, and the
+ * durable checkpoint only moves forward once a batch has been acknowledged.
+ * <p>
+ * Each record is {@code [int length][int crc32][u16 topic length][topic][payload]}. A zero length
+ * marks the end of the written part of a segment, a negative length says "continue in the next
+ * segment". At most the write segment and the read segment are mapped at any time, so memory use
+ * does not grow with the backlog. When the log would exceed its size limit the oldest segment is
+ * discarded.
+ */
+public final class SegmentLog implements Closeable {
+    private static final Charset UTF8        = Charset.forName("UTF-8");
+    private static final String  SUFFIX      = ".seg";
+    private static final int     HEADER      = 8;
+    private static final int     SKIP_MARKER = -1;
+
+    public static final class Record {
+        public final String topic;
+        public final byte[] payload;
+        final long          next;
+
+        Record(String topic, byte[] payload, long next) {
+            this.topic   = topic;
+            this.payload = payload;
+            this.next    = next;
+        }
+    }
+
+    private final File    dir;
+    private final int     segmentBytes;
+    private final int     maxSegments;
+    private final CRC32   crc = new CRC32();
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+    private final MappedByteBuffer    checkpointMap;
+    private final RandomAccessFile    checkpointFile;
+
+    private long             writeSegment;
+    private MappedByteBuffer writeMap;
+    private long             readSegment = -1;
+    private MappedByteBuffer readMap;
+
+    private long committed; // position of the first unacknowledged record, durable
+    private long readPos;   // position of the next record to hand out
+    private long writePos;  // position where the next record goes
+    private long pending;   // records between committed and writePos
+    private long dropped;
+
+    /**
+     * @param maxBytes     upper bound for all segment files together
+     * @param segmentBytes size of one segment file; also bounds the largest record
+     */
+    public SegmentLog(File dir, long maxBytes, int segmentBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+        this.dir          = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments  = (int) Math.max(2, maxBytes / segmentBytes);
+
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), f);
+            }
+        }
+        checkpointFile = new RandomAccessFile(new File(dir, "checkpoint"), "rw");
+        checkpointMap  = checkpointFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        committed = checkpointMap.getLong(0);
+
+        if (segments.isEmpty()) {
+            committed = position(0, 0);
+            writeSegment = 0;
+            writeMap = map(0);
+            writePos = committed;
+        } else {
+            if (!segments.containsKey(segmentOf(committed))) committed = position(segments.firstKey(), 0);
+            writeSegment = segments.lastKey();
+            writeMap = map(writeSegment);
+            writePos = position(writeSegment, scanEnd(writeMap));
+        }
+        readPos = committed;
+        pending = countFrom(committed);
+    }
+
+    public static long position(long segment, int offset) {
+        return (segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    /** Appends a record; returns {@code false} only if it can never fit in a segment. */
+    public synchronized boolean append(String topic, byte[] payload, int offset, int len) throws IOException {
+        byte[] topicBytes = topic.getBytes(UTF8);
+        int bodyLen = 2 + topicBytes.length + len;
+        if (HEADER + bodyLen + 4 > segmentBytes) return false;
+
+        int pos = offsetOf(writePos);
+        if (pos + HEADER + bodyLen + 4 > segmentBytes) {
+            writeMap.putInt(pos, SKIP_MARKER);
+            rollSegment();
+            pos = 0;
+        }
+        crc.reset();
+        crc.update(topicBytes.length >>> 8);
+        crc.update(topicBytes.length);
+        crc.update(topicBytes);
+        crc.update(payload, offset, len);
+
+        // Body first, length last: a torn write leaves a zero length and is ignored on recovery.
+        int body = pos + HEADER;
+        writeMap.putShort(body, (short) topicBytes.length);
+        writeMap.position(body + 2);
+        writeMap.put(topicBytes);
+        writeMap.put(payload, offset, len);
+        writeMap.putInt(pos + 4, (int) crc.getValue());
+        writeMap.putInt(pos, bodyLen);
+        writePos = position(writeSegment, body + bodyLen);
+        pending++;
+        return true;
+    }
+
+    /**
+     * Hands out up to {@code max} records after the last one handed out. Nothing becomes durable
+     * until {@link #commit(Record)}.
+     */
+    public synchronized List<Record> readBatch(int max) throws IOException {
+        List<Record> batch = new ArrayList<>(Math.min(max, 64));
+        while (batch.size() < max && readPos != writePos) {
+            long seg = segmentOf(readPos);
+            int off = offsetOf(readPos);
+            MappedByteBuffer map = readMapFor(seg);
+            int len = off + HEADER <= segmentBytes ? map.getInt(off) : SKIP_MARKER;
+            if (len <= 0) {
+                Long next = segments.higherKey(seg);
+                if (next == null) break;
+                readPos = position(next, 0);
+                continue;
+            }
+            int body = off + HEADER;
+            int topicLen = map.getShort(body) & 0xFFFF;
+            byte[] topic = new byte[topicLen];
+            byte[] payload = new byte[len - 2 - topicLen];
+            map.position(body + 2);
+            map.get(topic);
+            map.get(payload);
+            readPos = position(seg, body + len);
+            batch.add(new Record(new String(topic, UTF8), payload, readPos));
+        }
+        return batch;
+    }
+
+    /** Makes everything up to and including {@code last} durable as delivered. */
+    public synchronized void commit(Record last) throws IOException {
+        long through = last.next;
+        if (through <= committed) return; // already committed, or its segment was discarded
+        pending -= countBetween(committed, through);
+        committed = through;
+        checkpointMap.putLong(0, committed);
+        checkpointMap.force();
+        Long first;
+        while ((first = segments.firstKey()) < segmentOf(committed)) deleteSegment(first);
+    }
+
+    /** Forgets what was handed out but not committed; the next batch starts at the checkpoint. */
+    public synchronized void rewind() {
+        readPos = committed;
+    }
+
+    public synchronized long pendingRecords() {
+        return pending;
+    }
+
+    public synchronized long droppedRecords() {
+        return dropped;
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    @Override public synchronized void close() throws IOException {
+        writeMap.force();
+        checkpointMap.force();
+        checkpointFile.close();
+        writeMap = null;
+        readMap = null;
+    }
+
+    private void rollSegment() throws IOException {
+        writeMap.force();
+        if (segments.size() >= maxSegments) {
+            long oldest = segments.firstKey();
+            long lost = countBetween(committed, position(oldest + 1, 0));
+            dropped += lost;
+            pending -= lost;
+            if (segmentOf(committed) == oldest) {
+                committed = position(oldest + 1, 0);
+                checkpointMap.putLong(0, committed);
+            }
+            if (segmentOf(readPos) == oldest) readPos = position(oldest + 1, 0);
+            deleteSegment(oldest);
+        }
+        writeSegment++;
+        writeMap = map(writeSegment);
+        writePos = position(writeSegment, 0);
+    }
+
+    private void deleteSegment(long seg) {
+        File f = segments.remove(seg);
+        if (seg == readSegment) {
+            readSegment = -1;
+            readMap = null;
+        }
+        if (f != null && !f.delete()) f.deleteOnExit();
+    }
+
+    private MappedByteBuffer readMapFor(long seg) throws IOException {
+        if (seg == writeSegment) return writeMap;
+        if (seg != readSegment) {
+            readMap = map(seg);
+            readSegment = seg;
+        }
+        return readMap;
+    }
+
+    private MappedByteBuffer map(long seg) throws IOException {
+        File f = segments.get(seg);
+        if (f == null) {
+            f = new File(dir, String.format("%016d%s", seg, SUFFIX));
+            segments.put(seg, f);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    /** Offset just past the last intact record of a segment. */
+    private int scanEnd(MappedByteBuffer map) {
+        int off = 0;
+        while (off + HEADER <= segmentBytes) {
+            int len = map.getInt(off);
+            if (len <= 0 || off + HEADER + len > segmentBytes || !crcMatches(map, off, len)) break;
+            off += HEADER + len;
+        }
+        return off;
+    }
+
+    private boolean crcMatches(MappedByteBuffer map, int off, int len) {
+        crc.reset();
+        for (int i = 0; i < len; i++) crc.update(map.get(off + HEADER + i));
+        return (int) crc.getValue() == map.getInt(off + 4);
+    }
+
+    private long countFrom(long from) throws IOException {
+        return countBetween(from, writePos);
+    }
+
+    /** Number of records in {@code [from, to)}, walking the segment headers. */
+    private long countBetween(long from, long to) throws IOException {
+        long n = 0;
+        long pos = from;
+        while (pos < to && pos != writePos) {
+            long seg = segmentOf(pos);
+            int off = offsetOf(pos);
+            MappedByteBuffer map = seg == writeSegment ? writeMap : mapForCount(seg);
+            int len = map == null || off + HEADER > segmentBytes ? SKIP_MARKER : map.getInt(off);
+            if (len <= 0) {
+                Long next = segments.higherKey(seg);
+                if (next == null) break;
+                pos = position(next, 0);
+                continue;
+            }
+            pos = position(seg, off + HEADER + len);
+            n++;
+        }
+        return n;
+    }
+
+    private MappedByteBuffer mapForCount(long seg) throws IOException {
+        return segments.containsKey(seg) ? readMapFor(seg) : null;
+    }
+
+    private static long segmentOf(long position) {
+        return position >>> 32;
+    }
+
+    private static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    @Override public String toString() {
+        return "SegmentLog" + Arrays.asList(dir.getName(), pending + " pending", segments.size() + " segments");
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.Arrays;
+
+/**
+ * The set of sequence numbers seen so far, in constant space: a {@link #base()} below which every
+ * number counts as seen, and a ring of bits for the {@link #capacity()} numbers from the base up.
+ * The base moves up as soon as the number at it is added, so in-order streams never touch the
+ * bits. A number too far above the base slides the window forward; the numbers it passes without
+ * having seen them are given up and counted in {@link #skipped()}.
+ * <p>
+ * Not thread-safe.
+ */
+public final class SequenceWindow {
+    private final long[] bits;
+    private final int    capacity;
+
+    private long base;
+    private int  above;   // members in the ring, all above the base
+    private long skipped;
+
+    /** {@code capacity} is rounded up to a multiple of 64. */
+    public SequenceWindow(int capacity, long base) {
+        this.bits     = new long[(Math.max(capacity, 64) + 63) >>> 6];
+        this.capacity = bits.length << 6;
+        this.base     = base;
+    }
+
+    /** Every number below this one is in the set, or was given up. */
+    public long base() {
+        return base;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Numbers above {@link #base()} that are in the set. */
+    public int sizeAboveBase() {
+        return above;
+    }
+
+    /** Numbers the window slid past without having seen them. */
+    public long skipped() {
+        return skipped;
+    }
+
+    public boolean contains(long seq) {
+        if (seq < base) return true;
+        return seq - base < capacity && get(seq);
+    }
+
+    /** Whether {@code seq} can be added without sliding the window. */
+    public boolean fits(long seq) {
+        return seq - base < capacity;
+    }
+
+    /** Adds {@code seq}; {@code false} if it was already in the set or is below the base. */
+    public boolean add(long seq) {
+        if (seq < base) return false;
+        if (seq - base >= capacity) slideTo(seq - capacity + 1);
+        if (seq == base) {
+            base++;
+            advance();
+            return true;
+        }
+        if (get(seq)) return false;
+        flip(seq);
+        above++;
+        return true;
+    }
+
+    private void slideTo(long newBase) {
+        if (newBase - base >= capacity) {
+            skipped += newBase - base - above;
+            Arrays.fill(bits, 0);
+            above = 0;
+            base = newBase;
+        } else {
+            for (; base < newBase; base++) {
+                if (get(base)) {
+                    flip(base);
+                    above--;
+                } else {
+                    skipped++;
+                }
+            }
+        }
+        advance();
+    }
+
+    /** Moves the base over the members directly above it. */
+    private void advance() {
+        while (above > 0 && get(base)) {
+            flip(base);
+            above--;
+            base++;
+        }
+    }
+
+    private boolean get(long seq) {
+        int i = (int) (seq % capacity);
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void flip(long seq) {
+        int i = (int) (seq % capacity);
+        bits[i >>> 6] ^= 1L << i;
+    }
+
+    @Override public String toString() {
+        return "SequenceWindow[base=" + base + ", above=" + above + ", skipped=" + skipped + "]";
+    }
+}
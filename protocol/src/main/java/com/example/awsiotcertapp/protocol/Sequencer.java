@@ -0,0 +1,142 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gives every message for a device its own sequence number and tracks which are still waiting for
+ * their acknowledgement. The number travels in front of the message:
+ * <pre>
+ *   0xE5  varint epoch  varint sequence  the message
+ * </pre>
+ * Sequences start at 0 for each device in each epoch; a new epoch per run keeps numbers from an
+ * earlier run apart, so a receiver never mistakes a fresh reading for a retransmitted one. A
+ * receiver drops repeats with a {@link Deduplicator}.
+ * <p>
+ * Acknowledgements are tracked in a {@link SequenceWindow} per device: the oldest unacknowledged
+ * number and the acknowledged ones above it. An acknowledgement more than the window's capacity
+ * above the oldest unacknowledged message is reported but not remembered, so
+ * {@link #isAcked} stays {@code false} for it and a sender asking before a resend only sends it
+ * again.
+ */
+public final class Sequencer {
+    public static final byte MAGIC = (byte) 0xE5;
+
+    public interface Listener {
+        /** The broker acknowledged message {@code sequence} of {@code device}, in this epoch. */
+        void onDelivered(String device, long sequence);
+    }
+
+    /** Where a message was stamped, and where the message itself starts. */
+    public static final class Stamp {
+        public final long epoch;
+        public final long sequence;
+        public final int  offset;
+
+        Stamp(long epoch, long sequence, int offset) {
+            this.epoch    = epoch;
+            this.sequence = sequence;
+            this.offset   = offset;
+        }
+    }
+
+    private static final class Stream {
+        final SequenceWindow acked;
+        long next;
+
+        Stream(int window) {
+            this.acked = new SequenceWindow(window, 0);
+        }
+    }
+
+    private final long     epoch;
+    private final int      window;
+    private final Listener listener;
+    private final Map<String, Stream> streams = new HashMap<>();
+
+    /**
+     * @param window   acknowledgements tracked per device above its oldest unacknowledged message
+     * @param listener told of every acknowledgement of this epoch; may be {@code null}
+     */
+    public Sequencer(long epoch, int window, Listener listener) {
+        this.epoch    = epoch;
+        this.window   = window;
+        this.listener = listener;
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    /** {@code len} bytes of {@code payload} behind the next sequence number of {@code device}. */
+    public byte[] stamp(String device, byte[] payload, int offset, int len) {
+        long seq;
+        synchronized (this) {
+            seq = stream(device).next++;
+        }
+        byte[] out = new byte[1 + Varint.size(epoch) + Varint.size(seq) + len];
+        out[0] = MAGIC;
+        int pos = Varint.write(out, 1, epoch);
+        pos = Varint.write(out, pos, seq);
+        System.arraycopy(payload, offset, out, pos, len);
+        return out;
+    }
+
+    /**
+     * Records the acknowledgement of a message returned by {@link #stamp} and tells the listener.
+     * Messages of another epoch or without a stamp are ignored.
+     */
+    public void acked(String device, byte[] message) {
+        Stamp s = read(message);
+        if (s == null || s.epoch != epoch) return;
+        synchronized (this) {
+            SequenceWindow acked = stream(device).acked;
+            if (acked.fits(s.sequence)) acked.add(s.sequence);
+        }
+        if (listener != null) listener.onDelivered(device, s.sequence);
+    }
+
+    /** Whether the acknowledgement of this message was recorded; {@code false} for other epochs. */
+    public boolean isAcked(String device, byte[] message) {
+        Stamp s = read(message);
+        if (s == null || s.epoch != epoch) return false;
+        synchronized (this) {
+            Stream st = streams.get(device);
+            return st != null && s.sequence < st.next && st.acked.contains(s.sequence);
+        }
+    }
+
+    /** The oldest sequence number of {@code device} still waiting for its acknowledgement, or -1. */
+    public synchronized long oldestUnacked(String device) {
+        Stream st = streams.get(device);
+        return st == null || st.acked.base() >= st.next ? -1 : st.acked.base();
+    }
+
+    /** Messages of {@code device} stamped in this epoch and not acknowledged yet. */
+    public synchronized long unacked(String device) {
+        Stream st = streams.get(device);
+        return st == null ? 0 : st.next - st.acked.base() - st.acked.sizeAboveBase();
+    }
+
+    /** The stamp in front of {@code message}, or {@code null} if it has none. */
+    public static Stamp read(byte[] message) {
+        if (message.length == 0 || message[0] != MAGIC) return null;
+        try {
+            int[] pos = {1};
+            long epoch = Varint.read(message, pos);
+            long seq = Varint.read(message, pos);
+            return new Stamp(epoch, seq, pos[0]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Stream stream(String device) {
+        Stream st = streams.get(device);
+        if (st == null) {
+            st = new Stream(window);
+            streams.put(device, st);
+        }
+        return st;
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records what crosses a {@link DeviceConnectionManager.Link} as text, one line per write or read:
+ * <pre>
+ *   # logger session v1
+ *   0 &gt; 50000707EA0A1114053A5F
+ *   38 &lt; 50025F
+ * </pre>
+ * Milliseconds since the capture started, the direction ({@code >} host to logger, {@code <}
+ * logger to host) and the bytes in hex. Reads are logged as the link returned them, so a capture
+ * keeps the fragmentation and timing of the real link, and a simulated logger can replay it.
+ */
+public final class SessionCapture {
+    static final String HEADER = "# logger session v1";
+
+    public static final class Entry {
+        public final long    atMillis;
+        /** {@code true} for bytes the host wrote, {@code false} for bytes it read. */
+        public final boolean fromHost;
+        public final byte[]  bytes;
+
+        public Entry(long atMillis, boolean fromHost, byte[] bytes) {
+            this.atMillis = atMillis;
+            this.fromHost = fromHost;
+            this.bytes    = bytes;
+        }
+    }
+
+    private SessionCapture() {
+    }
+
+    /** {@code link}, with everything written and read also logged to {@code log}; closing it closes both. */
+    public static DeviceConnectionManager.Link record(DeviceConnectionManager.Link link, Writer log) throws IOException {
+        BufferedWriter text = new BufferedWriter(log);
+        text.write(HEADER);
+        text.newLine();
+        Recorder recorder = new Recorder(text, System.nanoTime());
+        InputStream in = new FilterInputStream(link.input()) {
+            @Override public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) recorder.log(false, new byte[]{(byte) b}, 0, 1);
+                return b;
+            }
+
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) recorder.log(false, b, off, n);
+                return n;
+            }
+        };
+        OutputStream output = new FilterOutputStream(link.output()) {
+            @Override public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                // Logged first: the reply can be read before this returns.
+                recorder.log(true, b, off, len);
+                out.write(b, off, len);
+            }
+        };
+        return new DeviceConnectionManager.Link() {
+            @Override public InputStream input() {
+                return in;
+            }
+
+            @Override public OutputStream output() {
+                return output;
+            }
+
+            @Override public void close() throws IOException {
+                try {
+                    link.close();
+                } finally {
+                    recorder.close();
+                }
+            }
+        };
+    }
+
+    /** The entries of a capture written by {@link #record}, in order. */
+    public static List<Entry> read(Reader capture) throws IOException {
+        BufferedReader in = new BufferedReader(capture);
+        List<Entry> entries = new ArrayList<>();
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split(" ");
+            if (parts.length != 3 || !(parts[1].equals(">") || parts[1].equals("<"))) {
+                throw new IOException("line " + lineNo + ": expected \"<ms> <dir> <hex>\"");
+            }
+            try {
+                entries.add(new Entry(Long.parseLong(parts[0]), parts[1].equals(">"), Hex.decode(parts[2])));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + lineNo + ": " + e.getMessage(), e);
+            }
+        }
+        return entries;
+    }
+
+    private static final class Recorder {
+        private final BufferedWriter out;
+        private final long           start;
+        private boolean              closed;
+
+        Recorder(BufferedWriter out, long start) {
+            this.out   = out;
+            this.start = start;
+        }
+
+        synchronized void log(boolean fromHost, byte[] b, int off, int len) throws IOException {
+            if (closed) return;
+            out.write(Long.toString(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            out.write(fromHost ? " > " : " < ");
+            out.write(Hex.encode(b, off, len));
+            out.newLine();
+        }
+
+        synchronized void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Device-shadow style configuration sync over plain publish and subscribe. Every device (a gateway,
+ * a logger) has a JSON document in two halves: the controller owns the desired state and the
+ * gateway the reported one. Each side sends only what changed in its half, as a merge patch in
+ * which {@code null} removes a key:
+ * <pre>
+ *   &lt;prefix&gt;/&lt;device&gt;/desired         {"v":7,"state":{"pollMs":30000,"tz":null}}
+ *   &lt;prefix&gt;/&lt;device&gt;/reported        {"v":3,"state":{"pollMs":30000}}
+ *   &lt;prefix&gt;/&lt;device&gt;/desired/get     empty: asks the owner for the whole half
+ *   answer on .../desired               {"v":7,"full":true,"state":{...}}
+ * </pre>
+ * Updates made within {@link Options#setCoalesceMs} of each other go out as one patch: the
+ * difference between the half as last sent and as it is now, so a value changed and changed back
+ * sends nothing. Versions count the patches of a half; a receiver applies each version once,
+ * ignores older ones and asks for the whole half when it sees a gap, e.g. after it started late.
+ * <p>
+ * The {@link Listener} hears only the keys whose value actually changed, so a gateway can send a
+ * command, such as the time-set frame, to just the loggers it concerns. {@link #stats()} compares
+ * the bytes sent with those a full document per update would have taken.
+ */
+public final class ShadowSync implements TopicRouter.Handler {
+
+    public enum Role {
+        /** Owns the desired state and follows the reported one. */
+        CONTROLLER("desired", "reported"),
+        /** A gateway: owns the reported state of itself and its loggers, and follows the desired one. */
+        GATEWAY("reported", "desired");
+
+        final String owns;
+        final String follows;
+
+        Role(String owns, String follows) {
+            this.owns    = owns;
+            this.follows = follows;
+        }
+    }
+
+    /** Hands a message to the broker; called under the sync's lock, so it must not wait long. */
+    public interface Transport {
+        boolean publish(String topic, byte[] payload);
+    }
+
+    public interface Listener {
+        /**
+         * The other side changed {@code device}'s half: {@code delta} holds only the keys whose
+         * value changed, a removed key as {@code null}. Called without the sync's lock held.
+         */
+        void onChanged(String device, Map<String, Object> delta);
+    }
+
+    public static final class Options {
+        long coalesceMs = 250;
+
+        /** How long a patch waits for more updates to the same device before it goes out. */
+        public void setCoalesceMs(long ms) { this.coalesceMs = ms; }
+    }
+
+    /** What was sent, against a whole document per update. */
+    public static final class Stats {
+        public final long updates;
+        public final long publishes;
+        public final long sentBytes;
+        public final long fullBytes;
+        public final long resyncs;
+
+        Stats(long updates, long publishes, long sentBytes, long fullBytes, long resyncs) {
+            this.updates   = updates;
+            this.publishes = publishes;
+            this.sentBytes = sentBytes;
+            this.fullBytes = fullBytes;
+            this.resyncs   = resyncs;
+        }
+
+        /** Share of the full-document bytes that were not sent. */
+        public double saved() {
+            return fullBytes == 0 ? 0 : 1 - (double) sentBytes / fullBytes;
+        }
+
+        @Override public String toString() {
+            return String.format(Locale.US, "%d updates in %d publishes, %d B sent vs %d B as full documents (%.0f%% saved), %d resyncs",
+                    updates, publishes, sentBytes, fullBytes, saved() * 100, resyncs);
+        }
+    }
+
+    private static final class Shadow {
+        final Map<String, Object> own   = new LinkedHashMap<>();
+        Map<String, Object>       sent  = new LinkedHashMap<>();
+        long                      ownVersion;
+        ReconnectController.Cancellable flush;
+
+        final Map<String, Object> other = new LinkedHashMap<>();
+        long                      otherVersion;
+        boolean                   askedForFull;
+    }
+
+    private final String                          prefix;
+    private final Role                            role;
+    private final Transport                       transport;
+    private final ReconnectController.Scheduler   scheduler;
+    private final Options                         opts;
+    private final Listener                        listener;
+    private final Map<String, Shadow>             shadows = new HashMap<>();
+
+    private long updates;
+    private long publishes;
+    private long sentBytes;
+    private long fullBytes;
+    private long resyncs;
+
+    public ShadowSync(String prefix, Role role, Transport transport, ReconnectController.Scheduler scheduler,
+                      Options opts, Listener listener) {
+        this.prefix    = prefix;
+        this.role      = role;
+        this.transport = transport;
+        this.scheduler = scheduler;
+        this.opts      = opts;
+        this.listener  = listener;
+    }
+
+    /** The filters to subscribe to: the other side's patches and requests for this side's halves. */
+    public List<String> filters() {
+        return Arrays.asList(prefix + "/+/" + role.follows, prefix + "/+/" + role.owns + "/get");
+    }
+
+    /**
+     * Merges {@code changes} into this side's half of {@code device}, {@code null} removing a key,
+     * and schedules a patch. Returns {@code false}, and sends nothing, if nothing changed.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized boolean update(String device, Map<String, ?> changes) {
+        Shadow s = shadow(device);
+        Map<String, Object> changed = merge(s.own, (Map<String, Object>) Json.normalize(changes));
+        if (changed.isEmpty()) return false;
+        updates++;
+        fullBytes += envelope(s.ownVersion + 1, false, s.own).length;
+        if (s.flush == null) s.flush = scheduler.schedule(() -> flush(device), opts.coalesceMs);
+        return true;
+    }
+
+    /** Sends the pending patch of {@code device} now instead of when the coalescing delay ends. */
+    public synchronized void flush(String device) {
+        Shadow s = shadows.get(device);
+        if (s == null) return;
+        if (s.flush != null) {
+            s.flush.cancel();
+            s.flush = null;
+        }
+        Map<String, Object> patch = diff(s.sent, s.own);
+        if (patch.isEmpty()) return;
+        if (send(device, role.owns, envelope(s.ownVersion + 1, false, patch))) {
+            s.ownVersion++;
+            s.sent = copy(s.own);
+        } else {
+            s.flush = scheduler.schedule(() -> flush(device), opts.coalesceMs); // not handed over; try again
+        }
+    }
+
+    /** Asks the owner of the other half of {@code device} for all of it, e.g. for a logger that just connected. */
+    public synchronized void requestFull(String device) {
+        Shadow s = shadow(device);
+        s.askedForFull = true;
+        resyncs++;
+        send(device, role.follows + "/get", new byte[0]);
+    }
+
+    /** A copy of this side's half of {@code device}. */
+    public synchronized Map<String, Object> owned(String device) {
+        Shadow s = shadows.get(device);
+        return s == null ? new LinkedHashMap<>() : copy(s.own);
+    }
+
+    /** A copy of the other side's half of {@code device}, as far as it has been received. */
+    public synchronized Map<String, Object> followed(String device) {
+        Shadow s = shadows.get(device);
+        return s == null ? new LinkedHashMap<>() : copy(s.other);
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(updates, publishes, sentBytes, fullBytes, resyncs);
+    }
+
+    @Override public void onMessage(String topic, ByteBuffer payload) {
+        if (!topic.startsWith(prefix + "/")) return;
+        String[] rest = topic.substring(prefix.length() + 1).split("/", -1);
+        if (rest.length < 2) return;
+        String device = rest[0];
+        String half = topic.substring(prefix.length() + 2 + device.length());
+        if (half.equals(role.owns + "/get")) {
+            sendFull(device);
+        } else if (half.equals(role.follows)) {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            Map<String, Object> changed = apply(device, new String(bytes, StandardCharsets.UTF_8));
+            if (changed != null && !changed.isEmpty()) listener.onChanged(device, changed);
+        }
+    }
+
+    private synchronized void sendFull(String device) {
+        Shadow s = shadow(device);
+        if (s.flush != null) {
+            s.flush.cancel();
+            s.flush = null;
+        }
+        if (send(device, role.owns, envelope(s.ownVersion + 1, true, s.own))) {
+            s.ownVersion++;
+            s.sent = copy(s.own);
+        }
+    }
+
+    /** Applies a patch or whole half from the other side; returns what changed, or {@code null}. */
+    @SuppressWarnings("unchecked")
+    private synchronized Map<String, Object> apply(String device, String json) {
+        Map<String, Object> message;
+        try {
+            message = Json.parseObject(json);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        Object v = message.get("v");
+        Object state = message.get("state");
+        if (!(v instanceof Long) || !(state instanceof Map)) return null;
+        long version = (Long) v;
+        Shadow s = shadow(device);
+        if (Boolean.TRUE.equals(message.get("full"))) {
+            if (version < s.otherVersion) return null;
+            Map<String, Object> changed = diff(s.other, (Map<String, Object>) state);
+            merge(s.other, changed);
+            s.otherVersion = version;
+            s.askedForFull = false;
+            return changed;
+        }
+        if (version <= s.otherVersion) return null; // seen already
+        if (version != s.otherVersion + 1) {
+            if (!s.askedForFull) requestFull(device);
+            return null;
+        }
+        s.otherVersion = version;
+        return merge(s.other, (Map<String, Object>) state);
+    }
+
+    private boolean send(String device, String half, byte[] payload) {
+        if (!transport.publish(prefix + "/" + device + "/" + half, payload)) return false;
+        publishes++;
+        sentBytes += payload.length;
+        return true;
+    }
+
+    private Shadow shadow(String device) {
+        Shadow s = shadows.get(device);
+        if (s == null) shadows.put(device, s = new Shadow());
+        return s;
+    }
+
+    private static byte[] envelope(long version, boolean full, Map<String, Object> state) {
+        StringBuilder sb = new StringBuilder(32);
+        sb.append("{\"v\":").append(version);
+        if (full) sb.append(",\"full\":true");
+        sb.append(",\"state\":");
+        Json.write(sb, state);
+        return sb.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Applies the merge patch {@code patch} to {@code doc} and returns the part of it that changed
+     * something, in the same shape. An object replaces a value that is not one.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> merge(Map<String, Object> doc, Map<String, Object> patch) {
+        Map<String, Object> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> e : patch.entrySet()) {
+            String key = e.getKey();
+            Object value = e.getValue();
+            Object old = doc.get(key);
+            if (value == null) {
+                if (doc.containsKey(key)) {
+                    doc.remove(key);
+                    changed.put(key, null);
+                }
+            } else if (value instanceof Map) {
+                boolean replaced = !(old instanceof Map);
+                Map<String, Object> target = replaced ? new LinkedHashMap<>() : (Map<String, Object>) old;
+                Map<String, Object> sub = merge(target, (Map<String, Object>) value);
+                if (replaced) doc.put(key, target);
+                if (replaced || !sub.isEmpty()) changed.put(key, replaced ? copy(target) : sub);
+            } else if (!value.equals(old)) {
+                doc.put(key, value);
+                changed.put(key, Json.normalize(value));
+            }
+        }
+        return changed;
+    }
+
+    /** The merge patch that turns {@code from} into {@code to}. */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> diff(Map<String, Object> from, Map<String, Object> to) {
+        Map<String, Object> patch = new LinkedHashMap<>();
+        for (String key : from.keySet()) {
+            if (!to.containsKey(key) || to.get(key) == null) patch.put(key, null);
+        }
+        for (Map.Entry<String, Object> e : to.entrySet()) {
+            Object now = e.getValue();
+            Object old = from.get(e.getKey());
+            if (now == null) continue;
+            if (now instanceof Map && old instanceof Map) {
+                Map<String, Object> sub = diff((Map<String, Object>) old, (Map<String, Object>) now);
+                if (!sub.isEmpty()) patch.put(e.getKey(), sub);
+            } else if (!now.equals(old)) {
+                patch.put(e.getKey(), now instanceof Map ? copy((Map<String, Object>) now) : Json.normalize(now));
+            }
+        }
+        return patch;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> copy(Map<String, Object> doc) {
+        return (Map<String, Object>) Json.normalize(doc);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Process-wide cache of mutual-TLS {@link SSLContext}s, keyed by the SHA-256 fingerprint of the
+ * CA, client certificate and private key PEMs. Parsing and key import happen once per credential
+ * set; every later connect reuses the same context, and with it the client session cache, so
+ * reconnects can resume the TLS session instead of running a full handshake.
+ */
+public final class SslContextCache {
+    static final int SESSION_CACHE_SIZE = 8;
+    static final int SESSION_TIMEOUT_S  = 24 * 60 * 60;
+
+    private static final SslContextCache SHARED = new SslContextCache();
+
+    private final ConcurrentMap<String, CompletableFuture<SSLContext>> contexts = new ConcurrentHashMap<>();
+
+    public static SslContextCache shared() {
+        return SHARED;
+    }
+
+    /** Returns the cached context for these PEMs, building it on the calling thread if needed. */
+    public SSLContext get(byte[] caPem, byte[] certPem, byte[] keyPem) throws GeneralSecurityException {
+        try {
+            return getAsync(caPem, certPem, keyPem, Runnable::run).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralSecurityException("interrupted while building SSLContext", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralSecurityException) throw (GeneralSecurityException) cause;
+            throw new GeneralSecurityException(cause);
+        }
+    }
+
+    /**
+     * Returns a future for the context; the first caller for a fingerprint builds it on
+     * {@code executor}, concurrent and later callers share the same future. Failed builds are
+     * not cached.
+     */
+    public CompletableFuture<SSLContext> getAsync(byte[] caPem, byte[] certPem, byte[] keyPem, Executor executor) {
+        String key;
+        try {
+            key = fingerprint(caPem, certPem, keyPem);
+        } catch (GeneralSecurityException e) {
+            CompletableFuture<SSLContext> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        CompletableFuture<SSLContext> created = new CompletableFuture<>();
+        CompletableFuture<SSLContext> existing = contexts.putIfAbsent(key, created);
+        if (existing != null) return existing;
+        executor.execute(() -> {
+            try {
+                created.complete(build(caPem, certPem, keyPem));
+            } catch (Throwable t) {
+                contexts.remove(key, created);
+                created.completeExceptionally(t);
+            }
+        });
+        return created;
+    }
+
+    public int size() {
+        return contexts.size();
+    }
+
+    public void clear() {
+        contexts.clear();
+    }
+
+    static String fingerprint(byte[]... parts) throws GeneralSecurityException {
+        MessageDigest sha = MessageDigest.getInstance("SHA-256");
+        for (byte[] part : parts) {
+            sha.update(part);
+            sha.update((byte) 0);
+        }
+        return Hex.encode(sha.digest());
+    }
+
+    static SSLContext build(byte[] caPem, byte[] certPem, byte[] keyPem) throws GeneralSecurityException {
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        X509Certificate ca = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(caPem));
+        X509Certificate cert = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(certPem));
+        PrivateKey privateKey = KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(Pem.decode(keyPem)));
+
+        try {
+            KeyStore caKs = KeyStore.getInstance(KeyStore.getDefaultType());
+            caKs.load(null);
+            caKs.setCertificateEntry("ca-cert", ca);
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(caKs);
+
+            KeyStore clKs = KeyStore.getInstance(KeyStore.getDefaultType());
+            clKs.load(null);
+            clKs.setCertificateEntry("client-cert", cert);
+            clKs.setKeyEntry("priv-key", privateKey, "".toCharArray(), new Certificate[]{cert});
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(clKs, "".toCharArray());
+
+            SSLContext ssl = SSLContext.getInstance("TLSv1.2");
+            ssl.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+            SSLSessionContext sessions = ssl.getClientSessionContext();
+            if (sessions != null) {
+                sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+                sessions.setSessionTimeout(SESSION_TIMEOUT_S);
+            }
+            return ssl;
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+}
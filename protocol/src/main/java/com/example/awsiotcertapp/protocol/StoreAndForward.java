@@ -0,0 +1,164 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-ahead publishing over a {@link SegmentLog}: every message is appended to disk first and a
+ * drainer thread forwards the backlog in batches while the client is online. A batch is committed
+ * to the log's checkpoint only after every message in it was acknowledged; a failed or timed-out
+ * batch is rewound and sent again once the link is back. What was acknowledged at the front of
+ * such a batch is still committed.
+ * <p>
+ * With a {@link Sequencer} every message is stamped before it is written, so a resend carries the
+ * same sequence number as the first attempt, and acknowledgements are recorded by sequence: a
+ * message acknowledged after one that failed is skipped when the batch is sent again.
+ */
+public final class StoreAndForward implements Closeable {
+
+    private final SegmentLog                  log;
+    private final BatchingPublisher.Transport transport;
+    private final int                         batchSize;
+    private final long                        ackTimeoutMs;
+    private final long                        retryDelayMs;
+    private final Thread                      drainer;
+    private final AtomicLong                  delivered = new AtomicLong();
+
+    private volatile Sequencer sequencer;
+
+    private boolean online;
+    private boolean closed;
+
+    public StoreAndForward(SegmentLog log, BatchingPublisher.Transport transport,
+                           int batchSize, long ackTimeoutMs, long retryDelayMs) {
+        this.log          = log;
+        this.transport    = transport;
+        this.batchSize    = batchSize;
+        this.ackTimeoutMs = ackTimeoutMs;
+        this.retryDelayMs = retryDelayMs;
+        this.drainer      = new Thread(this::drainLoop, "store-and-forward");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Stamp every message submitted from now on with its topic's next sequence number, and record
+     * acknowledgements in {@code sequencer}; {@code null} stores messages as they are.
+     */
+    public void setSequencer(Sequencer sequencer) {
+        this.sequencer = sequencer;
+    }
+
+    /** Appends the message to the log; it is sent as soon as the link allows. */
+    public boolean submit(String topic, byte[] payload, int offset, int len) throws IOException {
+        Sequencer seq = sequencer;
+        if (seq != null) {
+            payload = seq.stamp(topic, payload, offset, len);
+            offset = 0;
+            len = payload.length;
+        }
+        boolean stored = log.append(topic, payload, offset, len);
+        if (stored) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        return stored;
+    }
+
+    public synchronized void setOnline(boolean online) {
+        this.online = online;
+        if (!online) log.rewind();
+        notifyAll();
+    }
+
+    public long pending() {
+        return log.pendingRecords();
+    }
+
+    public long delivered() {
+        return delivered.get();
+    }
+
+    public long dropped() {
+        return log.droppedRecords();
+    }
+
+    @Override public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        drainer.interrupt();
+        try {
+            drainer.join(ackTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private void drainLoop() {
+        try {
+            while (awaitWork()) {
+                List<SegmentLog.Record> batch = log.readBatch(batchSize);
+                if (batch.isEmpty()) {
+                    synchronized (this) {
+                        wait(retryDelayMs);
+                    }
+                    continue;
+                }
+                int acked = sendAll(batch);
+                if (acked > 0) {
+                    log.commit(batch.get(acked - 1));
+                    delivered.addAndGet(acked);
+                }
+                if (acked < batch.size()) {
+                    log.rewind();
+                    Thread.sleep(retryDelayMs);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The log is unusable; nothing more can be forwarded from it.
+        }
+    }
+
+    private synchronized boolean awaitWork() throws InterruptedException {
+        while (!closed && (!online || log.pendingRecords() == 0)) wait();
+        return !closed;
+    }
+
+    /** Sends what was not acknowledged yet and returns how many at the front of the batch now are. */
+    private int sendAll(List<SegmentLog.Record> batch) throws InterruptedException {
+        Sequencer seq = sequencer;
+        AtomicIntegerArray acked = new AtomicIntegerArray(batch.size());
+        CountDownLatch acks = new CountDownLatch(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            SegmentLog.Record r = batch.get(i);
+            if (seq != null && seq.isAcked(r.topic, r.payload)) {
+                acked.set(i, 1);
+                acks.countDown();
+                continue;
+            }
+            int index = i;
+            transport.publish(r.topic, r.payload, error -> {
+                if (error == null) {
+                    acked.set(index, 1);
+                    if (seq != null) seq.acked(r.topic, r.payload);
+                }
+                acks.countDown();
+            });
+        }
+        acks.await(ackTimeoutMs, TimeUnit.MILLISECONDS);
+        int prefix = 0;
+        while (prefix < batch.size() && acked.get(prefix) == 1) prefix++;
+        return prefix;
+    }
+}
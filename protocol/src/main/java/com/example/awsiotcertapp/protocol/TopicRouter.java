@@ -0,0 +1,244 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Routes inbound MQTT messages to the handlers whose topic filters match, with the {@code +} and
+ * {@code #} wildcards. Filters are stored in a trie keyed by topic level, so routing a message walks
+ * at most a few branches per level of its topic instead of testing every filter.
+ * <p>
+ * {@link #route} only matches; handlers run on the worker executor given to the constructor, never
+ * on the thread that called it. Each handler gets its own read-only view of the payload, untouched
+ * by the others. With a single-threaded worker every handler sees its messages in arrival order.
+ * Routing takes no locks; adding and removing filters is serialized.
+ */
+public final class TopicRouter {
+
+    public interface Handler {
+        void onMessage(String topic, ByteBuffer payload);
+    }
+
+    /** Turns a payload into a message for a {@link TypedHandler}; runs on the worker. */
+    public interface Decoder<T> {
+        T decode(ByteBuffer payload);
+    }
+
+    public interface TypedHandler<T> {
+        void onMessage(String topic, T message);
+    }
+
+    public interface Listener {
+        /** A message matched no filter; called on the routing thread. */
+        void onUnrouted(String topic, ByteBuffer payload);
+
+        /** A handler or decoder threw; called on the worker. */
+        void onHandlerFailed(String filter, String topic, RuntimeException error);
+    }
+
+    /** Returned by {@link #add}; removes that one handler again. */
+    public final class Registration {
+        final String  filter;
+        final Handler handler;
+
+        Registration(String filter, Handler handler) {
+            this.filter  = filter;
+            this.handler = handler;
+        }
+
+        public String filter() {
+            return filter;
+        }
+
+        public void remove() {
+            TopicRouter.this.remove(this);
+        }
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new ConcurrentHashMap<>();
+        volatile Node           plus;
+        volatile Node           hash;
+        volatile Registration[] handlers = NONE;
+
+        boolean isEmpty() {
+            return handlers.length == 0 && children.isEmpty() && plus == null && hash == null;
+        }
+    }
+
+    private static final Registration[] NONE = new Registration[0];
+
+    private final Node     root = new Node();
+    private final Executor worker;
+    private final Listener listener;
+    private final Map<String, Integer> filterCounts = new ConcurrentHashMap<>();
+
+    public TopicRouter(Executor worker, Listener listener) {
+        this.worker   = worker;
+        this.listener = listener;
+    }
+
+    /** Calls {@code handler} for every message whose topic matches {@code filter}. */
+    public synchronized Registration add(String filter, Handler handler) {
+        validate(filter);
+        Node node = root;
+        for (String level : levels(filter)) {
+            Node next;
+            if (level.equals("+")) {
+                if ((next = node.plus) == null) node.plus = next = new Node();
+            } else if (level.equals("#")) {
+                if ((next = node.hash) == null) node.hash = next = new Node();
+            } else {
+                next = node.children.computeIfAbsent(level, k -> new Node());
+            }
+            node = next;
+        }
+        Registration r = new Registration(filter, handler);
+        Registration[] old = node.handlers;
+        Registration[] grown = Arrays.copyOf(old, old.length + 1);
+        grown[old.length] = r;
+        node.handlers = grown;
+        filterCounts.merge(filter, 1, Integer::sum);
+        return r;
+    }
+
+    /** Like {@link #add(String, Handler)}, with the payload decoded on the worker first. */
+    public <T> Registration add(String filter, Decoder<? extends T> decoder, TypedHandler<T> handler) {
+        return add(filter, (topic, payload) -> handler.onMessage(topic, decoder.decode(payload)));
+    }
+
+    /** Every distinct filter with at least one handler, e.g. to subscribe to all of them at once. */
+    public List<String> filters() {
+        return new ArrayList<>(filterCounts.keySet());
+    }
+
+    /**
+     * Queues {@code payload} for every handler whose filter matches {@code topic}.
+     *
+     * @return the number of handlers it was queued for
+     */
+    public int route(String topic, ByteBuffer payload) {
+        String[] levels = levels(topic);
+        List<Registration> matched = new ArrayList<>(4);
+        // Wildcards at the first level do not match the broker's own $-topics.
+        boolean system = topic.startsWith("$");
+        match(root, levels, 0, system, matched);
+        if (matched.isEmpty()) {
+            listener.onUnrouted(topic, payload.asReadOnlyBuffer());
+            return 0;
+        }
+        ByteBuffer shared = payload.asReadOnlyBuffer();
+        for (Registration r : matched) {
+            ByteBuffer view = shared.duplicate();
+            worker.execute(() -> deliver(r, topic, view));
+        }
+        return matched.size();
+    }
+
+    private static void match(Node node, String[] levels, int depth, boolean system, List<Registration> out) {
+        boolean wildcardsAllowed = !(system && depth == 0);
+        Node hash = node.hash;
+        if (hash != null && wildcardsAllowed) Collections.addAll(out, hash.handlers);
+        if (depth == levels.length) {
+            Collections.addAll(out, node.handlers);
+            return;
+        }
+        Node exact = node.children.get(levels[depth]);
+        if (exact != null) match(exact, levels, depth + 1, system, out);
+        Node plus = node.plus;
+        if (plus != null && wildcardsAllowed) match(plus, levels, depth + 1, system, out);
+    }
+
+    private void deliver(Registration r, String topic, ByteBuffer payload) {
+        try {
+            r.handler.onMessage(topic, payload);
+        } catch (RuntimeException e) {
+            listener.onHandlerFailed(r.filter, topic, e);
+        }
+    }
+
+    private synchronized void remove(Registration r) {
+        String[] levels = levels(r.filter);
+        Node[] path = new Node[levels.length + 1];
+        path[0] = root;
+        for (int i = 0; i < levels.length; i++) {
+            Node next = child(path[i], levels[i]);
+            if (next == null) return;
+            path[i + 1] = next;
+        }
+        Node node = path[levels.length];
+        Registration[] old = node.handlers;
+        int at = Arrays.asList(old).indexOf(r);
+        if (at < 0) return;
+        Registration[] shrunk = new Registration[old.length - 1];
+        System.arraycopy(old, 0, shrunk, 0, at);
+        System.arraycopy(old, at + 1, shrunk, at, old.length - at - 1);
+        node.handlers = shrunk.length == 0 ? NONE : shrunk;
+        filterCounts.computeIfPresent(r.filter, (f, n) -> n == 1 ? null : n - 1);
+
+        // Prune the branches that no longer lead anywhere.
+        for (int i = levels.length; i > 0 && path[i].isEmpty(); i--) {
+            Node parent = path[i - 1];
+            String level = levels[i - 1];
+            if (level.equals("+")) parent.plus = null;
+            else if (level.equals("#")) parent.hash = null;
+            else parent.children.remove(level);
+        }
+    }
+
+    private static Node child(Node node, String level) {
+        if (level.equals("+")) return node.plus;
+        if (level.equals("#")) return node.hash;
+        return node.children.get(level);
+    }
+
+    /** Whether {@code topic} matches the topic {@code filter}, by the same rules {@link #route} uses. */
+    public static boolean matches(String filter, String topic) {
+        String[] f = levels(filter);
+        String[] t = levels(topic);
+        if (topic.startsWith("$") && (f[0].equals("+") || f[0].equals("#"))) return false;
+        for (int i = 0; i < f.length; i++) {
+            if (f[i].equals("#")) return true;
+            if (i == t.length) return false;
+            if (!f[i].equals("+") && !f[i].equals(t[i])) return false;
+        }
+        return f.length == t.length;
+    }
+
+    /** Splits on {@code /}, keeping empty levels, without a regex. */
+    static String[] levels(String topic) {
+        int n = 1;
+        for (int i = 0; i < topic.length(); i++) {
+            if (topic.charAt(i) == '/') n++;
+        }
+        String[] levels = new String[n];
+        int start = 0;
+        for (int i = 0; i < n - 1; i++) {
+            int slash = topic.indexOf('/', start);
+            levels[i] = topic.substring(start, slash);
+            start = slash + 1;
+        }
+        levels[n - 1] = topic.substring(start);
+        return levels;
+    }
+
+    static void validate(String filter) {
+        if (filter.isEmpty()) throw new IllegalArgumentException("empty topic filter");
+        String[] levels = levels(filter);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.equals("#") && i != levels.length - 1) {
+                throw new IllegalArgumentException("# must be the last level: " + filter);
+            }
+            if (level.length() > 1 && (level.indexOf('+') >= 0 || level.indexOf('#') >= 0)) {
+                throw new IllegalArgumentException("wildcards must fill a whole level: " + filter);
+            }
+        }
+    }
+}
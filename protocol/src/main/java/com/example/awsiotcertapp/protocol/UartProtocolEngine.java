@@ -0,0 +1,709 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host side of the logger's UART protocol: time sync, data request ({@code 40014F}),
+ * checksum request ({@code 40024F}) and resend ({@code 40044F}).
+ * <p>
+ * The engine runs over any stream pair. Its state belongs to one event loop: the reader thread
+ * posts each decoded frame to it and waits until the loop is done with it (so frames stay views
+ * into the decoder's buffer), step timeouts and {@link #requestTransfer()} are posted as events
+ * too, and commands written while handling the events at hand go out together in one write and
+ * flush once the queue is empty. The loop runs in turns on {@link Options#setLoopExecutor}, one
+ * at a time, holding a thread only while there are events. {@link #close()} returns only after the
+ * loop has stopped, so once it returns nothing is written to the stream any more and no listener
+ * method is called; the stream can then be closed safely.
+ * <p>
+ * With {@link Options#setPipelineChecksum(boolean)} the data and checksum requests go out
+ * back to back, saving one round trip per transfer.
+ * <p>
+ * The time sync goes out as soon as the engine starts and is repeated with exponential backoff
+ * until the device ACKs it; the ACK completes {@link #timeSynced()}, and the first data request
+ * is chained onto that future. {@link #syncTime()} sends it again between transfers, for a device
+ * whose clock setting changed.
+ * <p>
+ * With {@link Options#setChunkSize(int)} the payload is fetched as CRC-checked chunks instead (see
+ * {@link ChunkedTransfer}): a bad chunk is fetched again on its own rather than resending the whole
+ * payload, and several chunk requests are kept in flight at once.
+ */
+public final class UartProtocolEngine {
+
+    public enum State { IDLE, AWAIT_TIME_ACK, AWAIT_DATA, AWAIT_CHECKSUM, COMPLETE, FAILED, CLOSED }
+
+    /** Called on the engine's loop thread. */
+    public interface Listener {
+        void onStateChanged(State state);
+
+        /** Called once the payload passed its checksum. */
+        void onTransferComplete(byte[] payload, long elapsedNanos);
+
+        void onTransferFailed(State state, String reason);
+
+        /**
+         * The link itself is gone: a read or write failed, or the device closed it. Follows
+         * {@link #onTransferFailed}; the engine cannot transfer again and should be closed.
+         */
+        default void onLinkLost(String reason) {
+        }
+    }
+
+    public static final class Options {
+        long    timeSyncTimeoutMs = 250;
+        long    timeSyncMaxTimeoutMs = 4000;
+        long    dataTimeoutMs     = 5000;
+        long    checksumTimeoutMs = 2000;
+        int     maxRetries        = 5;
+        boolean pipelineChecksum;
+        int     chunkSize;
+        int     payloadLength;
+        int     chunkWindow       = 4;
+        int     readBufferSize    = 2048;
+        Metrics metrics           = Metrics.shared();
+        Executor                 readExecutor;
+        Executor                 loopExecutor;
+        ScheduledExecutorService timer;
+
+        /** Wait for the first time-sync ACK; doubled on every retry up to {@link #setTimeSyncMaxTimeoutMs}. */
+        public void setTimeSyncTimeoutMs(long ms) { this.timeSyncTimeoutMs = ms; }
+        public void setTimeSyncMaxTimeoutMs(long ms) { this.timeSyncMaxTimeoutMs = ms; }
+        public void setDataTimeoutMs(long ms)     { this.dataTimeoutMs = ms; }
+        public void setChecksumTimeoutMs(long ms) { this.checksumTimeoutMs = ms; }
+        public void setMaxRetries(int retries)    { this.maxRetries = retries; }
+        public void setReadBufferSize(int bytes)  { this.readBufferSize = bytes; }
+
+        /**
+         * Fetch the payload in chunks of {@code bytes} (1 to 255), each with its own CRC; 0 (the
+         * default) fetches it whole. The read buffer must hold at least {@code bytes + 10}.
+         */
+        public void setChunkSize(int bytes) {
+            if (bytes < 0 || bytes > 255) throw new IllegalArgumentException("chunk size must be 0 to 255");
+            this.chunkSize = bytes;
+        }
+
+        /**
+         * Length of the logger's data frame, markers included, so that it is read by its length: the
+         * payload may contain {@code 0x4F}. 0 (the default) scans for the end instead: a {@code 0x4F}
+         * ends the frame where the logger stopped sending or where its checksum reply follows, so an
+         * earlier one only cuts the frame if a read happens to end right after it. The read buffer
+         * must hold the whole frame.
+         */
+        public void setPayloadLength(int bytes) {
+            if (bytes != 0 && bytes < 2) throw new IllegalArgumentException("payload length must be 0 or at least 2");
+            this.payloadLength = bytes;
+        }
+
+        /** How many chunk requests may be unanswered at once; 4 by default. */
+        public void setChunkWindow(int chunks) {
+            if (chunks < 1) throw new IllegalArgumentException("window must be at least 1");
+            this.chunkWindow = chunks;
+        }
+
+        /** Send the checksum request right behind the data request instead of after the payload. */
+        public void setPipelineChecksum(boolean pipeline) { this.pipelineChecksum = pipeline; }
+
+        /**
+         * Where time-sync ACK, frame receive and whole-transfer latencies, checksum failures, resends
+         * and timeouts are recorded; {@link Metrics#shared()} by default.
+         */
+        public void setMetrics(Metrics metrics) { this.metrics = metrics; }
+
+        /**
+         * Runs the blocking read loop on {@code executor} instead of a thread of its own; the
+         * executor needs a free thread for as long as the engine is open.
+         */
+        public void setReadExecutor(Executor executor) { this.readExecutor = executor; }
+
+        /**
+         * Runs the event loop's turns on {@code executor} instead of a thread of its own. A turn
+         * lasts while events are waiting and never blocks, so many engines can share a few threads.
+         * {@link #close()} waits for the engine's last turn, so it must not be called from the turn of
+         * another engine sharing a single thread.
+         */
+        public void setLoopExecutor(Executor executor) { this.loopExecutor = executor; }
+
+        /** Shares {@code timer} for the step timeouts; it is not shut down by {@link #close()}. */
+        public void setTimer(ScheduledExecutorService timer) { this.timer = timer; }
+
+        Options copy() {
+            Options o = new Options();
+            o.timeSyncTimeoutMs = timeSyncTimeoutMs;
+            o.timeSyncMaxTimeoutMs = timeSyncMaxTimeoutMs;
+            o.dataTimeoutMs     = dataTimeoutMs;
+            o.checksumTimeoutMs = checksumTimeoutMs;
+            o.maxRetries        = maxRetries;
+            o.pipelineChecksum  = pipelineChecksum;
+            o.chunkSize         = chunkSize;
+            o.payloadLength     = payloadLength;
+            o.chunkWindow       = chunkWindow;
+            o.readBufferSize    = readBufferSize;
+            o.metrics           = metrics;
+            o.readExecutor      = readExecutor;
+            o.loopExecutor      = loopExecutor;
+            o.timer             = timer;
+            return o;
+        }
+    }
+
+    static final byte[] REQUEST_DATA     = {0x40, 0x01, 0x4F};
+    static final byte[] REQUEST_CHECKSUM = {0x40, 0x02, 0x4F};
+    static final byte[] REQUEST_RESEND   = {0x40, 0x04, 0x4F};
+    /** {@code 40 <sum> 4F}; the sum itself may be {@code 0x4F}, so the reply is read by its length. */
+    static final int    CHECKSUM_REPLY_LENGTH = 3;
+
+    private final InputStream  in;
+    private final OutputStream out;
+    private final Options      opts;
+    private final Listener     listener;
+    private final FrameDecoder decoder;
+    private final Metrics      metrics;
+    private final Metrics.Histogram timeSyncAck;
+    private final Metrics.Histogram frameReceive;
+    private final Metrics.Histogram transferTime;
+    private final Metrics.Counter   checksumFailures;
+    private final Metrics.Counter   resends;
+    private final Metrics.Counter   timeouts;
+    private final ScheduledExecutorService timer;
+    private final CompletableFuture<Long>  timeSynced = new CompletableFuture<>();
+    private final boolean                  ownTimer;
+    private final BlockingQueue<Runnable>  events = new LinkedBlockingQueue<>();
+    /** Released by the loop when it is done with the frame the reader handed over. */
+    private final Semaphore                frameDone = new Semaphore(0);
+    /** Counted down once the loop has stopped for good. */
+    private final CountDownLatch           stopped = new CountDownLatch(1);
+    private Executor                       loop;
+    /** The loop's own thread when no executor was supplied; {@code null} otherwise. */
+    private ExecutorService                ownLoop;
+
+    // Guarded by events: whether the loop takes events, and whether a turn is queued or running.
+    private boolean started;
+    private boolean closed;
+    private boolean accepting;
+    private boolean inTurn;
+
+    private volatile Thread loopThread;
+
+    private volatile Thread readThread;
+    private volatile State  state = State.IDLE;
+    private volatile long   requestsSent;
+
+    // Owned by the loop thread.
+    private ScheduledFuture<?> timeout;
+    private long               armMs = -1;
+    private int                retries;
+    private long               transferStart;
+    /** The time sync in flight was asked for by {@link #syncTime()}; no data request follows its ACK. */
+    private boolean            resync;
+    private byte[]             payload;
+    private int                payloadChecksum;
+    private long               stepStart;
+    private ChunkedTransfer    chunks;
+    private int                step;
+    private byte[]             pendingWrites = new byte[64];
+    private int                pendingLength;
+
+    public UartProtocolEngine(InputStream in, OutputStream out, Options opts, Listener listener) {
+        this.in       = in;
+        this.out      = out;
+        this.opts     = opts;
+        this.listener = listener;
+        this.decoder  = new FrameDecoder(opts.readBufferSize, this::handOver);
+        if (opts.chunkSize > 0) {
+            if (opts.chunkSize + ChunkedTransfer.OVERHEAD > decoder.capacity()) {
+                throw new IllegalArgumentException("read buffer too small for " + opts.chunkSize + "-byte chunks");
+            }
+            decoder.setExpectedDataLength(opts.chunkSize + ChunkedTransfer.OVERHEAD);
+        } else if (opts.payloadLength > decoder.capacity()) {
+            throw new IllegalArgumentException("read buffer too small for " + opts.payloadLength + "-byte payloads");
+        } else {
+            decoder.setCheckScannedEnds(true); // payloads of unknown length may contain 0x4F
+        }
+        this.ownTimer = opts.timer == null;
+        this.timer    = ownTimer ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "uart-timer");
+            t.setDaemon(true);
+            return t;
+        }) : opts.timer;
+        this.metrics          = opts.metrics;
+        this.timeSyncAck      = metrics.histogram("bt.time_sync_ack");
+        this.frameReceive     = metrics.histogram("bt.frame_receive");
+        this.transferTime     = metrics.histogram("bt.transfer");
+        this.checksumFailures = metrics.counter("bt.checksum_failures");
+        this.resends          = metrics.counter("bt.resends");
+        this.timeouts         = metrics.counter("bt.timeouts");
+    }
+
+    /** Starts reading and kicks off the time sync; a data transfer follows the ACK. */
+    public void start() {
+        synchronized (events) {
+            if (started) throw new IllegalStateException("already started");
+            started = true;
+            if (closed) return;
+            accepting = true;
+            if (opts.loopExecutor != null) {
+                loop = opts.loopExecutor;
+            } else {
+                loop = ownLoop = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "uart-loop");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+        post(() -> {
+            transferStart = System.nanoTime();
+            retries = 0;
+            timeSynced.thenRun(this::onTimeSynced);
+            sendTimeSync();
+        });
+        if (opts.readExecutor == null) {
+            new Thread(this::readLoop, "uart-reader").start();
+            return;
+        }
+        try {
+            opts.readExecutor.execute(this::readLoop);
+        } catch (RejectedExecutionException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Completes with the nanoseconds from {@link #start()} to the time-sync ACK, or exceptionally
+     * once the sync has given up or the engine was closed first.
+     */
+    public CompletableFuture<Long> timeSynced() {
+        return timeSynced;
+    }
+
+    /** Starts another data transfer on an already time-synced link. */
+    public void requestTransfer() {
+        State at = state;
+        if (at != State.COMPLETE && at != State.FAILED) {
+            throw new IllegalStateException("transfer already running in state " + at);
+        }
+        post(() -> {
+            if (state != State.COMPLETE && state != State.FAILED) return;
+            transferStart = System.nanoTime();
+            retries = 0;
+            resync = false;
+            sendDataRequest();
+        });
+    }
+
+    /** Sends the time sync again on an idle link; the engine goes back to COMPLETE on the ACK. */
+    public void syncTime() {
+        State at = state;
+        if (at != State.COMPLETE && at != State.FAILED) {
+            throw new IllegalStateException("transfer already running in state " + at);
+        }
+        post(() -> {
+            if (state != State.COMPLETE && state != State.FAILED) return;
+            transferStart = System.nanoTime();
+            retries = 0;
+            resync = true;
+            sendTimeSync();
+        });
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /** Number of commands written to the device so far, retries included. */
+    public long requestsSent() {
+        return requestsSent;
+    }
+
+    /**
+     * Stops the engine and waits for its loop to finish what it was doing; pending commands are
+     * dropped. Must not be called while holding a lock the listener takes.
+     */
+    public void close() {
+        boolean running;
+        synchronized (events) {
+            if (closed) return;
+            closed = true;
+            running = started;
+        }
+        if (!running) {
+            setState(State.CLOSED);
+        } else if (loopThread == Thread.currentThread()) {
+            shutdown(); // the turn stops once this event returns
+        } else {
+            post(this::shutdown);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    stopped.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+        timeSynced.completeExceptionally(new IOException("closed before the time sync was acknowledged"));
+        if (ownTimer) timer.shutdownNow();
+        Thread reader = readThread;
+        if (reader != null) reader.interrupt();
+    }
+
+    /** Queues {@code event} for the loop, starting a turn if none is on; {@code false} once the loop has stopped. */
+    private boolean post(Runnable event) {
+        synchronized (events) {
+            if (!accepting) return false;
+            events.add(event);
+            if (inTurn) return true;
+            inTurn = true;
+        }
+        try {
+            loop.execute(this::runTurn);
+        } catch (RejectedExecutionException e) {
+            // Nothing will run the loop any more: stop here, as close() would.
+            shutdown();
+            stop();
+        }
+        return true;
+    }
+
+    /**
+     * Runs events until none are waiting, then flushes everything they wrote and starts the
+     * timeout of the step they entered. Stops the loop for good once the engine is closed.
+     */
+    private void runTurn() {
+        loopThread = Thread.currentThread();
+        try {
+            while (true) {
+                for (Runnable event; (event = events.poll()) != null; ) {
+                    try {
+                        event.run();
+                    } catch (RuntimeException e) {
+                        if (state != State.CLOSED && state != State.FAILED) fail("event failed: " + e);
+                    }
+                }
+                if (state == State.CLOSED) break;
+                flushWrites();
+                if (state == State.CLOSED) break; // closed by the listener of a failed write
+                armTimeout();
+                synchronized (events) {
+                    if (events.isEmpty()) {
+                        inTurn = false;
+                        return;
+                    }
+                }
+            }
+        } finally {
+            loopThread = null;
+        }
+        stop();
+    }
+
+    private void stop() {
+        synchronized (events) {
+            accepting = false;
+        }
+        // Whatever was posted before the close finds the engine closed and does nothing, but a
+        // reader may be waiting for its frame to be released.
+        for (Runnable event; (event = events.poll()) != null; ) event.run();
+        if (ownLoop != null) ownLoop.shutdown();
+        stopped.countDown();
+    }
+
+    private void shutdown() {
+        cancelTimeout();
+        pendingLength = 0;
+        setState(State.CLOSED);
+    }
+
+    private void readLoop() {
+        readThread = Thread.currentThread();
+        try {
+            synchronized (events) {
+                if (closed) return;
+            }
+            while (!Thread.currentThread().isInterrupted()) {
+                if (decoder.readFrom(in) < 0) {
+                    post(() -> linkLost("link closed by the device"));
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            String reason = "read failed: " + e.getMessage();
+            post(() -> linkLost(reason));
+        } finally {
+            readThread = null;
+            // A pooled thread goes back to its executor without the interrupt from close().
+            if (opts.readExecutor != null) Thread.interrupted();
+        }
+    }
+
+    /** On the reader thread: lets the loop handle {@code frame} and waits until it has. */
+    private void handOver(Frame frame) {
+        boolean posted = post(() -> {
+            try {
+                onFrame(frame);
+            } finally {
+                frameDone.release();
+            }
+        });
+        if (posted) frameDone.acquireUninterruptibly();
+    }
+
+    private void onFrame(Frame frame) {
+        switch (state) {
+            case AWAIT_TIME_ACK:
+                if (frame.isTimeFrame() && frame.length() >= 3 && frame.get(1) == 0x02) {
+                    timeSyncAck.recordSince(stepStart);
+                    cancelTimeout();
+                    if (resync) {
+                        resync = false;
+                        setState(State.COMPLETE);
+                    } else {
+                        timeSynced.complete(System.nanoTime() - transferStart);
+                    }
+                }
+                break;
+            case AWAIT_DATA:
+                if (chunks != null) {
+                    if (frame.isDataFrame()) onChunk(frame);
+                } else if (frame.isDataFrame()) {
+                    frameReceive.recordSince(stepStart);
+                    // The sum was built up as the bytes arrived; this is the payload's only copy.
+                    payload = frame.toByteArray();
+                    payloadChecksum = frame.checksum();
+                    if (!opts.pipelineChecksum) write(REQUEST_CHECKSUM);
+                    enter(State.AWAIT_CHECKSUM, opts.checksumTimeoutMs);
+                }
+                break;
+            case AWAIT_CHECKSUM:
+                if (frame.isDataFrame() && frame.length() == CHECKSUM_REPLY_LENGTH) verify(frame.get(1) & 0xFF);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onChunk(Frame frame) {
+        int before = chunks.receivedChunks();
+        boolean done;
+        try {
+            done = chunks.accept(frame);
+        } catch (IllegalArgumentException tooManyChunks) {
+            chunks = null;
+            fail(tooManyChunks.getMessage());
+            return;
+        }
+        if (done) {
+            byte[] assembled = chunks.payload();
+            chunks = null;
+            complete(assembled);
+            return;
+        }
+        if (chunks.receivedChunks() > before) {
+            frameReceive.recordSince(stepStart);
+            stepStart = metrics.startTimer();
+            retries = 0;
+        }
+        requestChunks();
+    }
+
+    /** Fills the window and restarts the step timeout; the timeout now means no chunk for that long. */
+    private void requestChunks() {
+        for (byte[] cmd; (cmd = chunks.nextCommand()) != null; ) write(cmd);
+        enter(State.AWAIT_DATA, opts.dataTimeoutMs);
+    }
+
+    private void complete(byte[] result) {
+        cancelTimeout();
+        setState(State.COMPLETE);
+        long elapsed = System.nanoTime() - transferStart;
+        transferTime.record(elapsed);
+        listener.onTransferComplete(result, elapsed);
+    }
+
+    private void verify(int receivedChecksum) {
+        if (payloadChecksum == receivedChecksum) {
+            complete(payload);
+            return;
+        }
+        checksumFailures.inc();
+        if (++retries > opts.maxRetries) {
+            fail("checksum mismatch after " + opts.maxRetries + " resends");
+        } else {
+            payload = null;
+            write(REQUEST_RESEND);
+            resends.inc();
+            if (opts.pipelineChecksum) write(REQUEST_CHECKSUM);
+            enter(State.AWAIT_DATA, opts.dataTimeoutMs);
+            stepStart = metrics.startTimer();
+        }
+    }
+
+    private void onTimeSynced() {
+        if (state != State.AWAIT_TIME_ACK) return;
+        retries = 0;
+        sendDataRequest();
+    }
+
+    private void sendTimeSync() {
+        write(timeSyncCommand(Calendar.getInstance()));
+        long backoff = Math.min(opts.timeSyncTimeoutMs << Math.min(retries, 16), opts.timeSyncMaxTimeoutMs);
+        enter(State.AWAIT_TIME_ACK, backoff);
+        stepStart = metrics.startTimer();
+    }
+
+    private void sendDataRequest() {
+        if (opts.chunkSize > 0) {
+            chunks = new ChunkedTransfer(opts.chunkSize, opts.chunkWindow, resends, checksumFailures);
+            stepStart = metrics.startTimer();
+            requestChunks();
+            return;
+        }
+        write(REQUEST_DATA);
+        if (opts.pipelineChecksum) write(REQUEST_CHECKSUM);
+        enter(State.AWAIT_DATA, opts.dataTimeoutMs);
+        stepStart = metrics.startTimer();
+    }
+
+    private void onTimeout(State expected, int forStep) {
+        // A chunked transfer re-arms the timeout on every chunk; a timeout that was already running
+        // when it got re-armed must not count.
+        if (state != expected || step != forStep) return;
+        timeouts.inc();
+        if (++retries > opts.maxRetries) {
+            fail("timed out in " + state);
+            return;
+        }
+        switch (state) {
+            case AWAIT_TIME_ACK: sendTimeSync(); break;
+            case AWAIT_DATA:
+                if (chunks != null) {
+                    chunks.timedOut();
+                    requestChunks();
+                } else {
+                    sendDataRequest();
+                }
+                break;
+            case AWAIT_CHECKSUM:
+                if (opts.pipelineChecksum) {
+                    write(REQUEST_RESEND);
+                    write(REQUEST_CHECKSUM);
+                    resends.inc();
+                    enter(State.AWAIT_DATA, opts.dataTimeoutMs);
+                    stepStart = metrics.startTimer();
+                } else {
+                    write(REQUEST_CHECKSUM);
+                    enter(State.AWAIT_CHECKSUM, opts.checksumTimeoutMs);
+                }
+                break;
+            default: break;
+        }
+    }
+
+    /** Moves to {@code next}; its timeout starts once the commands written for it are out. */
+    private void enter(State next, long timeoutMs) {
+        cancelTimeout();
+        if (opts.chunkSize == 0) {
+            // Set while the reader waits on the frame at hand or before the command goes out, so the
+            // answer is read with the length that fits it.
+            decoder.setExpectedDataLength(next == State.AWAIT_CHECKSUM ? CHECKSUM_REPLY_LENGTH : opts.payloadLength);
+        }
+        setState(next);
+        step++;
+        armMs = timeoutMs;
+    }
+
+    private void armTimeout() {
+        if (armMs < 0) return;
+        State expected = state;
+        int forStep = step;
+        timeout = timer.schedule(() -> post(() -> onTimeout(expected, forStep)), armMs, TimeUnit.MILLISECONDS);
+        armMs = -1;
+    }
+
+    private void fail(String reason) {
+        cancelTimeout();
+        State at = state;
+        if (at == State.AWAIT_TIME_ACK) timeSynced.completeExceptionally(new IOException(reason));
+        setState(State.FAILED);
+        listener.onTransferFailed(at, reason);
+    }
+
+    private void setState(State next) {
+        if (state == next) return;
+        state = next;
+        listener.onStateChanged(next);
+    }
+
+    private void cancelTimeout() {
+        if (timeout != null) timeout.cancel(false);
+        timeout = null;
+        armMs = -1;
+    }
+
+    /** Queues {@code cmd}; it goes out with everything else written in this turn of the loop. */
+    private void write(byte[] cmd) {
+        if (pendingLength + cmd.length > pendingWrites.length) {
+            pendingWrites = Arrays.copyOf(pendingWrites, Math.max(pendingWrites.length * 2, pendingLength + cmd.length));
+        }
+        System.arraycopy(cmd, 0, pendingWrites, pendingLength, cmd.length);
+        pendingLength += cmd.length;
+        requestsSent++;
+    }
+
+    private void flushWrites() {
+        if (pendingLength == 0) return;
+        int n = pendingLength;
+        pendingLength = 0;
+        try {
+            out.write(pendingWrites, 0, n);
+            out.flush();
+        } catch (IOException e) {
+            linkLost("write failed: " + e.getMessage());
+        }
+    }
+
+    private void linkLost(String reason) {
+        if (state == State.CLOSED) return;
+        fail(reason);
+        listener.onLinkLost(reason);
+    }
+
+    /**
+     * {@code 0x50 0x00 0x07 YYhi YYlo MM DD hh mm ss 0x5F}: seven date bytes, as the length byte
+     * says, with the full year big-endian so the device needs no century correction.
+     */
+    static byte[] timeSyncCommand(Calendar c) {
+        int year = c.get(Calendar.YEAR);
+        byte[] cmd = new byte[11];
+        cmd[0] = 0x50;
+        cmd[1] = 0x00;
+        cmd[2] = 0x07;
+        cmd[3] = (byte) (year >>> 8);
+        cmd[4] = (byte) year;
+        cmd[5] = (byte) (c.get(Calendar.MONTH) + 1);
+        cmd[6] = (byte) c.get(Calendar.DAY_OF_MONTH);
+        cmd[7] = (byte) c.get(Calendar.HOUR_OF_DAY);
+        cmd[8] = (byte) c.get(Calendar.MINUTE);
+        cmd[9] = (byte) c.get(Calendar.SECOND);
+        cmd[10] = 0x5F;
+        return cmd;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.awsiotcertapp.protocol;
+
+/** Unsigned LEB128 varints, as used by the batch envelope and the telemetry encodings. */
+public final class Varint {
+    private Varint() {
+    }
+
+    public static int size(long value) {
+        int n = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    /** Writes {@code value} at {@code pos} and returns the position after it. */
+    public static int write(byte[] buf, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Reads a varint starting at {@code pos[0]} and advances {@code pos[0]} past it.
+     */
+    public static long read(byte[] buf, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        int p = pos[0];
+        while (true) {
+            if (p >= buf.length) throw new IllegalArgumentException("truncated varint");
+            byte b = buf[p++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+            if (shift > 63) throw new IllegalArgumentException("varint too long");
+        }
+        pos[0] = p;
+        return value;
+    }
+
+    /** ZigZag-encodes a signed value so small negative deltas stay short. */
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
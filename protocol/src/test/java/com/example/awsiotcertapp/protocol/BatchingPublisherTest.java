@@ -0,0 +1,146 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BatchingPublisherTest {
+
+    private final List<String>   topics   = new CopyOnWriteArrayList<>();
+    private final List<byte[]>   payloads = new CopyOnWriteArrayList<>();
+    private final List<BatchingPublisher.Callback> pending = new CopyOnWriteArrayList<>();
+    private BatchingPublisher publisher;
+
+    private final BatchingPublisher.Transport acking = (topic, payload, done) -> {
+        topics.add(topic);
+        payloads.add(payload);
+        done.onComplete(null);
+    };
+
+    @After
+    public void tearDown() throws Exception {
+        if (publisher != null) publisher.close();
+    }
+
+    @Test
+    public void envelopeRoundTrips() {
+        BatchEnvelope envelope = new BatchEnvelope(4);
+        envelope.add(new byte[]{9, 1, 2, 9}, 1, 2);
+        envelope.add(new byte[300], 0, 300);
+
+        List<byte[]> decoded = BatchEnvelope.decode(envelope.seal());
+        assertEquals(2, decoded.size());
+        assertArrayEquals(new byte[]{1, 2}, decoded.get(0));
+        assertEquals(300, decoded.get(1).length);
+    }
+
+    @Test
+    public void flushesWhenBatchIsFull() throws Exception {
+        BatchingPublisher.Options opts = new BatchingPublisher.Options();
+        opts.setMaxBatchBytes(32);
+        opts.setMaxDelayMs(10_000);
+        publisher = new BatchingPublisher(acking, opts, null);
+
+        for (int i = 0; i < 3; i++) publisher.publish("t", new byte[10], 0, 10);
+        assertEquals(1, payloads.size());
+        assertEquals(3, BatchEnvelope.decode(payloads.get(0)).size());
+    }
+
+    @Test
+    public void flushesAfterMaxDelay() throws Exception {
+        BatchingPublisher.Options opts = new BatchingPublisher.Options();
+        opts.setMaxDelayMs(20);
+        CountDownLatch flushed = new CountDownLatch(1);
+        publisher = new BatchingPublisher(acking, opts, (topic, messages, bytes, error) -> {
+            assertEquals(2, messages);
+            flushed.countDown();
+        });
+
+        publisher.publish("a", new byte[]{1}, 0, 1);
+        publisher.publish("a", new byte[]{2}, 0, 1);
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, payloads.size());
+    }
+
+    @Test
+    public void keepsTopicsApart() throws Exception {
+        publisher = new BatchingPublisher(acking, new BatchingPublisher.Options(), null);
+        publisher.publish("a", new byte[]{1}, 0, 1);
+        publisher.publish("b", new byte[]{2}, 0, 1);
+        publisher.flush();
+
+        assertEquals(2, payloads.size());
+        assertTrue(topics.contains("a") && topics.contains("b"));
+    }
+
+    @Test
+    public void unbatchedModeSendsRawPayloads() throws Exception {
+        BatchingPublisher.Options opts = new BatchingPublisher.Options();
+        opts.setBatching(false);
+        publisher = new BatchingPublisher(acking, opts, null);
+        byte[] raw = {1, 2, 3};
+        publisher.publish("t", raw, 0, 3);
+
+        assertSame(raw, payloads.get(0));
+    }
+
+    @Test
+    public void blocksWhenInFlightWindowIsFull() throws Exception {
+        BatchingPublisher.Options opts = new BatchingPublisher.Options();
+        opts.setBatching(false);
+        opts.setMaxInFlight(2);
+        publisher = new BatchingPublisher((topic, payload, done) -> pending.add(done), opts, null);
+        publisher.publish("t", new byte[1], 0, 1);
+        publisher.publish("t", new byte[1], 0, 1);
+        assertEquals(2, publisher.inFlight());
+
+        Thread producer = new Thread(() -> {
+            try {
+                publisher.publish("t", new byte[1], 0, 1);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue("third publish should wait for an ack", producer.isAlive());
+
+        pending.get(0).onComplete(null);
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(3, pending.size());
+        pending.get(1).onComplete(null);
+        pending.get(2).onComplete(null);
+    }
+
+    @Test
+    public void closeFailsWhatFindsNoRoomInsteadOfWaiting() throws Exception {
+        BatchingPublisher.Options opts = new BatchingPublisher.Options();
+        opts.setMaxInFlight(1);
+        opts.setMaxDelayMs(60_000);
+        opts.setCloseTimeoutMs(50);
+        List<String> failed = new CopyOnWriteArrayList<>();
+        publisher = new BatchingPublisher((topic, payload, done) -> pending.add(done), opts,
+                (topic, messages, bytes, error) -> {
+                    if (error != null) failed.add(topic + " " + messages + " " + error.getClass().getSimpleName());
+                });
+        publisher.publish("a", new byte[1], 0, 1);
+        publisher.flush(); // never acknowledged, e.g. buffered while disconnected
+        publisher.publish("b", new byte[1], 0, 1);
+        publisher.publish("b", new byte[1], 0, 1);
+
+        long start = System.nanoTime();
+        publisher.close();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000);
+        publisher.publish("c", new byte[1], 0, 1);
+
+        assertEquals(1, pending.size());
+        assertEquals(Arrays.asList("b 2 TimeoutException", "c 1 IllegalStateException"), failed);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** Unbounded in-memory pipe; unlike PipedInputStream it does not care which threads write. */
+final class BytePipe {
+    private byte[]  buf = new byte[256];
+    private int     head;
+    private int     tail;
+    private boolean closed;
+
+    final InputStream in = new InputStream() {
+        @Override public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            synchronized (BytePipe.this) {
+                while (head == tail && !closed) {
+                    try {
+                        BytePipe.this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted");
+                    }
+                }
+                if (head == tail) return -1;
+                int n = Math.min(len, tail - head);
+                System.arraycopy(buf, head, b, off, n);
+                head += n;
+                return n;
+            }
+        }
+
+        @Override public void close() {
+            BytePipe.this.close();
+        }
+    };
+
+    final OutputStream out = new OutputStream() {
+        @Override public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (BytePipe.this) {
+                if (closed) throw new IOException("pipe closed");
+                if (tail + len > buf.length) {
+                    byte[] grown = new byte[Math.max(buf.length * 2, tail - head + len)];
+                    System.arraycopy(buf, head, grown, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                    buf = grown;
+                }
+                System.arraycopy(b, off, buf, tail, len);
+                tail += len;
+                BytePipe.this.notifyAll();
+            }
+        }
+
+        @Override public void close() {
+            BytePipe.this.close();
+        }
+    };
+
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
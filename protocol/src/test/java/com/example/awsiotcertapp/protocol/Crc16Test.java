@@ -0,0 +1,24 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class Crc16Test {
+
+    @Test
+    public void matchesTheStandardCheckValue() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, Crc16.of(check, 0, check.length));
+    }
+
+    @Test
+    public void frameCrcCoversTheGivenRange() {
+        byte[] bytes = {0x40, 0x31, 0x32, 0x33, 0x4F};
+        int[] crc = {-1};
+        new FrameDecoder(16, frame -> crc[0] = frame.crc16(1, 4)).feed(bytes, 0, bytes.length);
+        assertEquals(Crc16.of(bytes, 1, 3), crc[0]);
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class DeviceConnectionManagerTest {
+
+    /** Both data frame markers inside, and a checksum of 0x4F. */
+    private static final byte[] PAYLOAD = {0x40, 0x4F, 0x40, 0x10, (byte) 0xB0, 0x4F};
+
+    private DeviceConnectionManager manager;
+
+    @After
+    public void tearDown() {
+        if (manager != null) manager.close();
+    }
+
+    @Test
+    public void mergesReadingsFromAllDevicesInOrder() throws Exception {
+        List<DeviceConnectionManager.Reading> readings = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(12);
+        manager = new DeviceConnectionManager(FakeLoggerDevice.connector(PAYLOAD, 2), 4,
+                engineOptions(), new Recorder() {
+            @Override public void onReading(DeviceConnectionManager.Reading r) {
+                readings.add(r);
+                done.countDown();
+                manager.request(r.address);
+            }
+        });
+        for (int i = 0; i < 4; i++) assertTrue(manager.open("dev" + i));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Map<String, Integer> perDevice = new HashMap<>();
+        for (int i = 0; i < 12; i++) {
+            DeviceConnectionManager.Reading r = readings.get(i);
+            assertEquals(i, r.sequence);
+            assertArrayEquals(PAYLOAD, r.payload);
+            perDevice.merge(r.address, 1, Integer::sum);
+        }
+        assertEquals(4, perDevice.size());
+    }
+
+    @Test
+    public void reportsSetupTimePerDevice() throws Exception {
+        Map<String, Long> setup = new ConcurrentHashMap<>();
+        CountDownLatch ready = new CountDownLatch(2);
+        manager = new DeviceConnectionManager(FakeLoggerDevice.connector(PAYLOAD, 15), 2,
+                engineOptions(), new Recorder() {
+            @Override public void onDeviceReady(String address, long setupNanos) {
+                setup.put(address, setupNanos);
+                ready.countDown();
+            }
+        });
+        manager.open("a");
+        manager.open("b");
+
+        assertTrue(ready.await(5, TimeUnit.SECONDS));
+        for (long nanos : setup.values()) {
+            long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+            assertTrue("one round trip, not a polling interval: " + ms + " ms", ms >= 15 && ms < 500);
+        }
+    }
+
+    @Test
+    public void refusesMoreSessionsThanSlots() {
+        manager = new DeviceConnectionManager(FakeLoggerDevice.connector(PAYLOAD, 0), 2,
+                engineOptions(), new Recorder());
+        assertTrue(manager.open("a"));
+        assertFalse("already open", manager.open("a"));
+        assertTrue(manager.open("b"));
+        assertFalse(manager.open("c"));
+
+        manager.disconnect("a");
+        assertTrue(manager.open("c"));
+        assertEquals(Arrays.asList("b", "c"), sorted(manager.openDevices()));
+    }
+
+    @Test
+    public void reportsFailedConnect() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        manager = new DeviceConnectionManager(address -> {
+            throw new IOException("out of range");
+        }, 2, engineOptions(), new Recorder() {
+            @Override public void onDeviceFailed(String address, String reason) {
+                assertEquals("connect failed: out of range", reason);
+                failed.countDown();
+            }
+        });
+        assertTrue(manager.open("a"));
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertTrue(manager.openDevices().isEmpty());
+        assertTrue("the slot is free again", manager.open("a"));
+    }
+
+    @Test
+    public void closesTheLinkWhenTheSessionCannotStart() throws Exception {
+        UartProtocolEngine.Options tooBig = engineOptions();
+        tooBig.setReadBufferSize(64);
+        tooBig.setPayloadLength(128);
+        for (UartProtocolEngine.Options opts : Arrays.asList(engineOptions(), tooBig)) {
+            CountDownLatch failed = new CountDownLatch(1);
+            CountDownLatch closed = new CountDownLatch(1);
+            boolean brokenStreams = opts != tooBig;
+            manager = new DeviceConnectionManager(address -> new DeviceConnectionManager.Link() {
+                private final FakeLoggerDevice device = new FakeLoggerDevice(PAYLOAD, 0);
+
+                @Override public InputStream input() throws IOException {
+                    if (brokenStreams) throw new IOException("socket closed");
+                    return device.hostIn();
+                }
+
+                @Override public OutputStream output() { return device.hostOut(); }
+
+                @Override public void close() {
+                    device.close();
+                    closed.countDown();
+                }
+            }, 1, opts, new Recorder() {
+                @Override public void onDeviceFailed(String address, String reason) {
+                    failed.countDown();
+                }
+            });
+            assertTrue(manager.open("a"));
+            assertTrue(failed.await(5, TimeUnit.SECONDS));
+            assertTrue("link closed", closed.await(5, TimeUnit.SECONDS));
+            assertTrue(manager.openDevices().isEmpty());
+            assertTrue("the slot is free again", manager.open("b"));
+            manager.close();
+        }
+    }
+
+    @Test
+    public void reconnectsADeviceWhoseLinkWasLost() throws Exception {
+        List<FakeLoggerDevice> devices = new CopyOnWriteArrayList<>();
+        AtomicLong attempts = new AtomicLong();
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        BlockingQueue<byte[]> readings = new LinkedBlockingQueue<>();
+        manager = new DeviceConnectionManager(address -> {
+            if (attempts.incrementAndGet() == 2) throw new IOException("out of range");
+            FakeLoggerDevice device = new FakeLoggerDevice(PAYLOAD, 0);
+            devices.add(device);
+            return new DeviceConnectionManager.Link() {
+                @Override public InputStream input() { return device.hostIn(); }
+                @Override public OutputStream output() { return device.hostOut(); }
+                @Override public void close() { device.close(); }
+            };
+        }, 1, engineOptions(), new Recorder() {
+            @Override public void onReading(DeviceConnectionManager.Reading r) {
+                readings.add(r.payload);
+            }
+
+            @Override public void onDeviceReady(String address, long setupNanos) {
+                events.add("ready");
+            }
+
+            @Override public void onDeviceFailed(String address, String reason) {
+                events.add(reason);
+            }
+        });
+        ReconnectController.Options backoff = new ReconnectController.Options();
+        backoff.setBaseDelayMs(10);
+        backoff.setMetrics(new Metrics(false));
+        manager.setReconnectOptions(backoff);
+        assertTrue(manager.open("a"));
+        assertEquals("ready", events.poll(5, TimeUnit.SECONDS));
+
+        devices.get(0).close(); // the device hangs up
+        String lost = events.poll(5, TimeUnit.SECONDS);
+        assertTrue(lost, "link closed by the device".equals(lost) || lost.startsWith("write failed"));
+        assertEquals("connect failed: out of range", events.poll(5, TimeUnit.SECONDS));
+        assertFalse("waiting to be reopened", manager.open("a"));
+        assertEquals("ready", events.poll(5, TimeUnit.SECONDS));
+        readings.clear();
+
+        assertEquals(3, attempts.get());
+        assertEquals(Collections.singletonList("a"), manager.openDevices());
+        assertArrayEquals("the new link transfers", PAYLOAD, readings.poll(5, TimeUnit.SECONDS));
+        manager.disconnect("a");
+        assertTrue("the slot is free again", manager.open("b"));
+    }
+
+    @Test
+    public void throughputScalesWithDevices() throws Exception {
+        double one  = readingsPerSecond(1);
+        double four = readingsPerSecond(4);
+        assertTrue("1 device: " + one + "/s, 4 devices: " + four + "/s", four > one * 3);
+    }
+
+    /** Every device transfers back to back over a 10 ms link for half a second. */
+    private double readingsPerSecond(int devices) throws Exception {
+        CountDownLatch first = new CountDownLatch(devices);
+        AtomicLong count = new AtomicLong();
+        DeviceConnectionManager m = new DeviceConnectionManager(FakeLoggerDevice.connector(PAYLOAD, 10), devices,
+                engineOptions(), new Recorder() {
+            @Override public void onReading(DeviceConnectionManager.Reading r) {
+                count.incrementAndGet();
+                first.countDown();
+            }
+        });
+        try {
+            m.setPollInterval(1);
+            for (int i = 0; i < devices; i++) m.open("dev" + i);
+            assertTrue(first.await(5, TimeUnit.SECONDS));
+            long start = System.nanoTime();
+            long before = count.get();
+            Thread.sleep(500);
+            return (count.get() - before) / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            m.close();
+        }
+    }
+
+    private static List<String> sorted(List<String> list) {
+        list.sort(null);
+        return list;
+    }
+
+    private static class Recorder implements DeviceConnectionManager.Listener {
+        @Override public void onReading(DeviceConnectionManager.Reading reading) { }
+
+        @Override public void onDeviceFailed(String address, String reason) { }
+    }
+
+    private static UartProtocolEngine.Options engineOptions() {
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setPayloadLength(PAYLOAD.length);
+        return opts;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.awsiotcertapp.protocol;
+
+import com.example.awsiotcertapp.protocol.bench.EmbeddedBroker;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EmbeddedBrokerTest {
+
+    private EmbeddedBroker broker;
+    private final List<MqttAsyncClient> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = EmbeddedBroker.withTestCertificates(7);
+        broker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (MqttAsyncClient c : clients) {
+            if (c.isConnected()) c.disconnectForcibly(0, 200);
+            c.close();
+        }
+        broker.close();
+    }
+
+    @Test
+    public void publishesReachWildcardSubscribersOverMutualTls() throws Exception {
+        BlockingQueue<String> inbox = new ArrayBlockingQueue<>(4);
+        MqttAsyncClient sub = connect("sub", true, inbox, null);
+        sub.subscribe("dt/+/readings", 1).waitForCompletion(5_000);
+        MqttAsyncClient pub = connect("pub", true, null, null);
+
+        pub.publish("dt/logger-1/readings", "40 01 4F".getBytes(), 1, false).waitForCompletion(5_000);
+        pub.publish("dt/logger-1/status", "ok".getBytes(), 1, false).waitForCompletion(5_000);
+
+        assertEquals("dt/logger-1/readings=40 01 4F", inbox.poll(5, TimeUnit.SECONDS));
+        assertNull(inbox.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(2, broker.received());
+        assertEquals(1, broker.delivered());
+    }
+
+    @Test
+    public void injectedLatencyDelaysEveryAcknowledgement() throws Exception {
+        MqttAsyncClient pub = connect("pub", true, null, null);
+        broker.faults().setLatencyMs(150);
+
+        long start = System.nanoTime();
+        pub.publish("dt/a", new byte[8], 1, false).waitForCompletion(5_000);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    public void droppedPublishIsNeverAcknowledged() throws Exception {
+        MqttAsyncClient pub = connect("pub", true, null, null);
+        broker.faults().setDropRate(1.0);
+
+        IMqttDeliveryToken token = pub.publish("dt/a", new byte[8], 1, false);
+
+        assertFalse(waitQuietly(token, 300));
+        assertEquals(1, broker.dropped());
+    }
+
+    @Test
+    public void clientsNoticeWhenTheBrokerDropsThem() throws Exception {
+        CountDownLatch lost = new CountDownLatch(2);
+        connect("a", true, null, lost);
+        connect("b", true, null, lost);
+        assertEquals(2, broker.connected());
+
+        broker.disconnectAll();
+
+        assertTrue(lost.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void persistentSessionKeepsItsSubscriptions() throws Exception {
+        MqttAsyncClient first = connect("gateway", false, null, null);
+        first.subscribe("cmd/#", 1).waitForCompletion(5_000);
+        first.disconnect().waitForCompletion(5_000);
+
+        BlockingQueue<String> inbox = new ArrayBlockingQueue<>(4);
+        MqttAsyncClient again = client("gateway", inbox, null);
+        IMqttToken token = again.connect(options(false));
+        token.waitForCompletion(5_000);
+        connect("pub", true, null, null).publish("cmd/reset", "1".getBytes(), 1, false).waitForCompletion(5_000);
+
+        assertTrue(token.getSessionPresent());
+        assertEquals("cmd/reset=1", inbox.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void refusedConnectionReportsBrokerUnavailable() throws Exception {
+        broker.faults().setRefuseConnections(true);
+        try {
+            connect("pub", true, null, null);
+            fail("connected");
+        } catch (MqttException e) {
+            assertEquals(MqttException.REASON_CODE_BROKER_UNAVAILABLE, e.getReasonCode());
+        }
+    }
+
+    private MqttAsyncClient connect(String id, boolean clean, BlockingQueue<String> inbox, CountDownLatch lost) throws Exception {
+        MqttAsyncClient c = client(id, inbox, lost);
+        c.connect(options(clean)).waitForCompletion(5_000);
+        return c;
+    }
+
+    private MqttAsyncClient client(String id, BlockingQueue<String> inbox, CountDownLatch lost) throws MqttException {
+        MqttAsyncClient c = new MqttAsyncClient(broker.uri(), id, new MemoryPersistence());
+        c.setCallback(new MqttCallback() {
+            @Override public void connectionLost(Throwable cause) {
+                if (lost != null) lost.countDown();
+            }
+
+            @Override public void messageArrived(String topic, MqttMessage message) {
+                if (inbox != null) inbox.add(topic + "=" + new String(message.getPayload()));
+            }
+
+            @Override public void deliveryComplete(IMqttDeliveryToken token) {
+            }
+        });
+        clients.add(c);
+        return c;
+    }
+
+    private static MqttConnectOptions options(boolean clean) throws Exception {
+        MqttConnectOptions opts = new MqttConnectOptions();
+        opts.setCleanSession(clean);
+        opts.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
+        opts.setSocketFactory(EmbeddedBroker.testClientContext().getSocketFactory());
+        return opts;
+    }
+
+    private static boolean waitQuietly(IMqttToken token, long ms) {
+        try {
+            token.waitForCompletion(ms);
+            return token.isComplete();
+        } catch (MqttException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback stand-in for a logger: answers the time sync with an ACK, {@code 40014F} and
+ * {@code 40044F} with the payload frame and {@code 40024F} with its checksum, and the chunked
+ * transfer commands with chunks of the payload frame. Every reply reaches
+ * the host {@code linkDelayMs} after the command that triggered it, so one request costs one
+ * round trip and back-to-back requests share it.
+ */
+public final class FakeLoggerDevice implements Runnable {
+    private final BytePipe toDevice   = new BytePipe();
+    private final BytePipe fromDevice = new BytePipe();
+    private final byte[]   payload;
+    private final long     linkDelayMs;
+    private final ScheduledExecutorService link = Executors.newSingleThreadScheduledExecutor();
+
+    volatile int corruptChecksums;
+    volatile int commandsReceived;
+    /** Chunk indices whose next copy is damaged in transit, or never arrives. */
+    final Set<Integer> corruptChunks = ConcurrentHashMap.newKeySet();
+    final Set<Integer> dropChunks    = ConcurrentHashMap.newKeySet();
+
+    private volatile int chunkSize;
+
+    public FakeLoggerDevice(byte[] payload, long linkDelayMs) {
+        this.payload     = payload;
+        this.linkDelayMs = linkDelayMs;
+        Thread thread = new Thread(this, "fake-logger");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Host side: what the engine reads. */
+    public InputStream hostIn() {
+        return fromDevice.in;
+    }
+
+    /** Host side: where the engine writes. */
+    public OutputStream hostOut() {
+        return toDevice.out;
+    }
+
+    /** Connects every address to a fresh device of its own. */
+    public static DeviceConnectionManager.Connector connector(byte[] payload, long linkDelayMs) {
+        return address -> {
+            FakeLoggerDevice device = new FakeLoggerDevice(payload, linkDelayMs);
+            return new DeviceConnectionManager.Link() {
+                @Override public InputStream input() { return device.hostIn(); }
+                @Override public OutputStream output() { return device.hostOut(); }
+                @Override public void close() { device.close(); }
+            };
+        };
+    }
+
+    public void close() {
+        link.shutdownNow();
+        toDevice.close();
+        fromDevice.close();
+    }
+
+    @Override public void run() {
+        FrameDecoder decoder = new FrameDecoder(64, this::reply);
+        try {
+            while (decoder.readFrom(toDevice.in) >= 0) { }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void reply(Frame cmd) {
+        commandsReceived++;
+        if (cmd.isTimeFrame()) {
+            send(new byte[]{0x50, 0x02, 0x5F});
+        } else if (cmd.get(1) == 0x01 || cmd.get(1) == 0x04) {
+            send(payload);
+        } else if (cmd.get(1) == 0x02) {
+            int sum = 0;
+            for (int i = 1; i < payload.length - 1; i++) sum += payload[i] & 0xFF;
+            if (corruptChecksums > 0) {
+                corruptChecksums--;
+                sum++;
+            }
+            send(new byte[]{0x40, (byte) sum, 0x4F});
+        } else if (cmd.get(1) == ChunkedTransfer.START) {
+            chunkSize = ChunkedTransfer.number(cmd);
+            sendChunk(0);
+        } else if (cmd.get(1) == ChunkedTransfer.FETCH && chunkSize > 0) {
+            sendChunk(ChunkedTransfer.number(cmd));
+        }
+    }
+
+    private void sendChunk(int index) {
+        if (index * chunkSize >= Math.max(payload.length, 1)) return;
+        if (dropChunks.remove(index)) return;
+        byte[] chunk = ChunkedTransfer.encodeChunk(payload, index, chunkSize);
+        if (corruptChunks.remove(index)) chunk[7] ^= 0x10;
+        send(chunk);
+    }
+
+    private void send(byte[] bytes) {
+        if (link.isShutdown()) return;
+        try {
+            link.schedule(() -> {
+                try {
+                    fromDevice.out.write(bytes);
+                } catch (IOException ignored) {
+                }
+            }, linkDelayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException closed) {
+            // closed while the command was being read
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FrameBridgeTest {
+
+    private FrameBridge bridge;
+
+    @After
+    public void tearDown() {
+        if (bridge != null) bridge.close();
+    }
+
+    @Test
+    public void publishesInOrder() throws Exception {
+        List<Byte> out = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(50);
+        bridge = new FrameBridge(64, 1, f -> {
+            out.add(f[0]);
+            done.countDown();
+            return true;
+        });
+        bridge.start();
+        for (int i = 0; i < 50; i++) assertTrue(bridge.offer(new byte[]{(byte) i, 0, 0}));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50; i++) assertEquals((byte) i, (byte) out.get(i));
+        assertEquals(150, waitForPublished(50).bytesPublished);
+    }
+
+    @Test
+    public void dropsWhenQueueIsFull() {
+        bridge = new FrameBridge(2, 1, f -> true);
+        assertTrue(bridge.offer(new byte[1]));
+        assertTrue(bridge.offer(new byte[1]));
+        assertFalse(bridge.offer(new byte[1]));
+
+        FrameBridge.Stats stats = bridge.stats();
+        assertEquals(2, stats.enqueued);
+        assertEquals(1, stats.dropped);
+        assertEquals(2, stats.queueDepth);
+        assertEquals(2, stats.maxQueueDepth);
+    }
+
+    @Test
+    public void retriesRefusedFrames() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        bridge = new FrameBridge(4, 1, f -> attempts.incrementAndGet() > 3);
+        bridge.start();
+        bridge.offer(new byte[]{1});
+
+        assertEquals(1, waitForPublished(1).published);
+        assertEquals(4, attempts.get());
+    }
+
+    @Test
+    public void passesTheSourceAlong() throws Exception {
+        List<String> sources = new CopyOnWriteArrayList<>();
+        bridge = new FrameBridge(4, 1, new FrameBridge.Sink() {
+            @Override public boolean publish(byte[] frame) {
+                sources.add("none");
+                return true;
+            }
+
+            @Override public boolean publish(String source, byte[] frame) {
+                sources.add(String.valueOf(source));
+                return true;
+            }
+        });
+        bridge.start();
+        bridge.offer("logger-1", new byte[]{1});
+        bridge.offer(new byte[]{2});
+
+        waitForPublished(2);
+        assertEquals(Arrays.asList("logger-1", "null"), sources);
+    }
+
+    private FrameBridge.Stats waitForPublished(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        FrameBridge.Stats stats = bridge.stats();
+        while (stats.published < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+            stats = bridge.stats();
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    private final List<byte[]> frames = new ArrayList<>();
+    private final FrameDecoder decoder = new FrameDecoder(64, f -> frames.add(f.toByteArray()));
+
+    @Test
+    public void decodesFramesSplitAcrossReads() {
+        byte[] stream = {0x50, 0x02, 0x5F, 0x40, 1, 2, 3, 0x4F, 0x40, 6, 0x4F};
+        for (byte b : stream) decoder.feed(new byte[]{b}, 0, 1);
+
+        assertEquals(3, frames.size());
+        assertArrayEquals(new byte[]{0x50, 0x02, 0x5F}, frames.get(0));
+        assertArrayEquals(new byte[]{0x40, 1, 2, 3, 0x4F}, frames.get(1));
+        assertArrayEquals(new byte[]{0x40, 6, 0x4F}, frames.get(2));
+    }
+
+    @Test
+    public void decodesFramesMergedInOneReadAndWrappingTheRing() throws Exception {
+        byte[] frame = {0x40, 10, 20, 30, 40, 50, 60, 0x4F};
+        byte[] stream = new byte[frame.length * 20];
+        for (int i = 0; i < 20; i++) System.arraycopy(frame, 0, stream, i * frame.length, frame.length);
+
+        InputStream in = new ByteArrayInputStream(stream);
+        while (decoder.readFrom(in) >= 0) { }
+
+        assertEquals(20, frames.size());
+        for (byte[] f : frames) assertArrayEquals(frame, f);
+        assertEquals(0, decoder.buffered());
+    }
+
+    @Test
+    public void skipsNoiseBetweenFrames() {
+        byte[] stream = {0x11, 0x22, 0x40, 7, 0x4F, 0x33};
+        decoder.feed(stream, 0, stream.length);
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(new byte[]{0x40, 7, 0x4F}, frames.get(0));
+        assertEquals(3, decoder.skippedBytes());
+    }
+
+    @Test
+    public void expectedLengthKeepsEndMarkerInsidePayload() {
+        decoder.setExpectedDataLength(5);
+        byte[] stream = {0x40, 0x4F, 0x4F, 9, 0x4F};
+        decoder.feed(stream, 0, stream.length);
+
+        assertEquals(1, frames.size());
+        assertArrayEquals(stream, frames.get(0));
+    }
+
+    @Test
+    public void checkedScanKeepsEndMarkersTheChecksumDoesNotConfirm() {
+        decoder.setCheckScannedEnds(true);
+        byte[] data = {0x40, 0x4F, 0x40, 0x10, (byte) 0xB0, 0x4F};
+        decoder.feed(data, 0, data.length);
+        assertEquals(1, frames.size());
+        assertArrayEquals(data, frames.get(0));
+
+        // A pipelined checksum reply right behind the frame confirms the end before it.
+        frames.clear();
+        byte[] piped = {0x40, 0x4F, 0x40, 0x40, 0x4F, 0x40, (byte) 0xCF, 0x4F};
+        decoder.feed(piped, 0, 6);
+        decoder.feed(piped, 6, 2);
+        assertEquals(2, frames.size());
+        assertArrayEquals(new byte[]{0x40, 0x4F, 0x40, 0x40, 0x4F}, frames.get(0));
+        assertArrayEquals(new byte[]{0x40, (byte) 0xCF, 0x4F}, frames.get(1));
+    }
+
+    @Test
+    public void dropsFrameLargerThanRing() {
+        byte[] big = new byte[100];
+        big[0] = 0x40;
+        decoder.feed(big, 0, big.length);
+        decoder.feed(new byte[]{0x40, 1, 0x4F}, 0, 3);
+
+        assertEquals(1, decoder.overflows());
+        assertEquals(1, frames.size());
+        assertArrayEquals(new byte[]{0x40, 1, 0x4F}, frames.get(0));
+    }
+
+    @Test
+    public void frameViewSumsWithoutCopying() {
+        int[] sum = {-1};
+        FrameDecoder sums = new FrameDecoder(8, f -> sum[0] = f.sum(1, f.length() - 1));
+        sums.feed(new byte[]{0x40, (byte) 0xFF, 2, 0x4F}, 0, 4);
+
+        assertEquals(0xFF + 2, sum[0]);
+    }
+
+    @Test
+    public void checksumIsAccumulatedAcrossReads() {
+        int[] checksum = {-1};
+        FrameDecoder sums = new FrameDecoder(16, f -> checksum[0] = f.checksum());
+        byte[] stream = {0x40, (byte) 0x80, (byte) 0x90, 0x4F};
+        sums.feed(stream, 0, 2);
+        assertEquals(-1, checksum[0]);
+        sums.feed(stream, 2, 2);
+
+        assertEquals((0x80 + 0x90) & 0xFF, checksum[0]);
+    }
+
+    @Test
+    public void checksumRestartsAfterResync() {
+        int[] checksum = {-1};
+        FrameDecoder sums = new FrameDecoder(16, f -> checksum[0] = f.checksum());
+        sums.setExpectedDataLength(4);
+        byte[] stream = {0x40, 0x40, 5, 6, 0x4F};
+        sums.feed(stream, 0, stream.length);
+
+        assertEquals(11, checksum[0]);
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HexTest {
+
+    @Test
+    public void encodesUpperCase() {
+        assertEquals("40014F", Hex.encode(new byte[]{0x40, 0x01, 0x4F}));
+        assertEquals("FF00", Hex.encode(new byte[]{1, (byte) 0xFF, 0, 2}, 1, 2));
+    }
+
+    @Test
+    public void encodesToAscii() {
+        assertArrayEquals("0A7F".getBytes(), Hex.encodeToAscii(new byte[]{0x0A, 0x7F}, 0, 2));
+    }
+
+    @Test
+    public void decodesEitherCase() {
+        assertArrayEquals(new byte[]{0x40, 0x02, 0x4F, (byte) 0xAB}, Hex.decode("40024Fab"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddLength() {
+        Hex.decode("401");
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JsonTest {
+
+    @Test
+    public void roundTripsEveryKindOfValue() {
+        String text = "{\"v\":7,\"full\":true,\"state\":{\"pollMs\":-30000,\"gain\":1.5,\"tz\":null,"
+                + "\"tags\":[\"a\",2,false],\"label\":\"line\\nbreak \\\"quoted\\\"\"}}";
+
+        Map<String, Object> doc = Json.parseObject(text);
+
+        assertEquals(7L, doc.get("v"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> state = (Map<String, Object>) doc.get("state");
+        assertEquals(1.5, state.get("gain"));
+        assertTrue(state.containsKey("tz"));
+        assertEquals(Arrays.asList("a", 2L, false), state.get("tags"));
+        assertEquals("line\nbreak \"quoted\"", state.get("label"));
+        assertEquals(text, Json.write(doc));
+    }
+
+    @Test
+    public void readsWhitespaceAndUnicodeEscapes() {
+        assertEquals("\u00e9", Json.parseObject(" { \"k\" : \"\\u00e9\" } ").get("k"));
+        assertEquals("\"\\u0001\"", Json.write("\u0001"));
+    }
+
+    @Test
+    public void normalizedValuesEqualParsedOnes() {
+        Map<String, Object> built = new LinkedHashMap<>();
+        built.put("pollMs", 30000);
+        built.put("gain", 1.5f);
+        built.put("tags", Arrays.asList((short) 1, (byte) 2));
+
+        assertEquals(Json.parse(Json.write(built)), Json.normalize(built));
+    }
+
+    @Test
+    public void rejectsMalformedText() {
+        for (String bad : new String[] {"", "{", "{\"a\":}", "{\"a\":1,}", "[1 2]", "{\"a\":1} x", "\"open", "{a:1}", "1.2.3"}) {
+            try {
+                Json.parse(bad);
+                fail("parsed " + bad);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            Json.parseObject("[1]");
+            fail("parsed an array as an object");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
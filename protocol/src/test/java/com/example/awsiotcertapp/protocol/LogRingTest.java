@@ -0,0 +1,96 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LogRingTest {
+
+    @Test
+    public void rendersLinesInOrder() {
+        LogRing ring = new LogRing(8);
+        ring.offer("[Pub OK]", "bt/data", null);
+        ring.offer("[Pub FAIL]", "bt/data", new Exception("timeout"));
+        ring.offer("** Delivery complete", null, null);
+
+        StringBuilder out = new StringBuilder();
+        assertEquals(3, ring.drainTo(out, 10));
+        assertEquals("[Pub OK][bt/data]\n[Pub FAIL][bt/data] timeout\n** Delivery complete\n", out.toString());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void dropsInsteadOfBlockingWhenFull() {
+        LogRing ring = new LogRing(4);
+        for (int i = 0; i < 10; i++) ring.offer("line", i, null);
+
+        assertEquals(4, ring.size());
+        assertEquals(6, ring.takeDropped());
+        assertEquals(0, ring.takeDropped());
+        StringBuilder out = new StringBuilder();
+        ring.drainTo(out, 10);
+        assertEquals("line[0]\nline[1]\nline[2]\nline[3]\n", out.toString());
+        assertTrue(ring.offer("line", 4, null));
+    }
+
+    @Test
+    public void rendersOnlyWhatIsDrained() {
+        AtomicInteger rendered = new AtomicInteger();
+        Object subject = new Object() {
+            @Override public String toString() {
+                rendered.incrementAndGet();
+                return "t";
+            }
+        };
+        LogRing ring = new LogRing(16);
+        for (int i = 0; i < 10; i++) ring.offer("[Pub OK]", subject, null);
+
+        assertEquals(0, rendered.get());
+        assertEquals(8, ring.skip(8));
+        ring.drainTo(new StringBuilder(), 10);
+        assertEquals(2, rendered.get());
+    }
+
+    @Test
+    public void keepsEveryLineFromConcurrentProducers() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        LogRing ring = new LogRing(1024);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String name = "p" + p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!ring.offer(name, i, null)) Thread.yield();
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        int[] next = new int[producers];
+        int total = 0;
+        StringBuilder out = new StringBuilder();
+        while (total < producers * perProducer) {
+            out.setLength(0);
+            int n = ring.drainTo(out, 256);
+            if (n == 0) {
+                Thread.yield();
+                continue;
+            }
+            total += n;
+            for (String line : out.toString().split("\n")) {
+                int p = line.charAt(1) - '0';
+                int i = Integer.parseInt(line.substring(3, line.length() - 1));
+                assertEquals("lines of one producer stay in order", next[p], i);
+                next[p]++;
+            }
+        }
+        for (Thread t : threads) t.join();
+        assertTrue(ring.isEmpty());
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void recordsNothingWhileDisabled() {
+        Metrics metrics = new Metrics(false);
+        Metrics.Counter c = metrics.counter("c");
+        Metrics.Histogram h = metrics.histogram("h");
+        c.inc();
+        h.record(1000);
+        h.recordSince(metrics.startTimer());
+
+        assertEquals(0, c.get());
+        assertEquals(0, h.count());
+        assertEquals(0, metrics.startTimer());
+    }
+
+    @Test
+    public void histogramStaysWithinBucketPrecision() {
+        Metrics.Histogram h = new Metrics(true).histogram("latency");
+        for (long v = 1; v <= 10_000; v++) h.record(TimeUnit.MICROSECONDS.toNanos(v));
+
+        assertEquals(10_000, h.count());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(10_000), h.max());
+        assertNear(TimeUnit.MICROSECONDS.toNanos(5_000), h.percentile(50));
+        assertNear(TimeUnit.MICROSECONDS.toNanos(9_900), h.percentile(99));
+        assertNear(TimeUnit.MICROSECONDS.toNanos(5_000), (long) h.mean());
+    }
+
+    @Test
+    public void bucketsCoverTheWholeRange() {
+        Metrics.Histogram h = new Metrics(true).histogram("range");
+        for (long v : new long[]{0, 1, 31, 32, 33, 1_000_000, Long.MAX_VALUE}) {
+            int i = h.index(v);
+            assertTrue(v <= h.highestIn(i));
+            if (i > 0) assertTrue(v > h.highestIn(i - 1));
+        }
+    }
+
+    @Test
+    public void exportsCompactJson() {
+        Metrics metrics = new Metrics(true);
+        metrics.counter("mqtt.reconnects").add(3);
+        metrics.counter("never.used");
+        metrics.gauge("outbox.depth", () -> 42);
+        metrics.histogram("mqtt.puback").record(TimeUnit.MILLISECONDS.toNanos(12));
+
+        String json = metrics.toJson();
+        assertTrue(json, json.startsWith("{\"uptime_ms\":"));
+        assertTrue(json, json.contains("\"counters\":{\"mqtt.reconnects\":3}"));
+        assertTrue(json, json.contains("\"gauges\":{\"outbox.depth\":42}"));
+        assertTrue(json, json.contains("\"mqtt.puback\":{\"count\":1,\"mean_ms\":12.000,"));
+
+        metrics.reset();
+        assertEquals(0, metrics.counter("mqtt.reconnects").get());
+        assertTrue(metrics.toJson().contains("\"histograms\":{}"));
+    }
+
+    @Test
+    public void aReplacedGaugeIsNotRemovedByItsOldOwner() {
+        Metrics metrics = new Metrics(true);
+        LongSupplier old = () -> 1;
+        LongSupplier current = () -> 2;
+        metrics.gauge("outbox.depth", old);
+        metrics.gauge("outbox.depth", current);
+
+        metrics.removeGauge("outbox.depth", old);
+        assertTrue(metrics.toJson().contains("\"gauges\":{\"outbox.depth\":2}"));
+        metrics.removeGauge("outbox.depth", current);
+        assertTrue(metrics.toJson().contains("\"gauges\":{}"));
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue(actual + " not within 7% of " + expected, Math.abs(actual - expected) <= expected * 0.07);
+    }
+}
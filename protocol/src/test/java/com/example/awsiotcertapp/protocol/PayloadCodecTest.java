@@ -0,0 +1,112 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PayloadCodecTest {
+
+    private static final SampleSchema SCHEMA = SampleSchema.loggerFrame(1, 3);
+
+    /** A logger frame of {@code samples} three-channel readings that drift slowly, like real sensors. */
+    static byte[] reading(int samples, int seed) {
+        byte[] frame = new byte[2 + samples * 6];
+        frame[0] = 0x40;
+        for (int i = 0; i < samples; i++) {
+            int[] values = {2200 + (seed + i) % 7, 5100 - i, 1013 + (i & 1)};
+            for (int c = 0; c < 3; c++) {
+                frame[1 + i * 6 + c * 2] = (byte) (values[c] >>> 8);
+                frame[2 + i * 6 + c * 2] = (byte) values[c];
+            }
+        }
+        frame[frame.length - 1] = 0x4F;
+        return frame;
+    }
+
+    private static void assertRoundTrip(PayloadCodec codec, byte[] reading) {
+        byte[] wire = codec.encode(reading, 0, reading.length);
+        assertArrayEquals(codec.name(), reading, codec.decode(wire));
+    }
+
+    @Test
+    public void everyCodecRoundTrips() {
+        byte[] odd = {0x40, 1, 2, 3, 4, 5, 6, 7, 0x4F}; // one byte past the last whole sample
+        byte[] tiny = {0x40};
+        for (PayloadCodec codec : new PayloadCodec[]{PayloadCodec.RAW, PayloadCodec.HEX, new JsonCodec(SCHEMA),
+                new DeltaCodec(SCHEMA), new DeflateCodec(new DeltaCodec(SCHEMA), null, 0)}) {
+            assertRoundTrip(codec, reading(40, 0));
+            assertRoundTrip(codec, odd);
+            assertRoundTrip(codec, tiny);
+            assertRoundTrip(codec, new byte[0]);
+        }
+    }
+
+    @Test
+    public void signedLittleEndianSamples() {
+        SampleSchema schema = new SampleSchema(2, 0, 0, 2, 4, true, false);
+        byte[] reading = {(byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 5, 0, 0, 0,
+                          (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F, 0, 0, 0, (byte) 0x80};
+        assertRoundTrip(new DeltaCodec(schema), reading);
+        assertRoundTrip(new JsonCodec(schema), reading);
+        String json = new String(new JsonCodec(schema).encode(reading, 0, reading.length), StandardCharsets.US_ASCII);
+        assertTrue(json, json.contains("\"ch\":[[-2,2147483647],[5,-2147483648]]"));
+    }
+
+    @Test
+    public void deltaEncodingShrinksSlowSensors() {
+        byte[] reading = reading(40, 0);
+        byte[] delta = new DeltaCodec(SCHEMA).encode(reading, 0, reading.length);
+        assertTrue(delta.length + " of " + reading.length + " bytes", delta.length < reading.length * 0.6);
+    }
+
+    @Test
+    public void presetDictionaryShrinksSmallReadings() {
+        List<byte[]> history = new ArrayList<>();
+        for (int seed = 0; seed < 20; seed++) history.add(reading(8, seed));
+        DeltaCodec delta = new DeltaCodec(SCHEMA);
+        byte[] dict = DeflateCodec.trainDictionary(delta, history, 1024);
+        DeflateCodec primed = new DeflateCodec(delta, dict, 1);
+        DeflateCodec plain  = new DeflateCodec(delta, null, 0);
+
+        byte[] reading = reading(8, 3);
+        byte[] withDict = primed.encode(reading, 0, reading.length);
+        byte[] without  = plain.encode(reading, 0, reading.length);
+        assertEquals(DeflateCodec.DEFLATED, withDict[0]);
+        assertTrue(withDict.length + " vs " + without.length, withDict.length < without.length);
+        assertArrayEquals(reading, primed.decode(withDict));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesAnotherDictionary() {
+        DeltaCodec delta = new DeltaCodec(SCHEMA);
+        byte[] reading = reading(8, 0);
+        byte[] wire = new DeflateCodec(delta, new byte[]{1, 2, 3}, 1).encode(reading, 0, reading.length);
+        new DeflateCodec(delta, new byte[]{1, 2, 3}, 2).decode(wire);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesAnotherSchemaVersion() {
+        byte[] reading = reading(4, 0);
+        byte[] wire = new DeltaCodec(SCHEMA).encode(reading, 0, reading.length);
+        new DeltaCodec(SampleSchema.loggerFrame(2, 3)).decode(wire);
+    }
+
+    @Test
+    public void choosesTheCodecByTopic() {
+        PayloadCodec delta = new DeltaCodec(SCHEMA);
+        PayloadCodec json  = new JsonCodec(SCHEMA);
+        PayloadCodecs codecs = new PayloadCodecs()
+                .use("dt/loggers/+/debug", json)
+                .use("dt/loggers/#", delta);
+
+        assertSame(json, codecs.forTopic("dt/loggers/abc/debug"));
+        assertSame(delta, codecs.forTopic("dt/loggers/abc"));
+        assertSame(PayloadCodec.RAW, codecs.forTopic("bt/data"));
+        codecs.setDefault(PayloadCodec.HEX);
+        assertSame(PayloadCodec.HEX, codecs.forTopic("bt/data"));
+    }
+}
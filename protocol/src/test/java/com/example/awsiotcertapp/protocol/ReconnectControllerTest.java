@@ -0,0 +1,149 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.example.awsiotcertapp.protocol.ReconnectController.State.*;
+import static org.junit.Assert.*;
+
+public class ReconnectControllerTest {
+
+    private final VirtualScheduler clock   = new VirtualScheduler();
+    private final List<Long>       tries   = new ArrayList<>();
+    private final Metrics          metrics = new Metrics(true);
+    private ReconnectController    controller;
+
+    private ReconnectController controller(long seed) {
+        ReconnectController.Options opts = new ReconnectController.Options();
+        opts.setBaseDelayMs(1_000);
+        opts.setMaxDelayMs(60_000);
+        opts.setFailuresToOpen(5);
+        opts.setOpenMs(300_000);
+        opts.setNetworkJitterMs(2_000);
+        opts.setMetrics(metrics);
+        controller = new ReconnectController(() -> tries.add(clock.nowMillis()), opts, clock, new Random(seed), null);
+        return controller;
+    }
+
+    private void refuse() {
+        controller.connectFailed(new IOException("refused"));
+    }
+
+    @Test
+    public void connectsRightAwayOnStart() {
+        controller(1).start();
+        assertEquals(1, tries.size());
+        assertEquals(CONNECTING, controller.state());
+        controller.connected();
+        assertEquals(CONNECTED, controller.state());
+        assertEquals(-1, controller.untilNextAttempt());
+    }
+
+    @Test
+    public void backoffGrowsWithJitterUpToTheCap() {
+        controller(1).start();
+        long previous = 1_000;
+        for (int i = 0; i < 4; i++) {
+            refuse();
+            long delay = controller.untilNextAttempt();
+            assertTrue("delay " + delay, delay >= 1_000 && delay <= Math.min(60_000, previous * 3));
+            assertEquals(delay, clock.runNext());
+            previous = delay;
+        }
+        assertEquals(5, tries.size());
+    }
+
+    @Test
+    public void gatewaysThatFailTogetherSpreadOut() {
+        List<Long> thirdAttempt = new ArrayList<>();
+        for (long seed = 0; seed < 20; seed++) {
+            tries.clear();
+            controller(seed).start();
+            controller.connected();
+            controller.connectionLost(new IOException("broker gone"));
+            clock.runNext();
+            refuse();
+            clock.runNext();
+            thirdAttempt.add(tries.get(2) - tries.get(0));
+        }
+        long min = thirdAttempt.stream().mapToLong(Long::longValue).min().getAsLong();
+        long max = thirdAttempt.stream().mapToLong(Long::longValue).max().getAsLong();
+        assertTrue("attempts between " + min + " and " + max + " ms", max - min > 2_000);
+    }
+
+    @Test
+    public void circuitOpensAfterRepeatedFailuresAndRetriesOnce() {
+        controller(2).start();
+        for (int i = 0; i < 4; i++) {
+            refuse();
+            clock.runNext();
+        }
+        refuse();
+        assertEquals(CIRCUIT_OPEN, controller.state());
+        assertEquals(300_000, controller.untilNextAttempt());
+        assertEquals(1, metrics.counter("mqtt.circuit_opened").get());
+
+        clock.advance(299_999);
+        assertEquals(5, tries.size());
+        clock.advance(1);
+        assertEquals("one trial attempt", 6, tries.size());
+        refuse();
+        assertEquals(CIRCUIT_OPEN, controller.state());
+
+        clock.runNext();
+        controller.connected();
+        controller.connectionLost(new IOException("again"));
+        assertEquals("closed circuit backs off from the start", BACKOFF, controller.state());
+        assertTrue(controller.untilNextAttempt() <= 3_000);
+    }
+
+    @Test
+    public void waitsForTheNetworkAndTakesTheFastPathWhenItReturns() {
+        controller(3).start();
+        for (int i = 0; i < 5; i++) {
+            refuse();
+            if (i < 4) clock.runNext();
+        }
+        assertEquals(CIRCUIT_OPEN, controller.state());
+
+        controller.networkLost();
+        assertEquals(NO_NETWORK, controller.state());
+        assertEquals(-1, controller.untilNextAttempt());
+        clock.advance(3_600_000);
+        assertEquals(5, tries.size());
+
+        controller.networkAvailable();
+        long delay = controller.untilNextAttempt();
+        assertTrue("fast path took " + delay + " ms", delay < 2_000);
+        clock.advance(delay);
+        assertEquals(6, tries.size());
+        refuse();
+        assertEquals("failures were reset with the network", BACKOFF, controller.state());
+    }
+
+    @Test
+    public void lostConnectionWithoutNetworkWaitsForIt() {
+        controller(4).start();
+        controller.connected();
+        controller.networkLost();
+        controller.connectionLost(new IOException("no route"));
+        assertEquals(NO_NETWORK, controller.state());
+        controller.networkAvailable();
+        clock.advance(2_000);
+        assertEquals(2, tries.size());
+    }
+
+    @Test
+    public void stopCancelsThePendingAttempt() {
+        controller(5).start();
+        refuse();
+        controller.stop();
+        clock.advance(600_000);
+        assertEquals(1, tries.size());
+        assertEquals(STOPPED, controller.state());
+    }
+}
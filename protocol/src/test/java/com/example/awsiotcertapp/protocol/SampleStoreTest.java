@@ -0,0 +1,150 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class SampleStoreTest {
+
+    private static final SampleSchema SCHEMA = SampleSchema.loggerFrame(1, 2);
+
+    /** A two-channel logger frame with one sample per value of {@code first}, counting up, and 7 on the second channel. */
+    private static byte[] reading(int first, int samples) {
+        byte[] frame = new byte[2 + samples * 4];
+        frame[0] = 0x40;
+        for (int i = 0; i < samples; i++) {
+            SCHEMA.write(frame, 1 + i * 4, first + i);
+            SCHEMA.write(frame, 3 + i * 4, 7);
+        }
+        frame[frame.length - 1] = 0x4F;
+        return frame;
+    }
+
+    private static SampleStore store(int blockSamples, int maxSamples) {
+        SampleStore.Options opts = new SampleStore.Options();
+        opts.setBlockSamples(blockSamples);
+        opts.setMaxSamples(maxSamples);
+        return new SampleStore(SCHEMA, opts);
+    }
+
+    @Test
+    public void rangeQueryIsHalfOpenAndSpansBlocks() {
+        SampleStore store = store(4, 1_000);
+        for (int t = 0; t < 20; t++) {
+            byte[] r = reading(t, 1);
+            store.append(1_000 + t * 10, r, 0, r.length);
+        }
+
+        SampleStore.Window w = store.query(1_030, 1_100);
+        assertEquals(7, w.size());
+        assertEquals(1_030, w.times[0]);
+        assertEquals(1_090, w.times[6]);
+        assertEquals(3, w.values[0][0]);
+        assertEquals(9, w.values[0][6]);
+        assertEquals(7, w.values[1][3]);
+
+        assertEquals(0, store.query(0, 1_000).size());
+        assertEquals(0, store.query(1_191, 5_000).size());
+        assertEquals(20, store.query(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(3, store.recent(20).size());
+    }
+
+    @Test
+    public void samplesOfOneReadingAreSpacedBackFromItsArrival() {
+        SampleStore.Options opts = new SampleStore.Options();
+        opts.setSamplePeriodMs(100);
+        SampleStore store = new SampleStore(SCHEMA, opts);
+        byte[] r = reading(0, 3);
+        assertEquals(3, store.append(5_000, r, 0, r.length));
+
+        assertArrayEquals(new long[]{4_800, 4_900, 5_000}, store.query(0, 10_000).times);
+    }
+
+    @Test
+    public void timeNeverGoesBackwards() {
+        SampleStore store = store(4, 1_000);
+        byte[] r = reading(0, 1);
+        store.append(2_000, r, 0, r.length);
+        store.append(1_500, r, 0, r.length);
+        store.append(2_100, r, 0, r.length);
+
+        assertArrayEquals(new long[]{2_000, 2_000, 2_100}, store.query(0, 10_000).times);
+    }
+
+    @Test
+    public void oldestBlocksGoFirstOnceTheStoreIsFull() {
+        SampleStore store = store(4, 10);
+        for (int t = 0; t < 30; t++) {
+            byte[] r = reading(t, 1);
+            store.append(t, r, 0, r.length);
+        }
+
+        assertTrue(store.size() <= 10);
+        assertTrue(store.size() > 10 - 4);
+        assertEquals(30 - store.size(), store.evicted());
+        SampleStore.Window w = store.query(0, 100);
+        assertEquals(29, w.values[0][w.size() - 1]);
+        assertEquals(store.firstTime(), w.times[0]);
+    }
+
+    @Test
+    public void blocksAgeOut() {
+        SampleStore.Options opts = new SampleStore.Options();
+        opts.setBlockSamples(2);
+        opts.setMaxAgeMs(1_000);
+        SampleStore store = new SampleStore(SCHEMA, opts);
+        byte[] r = reading(0, 1);
+        for (int t = 0; t < 4; t++) store.append(t * 100, r, 0, r.length);
+
+        store.evict(1_150);
+        assertEquals(2, store.size());
+        assertEquals(200, store.firstTime());
+
+        store.evict(10_000);
+        assertEquals(0, store.size());
+        assertEquals(-1, store.lastTime());
+    }
+
+    @Test
+    public void valuesReadBackWithTheirSignAndWidth() {
+        SampleSchema words = new SampleSchema(3, 0, 0, 1, 4, false, true);
+        SampleStore store = new SampleStore(words, new SampleStore.Options());
+        byte[] r = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFE};
+        store.append(1, r, 0, r.length);
+        assertEquals(0xFFFFFFFEL, store.query(0, 2).values[0][0]);
+
+        SampleSchema signedBytes = new SampleSchema(3, 0, 0, 2, 1, true, true);
+        store = new SampleStore(signedBytes, new SampleStore.Options());
+        r = new byte[]{(byte) 0xFE, 0x7F};
+        store.append(1, r, 0, r.length);
+        SampleStore.Window w = store.query(0, 2);
+        assertEquals(-2, w.values[0][0]);
+        assertEquals(127, w.values[1][0]);
+    }
+
+    @Test
+    public void windowAsJson() {
+        SampleStore store = store(16, 1_000);
+        byte[] r = reading(1, 2);
+        store.append(1_000, r, 0, r.length);
+        store.append(1_250, r, 0, r.length);
+
+        String json = new String(store.query(0, 2_000).toJson(), StandardCharsets.US_ASCII);
+        assertEquals("{\"v\":1,\"n\":4,\"t0\":1000,\"dt\":[0,0,250,0],\"ch\":[[1,2,1,2],[7,7,7,7]]}", json);
+        assertEquals("{\"v\":1,\"n\":0,\"t0\":0,\"dt\":[],\"ch\":[[],[]]}",
+                new String(store.query(0, 0).toJson(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void aFullStoreStaysSmall() {
+        SampleStore store = store(1024, 64 * 1024);
+        byte[] r = reading(2_000, 64);
+        for (long t = 0; t < 4_000; t++) store.append(t * 1_000, r, 0, r.length);
+
+        // Two 16-bit columns and about a byte of timestamp per sample.
+        assertTrue(store.toString(), store.memoryBytes() <= 5L * 64 * 1024 + 64 * 64);
+        assertEquals(64 * 1024, store.size());
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SegmentLogTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasAppended() throws Exception {
+        try (SegmentLog log = new SegmentLog(tmp.getRoot(), 1 << 20, 4096)) {
+            log.append("bt/data", new byte[]{1, 2, 3}, 0, 3);
+            log.append("bt/other", new byte[]{9, 8, 7, 6}, 1, 2);
+
+            List<SegmentLog.Record> batch = log.readBatch(10);
+            assertEquals(2, batch.size());
+            assertEquals("bt/data", batch.get(0).topic);
+            assertArrayEquals(new byte[]{1, 2, 3}, batch.get(0).payload);
+            assertEquals("bt/other", batch.get(1).topic);
+            assertArrayEquals(new byte[]{8, 7}, batch.get(1).payload);
+            assertTrue(log.readBatch(10).isEmpty());
+        }
+    }
+
+    @Test
+    public void resumesFromCheckpointAfterReopen() throws Exception {
+        File dir = tmp.getRoot();
+        try (SegmentLog log = new SegmentLog(dir, 1 << 20, 4096)) {
+            for (int i = 0; i < 5; i++) log.append("t", new byte[]{(byte) i}, 0, 1);
+            List<SegmentLog.Record> batch = log.readBatch(2);
+            log.commit(batch.get(1));
+            log.readBatch(2); // handed out but never acknowledged
+        }
+        try (SegmentLog log = new SegmentLog(dir, 1 << 20, 4096)) {
+            assertEquals(3, log.pendingRecords());
+            List<SegmentLog.Record> batch = log.readBatch(10);
+            assertEquals(3, batch.size());
+            assertEquals(2, batch.get(0).payload[0]);
+            log.append("t", new byte[]{5}, 0, 1);
+            assertEquals(5, log.readBatch(10).get(0).payload[0]);
+        }
+    }
+
+    @Test
+    public void rewindRedeliversUncommitted() throws Exception {
+        try (SegmentLog log = new SegmentLog(tmp.getRoot(), 1 << 20, 4096)) {
+            log.append("t", new byte[]{1}, 0, 1);
+            log.readBatch(10);
+            log.rewind();
+            assertEquals(1, log.readBatch(10).size());
+        }
+    }
+
+    @Test
+    public void holdsLargeBacklogAcrossSegments() throws Exception {
+        byte[] reading = new byte[24];
+        try (SegmentLog log = new SegmentLog(tmp.getRoot(), 64L << 20, 1 << 20)) {
+            for (int i = 0; i < 200_000; i++) {
+                reading[0] = (byte) i;
+                assertTrue(log.append("bt/data", reading, 0, reading.length));
+            }
+            assertEquals(200_000, log.pendingRecords());
+            assertTrue(log.segmentCount() > 1);
+
+            int read = 0;
+            List<SegmentLog.Record> batch;
+            while (!(batch = log.readBatch(1000)).isEmpty()) {
+                assertEquals((byte) read, batch.get(0).payload[0]);
+                read += batch.size();
+                log.commit(batch.get(batch.size() - 1));
+            }
+            assertEquals(200_000, read);
+            assertEquals(0, log.pendingRecords());
+            assertEquals(1, log.segmentCount());
+        }
+    }
+
+    @Test
+    public void dropsOldestSegmentWhenFull() throws Exception {
+        try (SegmentLog log = new SegmentLog(tmp.getRoot(), 2048, 1024)) {
+            for (int i = 0; i < 100; i++) log.append("t", new byte[40], 0, 40);
+
+            assertEquals(2, log.segmentCount());
+            assertTrue(log.droppedRecords() > 0);
+            assertEquals(100 - log.droppedRecords(), log.pendingRecords());
+            int read = 0;
+            List<SegmentLog.Record> batch;
+            while (!(batch = log.readBatch(1000)).isEmpty()) read += batch.size();
+            assertEquals(log.pendingRecords(), read);
+        }
+    }
+
+    @Test
+    public void forwardsBacklogOnceOnline() throws Exception {
+        ConcurrentLinkedQueue<Byte> sent = new ConcurrentLinkedQueue<>();
+        boolean[] failFirst = {true};
+        SegmentLog log = new SegmentLog(tmp.getRoot(), 1 << 20, 4096);
+        try (StoreAndForward sf = new StoreAndForward(log, (topic, payload, done) -> {
+            if (failFirst[0]) {
+                failFirst[0] = false;
+                done.onComplete(new RuntimeException("no PUBACK"));
+                return;
+            }
+            sent.add(payload[0]);
+            done.onComplete(null);
+        }, 10, 1000, 10)) {
+            for (int i = 0; i < 25; i++) sf.submit("t", new byte[]{(byte) i}, 0, 1);
+            Thread.sleep(50);
+            assertTrue("nothing is sent while offline", sent.isEmpty());
+
+            sf.setOnline(true);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (sf.delivered() < 25 && System.nanoTime() < deadline) Thread.sleep(5);
+
+            assertEquals(25, sf.delivered());
+            assertEquals(0, sf.pending());
+            // The failed first batch is sent again in full, so every reading arrives at least once.
+            for (int i = 0; i < 25; i++) assertTrue(sent.contains((byte) i));
+        }
+    }
+
+    @Test
+    public void sequencedResendSkipsWhatWasAcknowledged() throws Exception {
+        List<Long> sent = new CopyOnWriteArrayList<>();
+        boolean[] failSecond = {true};
+        Sequencer seq = new Sequencer(1, 64, null);
+        SegmentLog log = new SegmentLog(tmp.getRoot(), 1 << 20, 4096);
+        try (StoreAndForward sf = new StoreAndForward(log, (topic, payload, done) -> {
+            long n = Sequencer.read(payload).sequence;
+            sent.add(n);
+            if (n == 1 && failSecond[0]) {
+                failSecond[0] = false;
+                done.onComplete(new RuntimeException("no PUBACK"));
+            } else {
+                done.onComplete(null);
+            }
+        }, 5, 1000, 10)) {
+            sf.setSequencer(seq);
+            for (int i = 0; i < 5; i++) sf.submit("t", new byte[]{(byte) i}, 0, 1);
+            sf.setOnline(true);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (sf.delivered() < 5 && System.nanoTime() < deadline) Thread.sleep(5);
+
+            assertEquals(5, sf.delivered());
+            assertEquals(0, seq.unacked("t"));
+            // Only the message that failed goes out twice.
+            assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 1L), sent);
+        }
+    }
+}
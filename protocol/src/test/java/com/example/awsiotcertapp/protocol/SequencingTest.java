@@ -0,0 +1,150 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SequencingTest {
+
+    @Test
+    public void inOrderNumbersOnlyMoveTheBase() {
+        SequenceWindow w = new SequenceWindow(64, 0);
+        for (long i = 0; i < 1_000; i++) assertTrue(w.add(i));
+
+        assertEquals(1_000, w.base());
+        assertEquals(0, w.sizeAboveBase());
+        assertFalse(w.add(999));
+    }
+
+    @Test
+    public void outOfOrderNumbersFillTheGap() {
+        SequenceWindow w = new SequenceWindow(64, 0);
+        assertTrue(w.add(2));
+        assertTrue(w.add(1));
+        assertFalse(w.add(2));
+        assertEquals(0, w.base());
+        assertEquals(2, w.sizeAboveBase());
+
+        assertTrue(w.add(0));
+        assertEquals(3, w.base());
+        assertEquals(0, w.sizeAboveBase());
+    }
+
+    @Test
+    public void farAheadNumberSlidesAndGivesUpTheGap() {
+        SequenceWindow w = new SequenceWindow(64, 0);
+        w.add(0);
+        w.add(5);
+        assertTrue(w.add(100)); // window is now [37, 101)
+
+        assertEquals(37, w.base());
+        assertEquals(35, w.skipped()); // 1..36 except 5
+        assertTrue(w.contains(20));
+        assertFalse(w.contains(50));
+        assertFalse(w.add(30));
+        assertTrue(w.add(50));
+    }
+
+    @Test
+    public void jumpPastTheWholeWindowClearsIt() {
+        SequenceWindow w = new SequenceWindow(64, 0);
+        w.add(3);
+        w.add(10_000);
+
+        assertEquals(10_000 - 63, w.base());
+        assertEquals(1, w.sizeAboveBase());
+        assertFalse(w.contains(10_000 - 62));
+    }
+
+    @Test
+    public void stampRoundTripsAndNumbersEachDeviceOnItsOwn() {
+        Sequencer seq = new Sequencer(1_700_000_000L, 64, null);
+        byte[] a0 = seq.stamp("a", new byte[]{9, 1, 2, 9}, 1, 2);
+        byte[] a1 = seq.stamp("a", new byte[]{3}, 0, 1);
+        byte[] b0 = seq.stamp("b", new byte[]{4}, 0, 1);
+
+        Sequencer.Stamp s = Sequencer.read(a0);
+        assertEquals(1_700_000_000L, s.epoch);
+        assertEquals(0, s.sequence);
+        assertEquals(1, a0[s.offset]);
+        assertEquals(a0.length - 2, s.offset);
+        assertEquals(1, Sequencer.read(a1).sequence);
+        assertEquals(0, Sequencer.read(b0).sequence);
+        assertNull(Sequencer.read(new byte[]{0x40, 1, 0x4F}));
+    }
+
+    @Test
+    public void acknowledgementsAreTrackedBySequence() {
+        List<Long> delivered = new ArrayList<>();
+        Sequencer seq = new Sequencer(7, 64, (device, sequence) -> delivered.add(sequence));
+        byte[][] sent = new byte[4][];
+        for (int i = 0; i < sent.length; i++) sent[i] = seq.stamp("a", new byte[]{(byte) i}, 0, 1);
+        assertEquals(4, seq.unacked("a"));
+
+        seq.acked("a", sent[2]);
+        seq.acked("a", sent[0]);
+
+        assertEquals(2, seq.unacked("a"));
+        assertEquals(1, seq.oldestUnacked("a"));
+        assertTrue(seq.isAcked("a", sent[2]));
+        assertFalse(seq.isAcked("a", sent[1]));
+        assertFalse("another device", seq.isAcked("b", sent[0]));
+        assertEquals(2, (long) delivered.get(0));
+
+        Sequencer nextRun = new Sequencer(8, 64, null);
+        nextRun.acked("a", sent[1]);
+        assertFalse("another epoch", nextRun.isAcked("a", sent[1]));
+    }
+
+    @Test
+    public void repeatsAreDroppedPerDeviceAndEpoch() {
+        Deduplicator dedup = new Deduplicator(64, 4);
+        assertTrue(dedup.firstDelivery("a", 1, 500)); // a receiver can join mid-stream
+        assertTrue(dedup.firstDelivery("a", 1, 502));
+        assertTrue(dedup.firstDelivery("b", 1, 500));
+        assertTrue(dedup.firstDelivery("a", 2, 500));
+        assertFalse(dedup.firstDelivery("a", 1, 500));
+        assertFalse(dedup.firstDelivery("a", 1, 502));
+        assertTrue(dedup.firstDelivery("a", 1, 501));
+
+        assertEquals(2, dedup.duplicates());
+    }
+
+    @Test
+    public void numbersBelowTheFirstOneSeenAreStillDelivered() {
+        Deduplicator dedup = new Deduplicator(64, 4);
+        assertTrue(dedup.firstDelivery("a", 1, 2)); // overtook 0 and 1
+        assertTrue(dedup.firstDelivery("a", 1, 0));
+        assertTrue(dedup.firstDelivery("a", 1, 1));
+        assertFalse(dedup.firstDelivery("a", 1, 0));
+
+        assertTrue(dedup.firstDelivery("b", 1, 501)); // joined mid-stream
+        assertTrue(dedup.firstDelivery("b", 1, 500));
+        assertEquals(1, dedup.duplicates());
+    }
+
+    @Test
+    public void filterStripsTheStampAndPassesUnstampedMessages() {
+        Sequencer seq = new Sequencer(1, 64, null);
+        Deduplicator dedup = new Deduplicator(64, 4);
+        List<byte[]> received = new ArrayList<>();
+        TopicRouter.Handler handler = dedup.filter((topic, payload) -> {
+            byte[] b = new byte[payload.remaining()];
+            payload.get(b);
+            received.add(b);
+        });
+        byte[] first = seq.stamp("bt/data", new byte[]{0x40, 5, 0x4F}, 0, 3);
+
+        handler.onMessage("bt/data", ByteBuffer.wrap(first));
+        handler.onMessage("bt/data", ByteBuffer.wrap(first));
+        handler.onMessage("bt/data", ByteBuffer.wrap(new byte[]{0x40, 6, 0x4F}));
+
+        assertEquals(2, received.size());
+        assertArrayEquals(new byte[]{0x40, 5, 0x4F}, received.get(0));
+        assertArrayEquals(new byte[]{0x40, 6, 0x4F}, received.get(1));
+    }
+}
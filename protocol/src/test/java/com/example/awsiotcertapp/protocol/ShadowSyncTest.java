@@ -0,0 +1,237 @@
+package com.example.awsiotcertapp.protocol;
+
+import com.example.awsiotcertapp.protocol.bench.EmbeddedBroker;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShadowSyncTest {
+
+    /** A message on its way; the test decides when, and whether, it arrives. */
+    private static final class Sent {
+        final String topic;
+        final byte[] payload;
+
+        Sent(String topic, byte[] payload) {
+            this.topic   = topic;
+            this.payload = payload;
+        }
+
+        @Override public String toString() {
+            return topic + " " + new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final List<Sent> toGateway    = new ArrayList<>();
+    private final List<Sent> toController = new ArrayList<>();
+    private final List<String> heard      = new ArrayList<>();
+
+    private final ShadowSync controller = sync(ShadowSync.Role.CONTROLLER, toGateway, (device, delta) -> { });
+    private final ShadowSync gateway    = sync(ShadowSync.Role.GATEWAY, toController,
+            (device, delta) -> heard.add(device + " " + Json.write(delta)));
+
+    private ShadowSync sync(ShadowSync.Role role, List<Sent> outbox, ShadowSync.Listener listener) {
+        ShadowSync.Options opts = new ShadowSync.Options();
+        opts.setCoalesceMs(100);
+        return new ShadowSync("shadow", role, (topic, payload) -> outbox.add(new Sent(topic, payload)),
+                scheduler, opts, listener);
+    }
+
+    private static void deliver(List<Sent> outbox, ShadowSync to) {
+        List<Sent> now = new ArrayList<>(outbox);
+        outbox.clear();
+        for (Sent s : now) to.onMessage(s.topic, ByteBuffer.wrap(s.payload));
+    }
+
+    private static Map<String, Object> doc(Object... pairs) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) m.put((String) pairs[i], pairs[i + 1]);
+        return m;
+    }
+
+    @Test
+    public void updatesWithinTheWindowGoOutAsOnePatch() {
+        for (int poll = 1000; poll <= 5000; poll += 1000) controller.update("gw", doc("pollMs", poll));
+        controller.update("gw", doc("tz", "UTC"));
+        scheduler.advance(99);
+        assertTrue(toGateway.isEmpty());
+
+        scheduler.advance(1);
+        assertEquals(1, toGateway.size());
+        assertEquals("shadow/gw/desired {\"v\":1,\"state\":{\"pollMs\":5000,\"tz\":\"UTC\"}}", toGateway.get(0).toString());
+        deliver(toGateway, gateway);
+
+        assertEquals(Collections.singletonList("gw {\"pollMs\":5000,\"tz\":\"UTC\"}"), heard);
+        assertEquals(doc("pollMs", 5000L, "tz", "UTC"), gateway.followed("gw"));
+    }
+
+    @Test
+    public void aValueChangedAndChangedBackSendsNothing() {
+        controller.update("gw", doc("pollMs", 1000));
+        scheduler.advance(100);
+        deliver(toGateway, gateway);
+        heard.clear();
+
+        controller.update("gw", doc("pollMs", 2000));
+        controller.update("gw", doc("pollMs", 1000));
+        assertFalse("no change at all", controller.update("gw", doc("pollMs", 1000)));
+        scheduler.advance(1000);
+
+        assertTrue(toGateway.isEmpty());
+        assertEquals(1, controller.stats().publishes);
+    }
+
+    @Test
+    public void nestedObjectsMergeAndNullRemovesAKey() {
+        controller.update("logger-1", doc("clock", doc("tz", "CET", "dst", true), "label", "freezer"));
+        scheduler.advance(100);
+        deliver(toGateway, gateway);
+        heard.clear();
+
+        controller.update("logger-1", doc("clock", doc("dst", false), "label", null));
+        scheduler.advance(100);
+        assertEquals("shadow/logger-1/desired {\"v\":2,\"state\":{\"label\":null,\"clock\":{\"dst\":false}}}",
+                toGateway.get(0).toString());
+        deliver(toGateway, gateway);
+
+        assertEquals(Collections.singletonList("logger-1 {\"label\":null,\"clock\":{\"dst\":false}}"), heard);
+        assertEquals(doc("clock", doc("tz", "CET", "dst", false)), gateway.followed("logger-1"));
+    }
+
+    @Test
+    public void aMissedPatchIsRepairedWithTheWholeDocument() {
+        controller.update("gw", doc("pollMs", 1000, "tz", "UTC"));
+        scheduler.advance(100);
+        deliver(toGateway, gateway);
+        controller.update("gw", doc("pollMs", 2000));
+        scheduler.advance(100);
+        toGateway.clear(); // lost
+        heard.clear();
+
+        controller.update("gw", doc("tz", "CET"));
+        scheduler.advance(100);
+        deliver(toGateway, gateway);
+        assertTrue("a gap is not applied", heard.isEmpty());
+        assertEquals("shadow/gw/desired/get ", toController.get(0).toString());
+
+        deliver(toController, controller);
+        assertTrue(toGateway.get(0).toString().contains("\"full\":true"));
+        deliver(toGateway, gateway);
+
+        assertEquals(Collections.singletonList("gw {\"pollMs\":2000,\"tz\":\"CET\"}"), heard);
+        assertEquals(controller.owned("gw"), gateway.followed("gw"));
+        assertEquals(1, gateway.stats().resyncs);
+    }
+
+    @Test
+    public void aRepeatedPatchIsIgnored() {
+        controller.update("gw", doc("pollMs", 1000));
+        scheduler.advance(100);
+        Sent first = toGateway.get(0);
+        deliver(toGateway, gateway);
+        gateway.onMessage(first.topic, ByteBuffer.wrap(first.payload));
+
+        assertEquals(1, heard.size());
+        assertTrue(toController.isEmpty());
+    }
+
+    @Test
+    public void patchesCostLessThanWholeDocuments() {
+        for (int i = 0; i < 20; i++) controller.update("gw", doc("label", "gateway in the cold store", "pollMs", 1000 + i));
+        scheduler.advance(100);
+        for (int i = 0; i < 20; i++) {
+            controller.update("gw", doc("pollMs", 5000 + i));
+            scheduler.advance(100);
+        }
+
+        ShadowSync.Stats stats = controller.stats();
+        assertEquals(40, stats.updates);
+        assertEquals(21, stats.publishes);
+        assertTrue(stats.toString(), stats.saved() > 0.5);
+    }
+
+    @Test
+    public void onlyLoggersWhoseSettingsChangedHearAboutIt() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        BlockingQueue<String> changed = new ArrayBlockingQueue<>(16);
+        try (EmbeddedBroker broker = EmbeddedBroker.withTestCertificates(11)) {
+            broker.start();
+            ShadowSync.Options opts = new ShadowSync.Options();
+            opts.setCoalesceMs(20);
+            MqttAsyncClient[] clients = new MqttAsyncClient[2];
+            ShadowSync[] syncs = new ShadowSync[2];
+            ShadowSync.Role[] roles = {ShadowSync.Role.CONTROLLER, ShadowSync.Role.GATEWAY};
+            for (int i = 0; i < 2; i++) {
+                MqttAsyncClient c = clients[i] = new MqttAsyncClient(broker.uri(), roles[i].name(), new MemoryPersistence());
+                syncs[i] = new ShadowSync("shadow", roles[i], (topic, payload) -> publish(c, topic, payload),
+                        ReconnectController.scheduler(timer), opts,
+                        (device, delta) -> changed.add(device + " " + Json.write(delta)));
+                ShadowSync sync = syncs[i];
+                c.setCallback(new MqttCallback() {
+                    @Override public void connectionLost(Throwable cause) { }
+
+                    @Override public void messageArrived(String topic, MqttMessage message) {
+                        sync.onMessage(topic, ByteBuffer.wrap(message.getPayload()));
+                    }
+
+                    @Override public void deliveryComplete(IMqttDeliveryToken token) { }
+                });
+                MqttConnectOptions connect = new MqttConnectOptions();
+                connect.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
+                connect.setSocketFactory(EmbeddedBroker.testClientContext().getSocketFactory());
+                c.connect(connect).waitForCompletion(5_000);
+                for (String filter : sync.filters()) c.subscribe(filter, 1).waitForCompletion(5_000);
+            }
+            ShadowSync controller = syncs[0];
+
+            for (int i = 1; i <= 3; i++) controller.update("logger-" + i, doc("clock", doc("tz", "UTC")));
+            for (int i = 0; i < 3; i++) assertNotNull(changed.poll(5, TimeUnit.SECONDS));
+            controller.update("logger-1", doc("clock", doc("tz", "UTC")));
+            controller.update("logger-2", doc("clock", doc("tz", "CET")));
+            controller.update("logger-3", doc("clock", doc("tz", "EET")));
+            controller.update("logger-3", doc("clock", doc("tz", "UTC")));
+
+            assertEquals("logger-2 {\"clock\":{\"tz\":\"CET\"}}", changed.poll(5, TimeUnit.SECONDS));
+            assertNull(changed.poll(300, TimeUnit.MILLISECONDS));
+            assertEquals(4, controller.stats().publishes);
+
+            for (MqttAsyncClient c : clients) {
+                c.disconnect().waitForCompletion(5_000);
+                c.close();
+            }
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    private static boolean publish(MqttAsyncClient client, String topic, byte[] payload) {
+        try {
+            client.publish(topic, payload, 1, false);
+            return true;
+        } catch (MqttException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A logger behind an imperfect link, for throughput and retry tests on a plain JVM. It speaks the
+ * same protocol as {@link FakeLoggerDevice}: the 0x50 time sync, 0x40 data and checksum
+ * requests and the chunked transfer. Everything it sends goes through a model of the link:
+ * <ul>
+ *   <li>a round-trip latency before the first byte of each reply,</li>
+ *   <li>a bandwidth that spaces the bytes out, so large payloads take as long as on the real link,</li>
+ *   <li>fragmentation into random pieces of 1 to {@link Options#setMaxFragmentBytes} bytes,</li>
+ *   <li>corruption: each byte has one bit flipped with the given probability.</li>
+ * </ul>
+ * Given a {@link SessionCapture}, it instead replays the recorded replies to each command, with
+ * their recorded timing and fragmentation; only corruption still applies. Random choices come from
+ * one seeded generator, so a run with the same options damages the same bytes.
+ */
+public final class SimulatedLogger implements Runnable {
+
+    public static final class Options {
+        int     payloadBytes     = 814;
+        long    latencyMs;
+        long    bytesPerSecond;
+        int     maxFragmentBytes;
+        double  corruptionRate;
+        long    seed             = 1;
+        List<SessionCapture.Entry> replay;
+
+        /** Length of the data frame, markers included. */
+        public void setPayloadBytes(int bytes)       { this.payloadBytes = bytes; }
+        public void setLatencyMs(long ms)            { this.latencyMs = ms; }
+
+        /** 0 (the default) for no limit. */
+        public void setBytesPerSecond(long rate)     { this.bytesPerSecond = rate; }
+
+        /** 0 (the default) sends every reply in one piece. */
+        public void setMaxFragmentBytes(int bytes)   { this.maxFragmentBytes = bytes; }
+
+        /** Probability that any one byte sent to the host arrives damaged. */
+        public void setCorruptionRate(double rate)   { this.corruptionRate = rate; }
+        public void setSeed(long seed)               { this.seed = seed; }
+
+        /** Replay these recorded replies instead of generating them. */
+        public void setReplay(List<SessionCapture.Entry> capture) { this.replay = capture; }
+    }
+
+    private final BytePipe toDevice   = new BytePipe();
+    private final BytePipe fromDevice = new BytePipe();
+    private final Options  opts;
+    private final byte[]   payload;
+    private final Random   random;
+    /** Bytes on their way to the host, in the order they were sent; the link never reorders. */
+    private final BlockingQueue<InFlight> wire = new LinkedBlockingQueue<>();
+    private final Thread                  wireThread;
+    private final AtomicLong commands   = new AtomicLong();
+    private final AtomicLong bytesSent  = new AtomicLong();
+    private final AtomicLong corrupted  = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+
+    private long busyUntilNanos;
+    private int  chunkSize;
+    private int  replayAt;
+
+    public SimulatedLogger(Options opts) {
+        this.opts    = opts;
+        this.payload = payload(opts.payloadBytes);
+        this.random  = new Random(opts.seed);
+        Thread thread = new Thread(this, "simulated-logger");
+        thread.setDaemon(true);
+        thread.start();
+        wireThread = new Thread(this::transmit, "simulated-link");
+        wireThread.setDaemon(true);
+        wireThread.start();
+    }
+
+    private static final class InFlight {
+        final byte[] bytes;
+        final long   dueNanos;
+
+        InFlight(byte[] bytes, long dueNanos) {
+            this.bytes    = bytes;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    /**
+     * A data frame of {@code bytes} bytes whose contents hold both data frame markers, once there
+     * are a few hundred, and whose checksum is {@code 0x4F}, as a real logger's may.
+     */
+    public static byte[] payload(int bytes) {
+        byte[] frame = new byte[bytes];
+        int sum = 0;
+        for (int i = 1; i < frame.length - 1; i++) {
+            frame[i] = (byte) (i * 31 + 7);
+            sum += frame[i] & 0xFF;
+        }
+        if (bytes > 2) frame[bytes - 2] += (byte) (0x4F - sum);
+        frame[0] = 0x40;
+        frame[frame.length - 1] = 0x4F;
+        return frame;
+    }
+
+    /** Connects every address to a fresh logger of its own; {@code created} receives each one. */
+    public static DeviceConnectionManager.Connector connector(Options opts, List<SimulatedLogger> created) {
+        return address -> {
+            SimulatedLogger device = new SimulatedLogger(opts);
+            if (created != null) {
+                synchronized (created) {
+                    created.add(device);
+                }
+            }
+            return device.link();
+        };
+    }
+
+    public DeviceConnectionManager.Link link() {
+        return new DeviceConnectionManager.Link() {
+            @Override public InputStream input() { return fromDevice.in; }
+            @Override public OutputStream output() { return toDevice.out; }
+            @Override public void close() { SimulatedLogger.this.close(); }
+        };
+    }
+
+    public byte[] payload() {
+        return payload.clone();
+    }
+
+    public long commandsReceived() { return commands.get(); }
+    public long bytesSent()        { return bytesSent.get(); }
+    public long bytesCorrupted()   { return corrupted.get(); }
+    /** Commands that differed from the capture being replayed, or came after its end. */
+    public long replayMismatches() { return mismatches.get(); }
+
+    public void close() {
+        wireThread.interrupt();
+        toDevice.close();
+        fromDevice.close();
+    }
+
+    @Override public void run() {
+        FrameDecoder decoder = new FrameDecoder(64, this::onCommand);
+        try {
+            while (decoder.readFrom(toDevice.in) >= 0) { }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private synchronized void onCommand(Frame cmd) {
+        commands.incrementAndGet();
+        if (opts.replay != null) {
+            replay(cmd);
+        } else if (cmd.isTimeFrame()) {
+            send(new byte[]{0x50, 0x02, 0x5F});
+        } else if (cmd.get(1) == 0x01 || cmd.get(1) == 0x04) {
+            send(payload);
+        } else if (cmd.get(1) == 0x02) {
+            int sum = 0;
+            for (int i = 1; i < payload.length - 1; i++) sum += payload[i] & 0xFF;
+            send(new byte[]{0x40, (byte) sum, 0x4F});
+        } else if (cmd.get(1) == ChunkedTransfer.START) {
+            chunkSize = ChunkedTransfer.number(cmd);
+            sendChunk(0);
+        } else if (cmd.get(1) == ChunkedTransfer.FETCH && chunkSize > 0) {
+            sendChunk(ChunkedTransfer.number(cmd));
+        }
+    }
+
+    private void sendChunk(int index) {
+        if (index * chunkSize < Math.max(payload.length, 1)) send(ChunkedTransfer.encodeChunk(payload, index, chunkSize));
+    }
+
+    /**
+     * Matches {@code cmd} with the next command in the capture and plays the replies recorded after
+     * it, each as long after now as it came after the command. Time syncs only have to be time
+     * syncs: their date differs on every run.
+     */
+    private void replay(Frame cmd) {
+        List<SessionCapture.Entry> capture = opts.replay;
+        while (replayAt < capture.size() && !capture.get(replayAt).fromHost) replayAt++;
+        if (replayAt == capture.size()) {
+            mismatches.incrementAndGet();
+            return;
+        }
+        SessionCapture.Entry recorded = capture.get(replayAt++);
+        byte[] expected = recorded.bytes;
+        boolean same = cmd.isTimeFrame()
+                ? expected.length > 0 && expected[0] == 0x50
+                : Arrays.equals(cmd.toByteArray(), expected);
+        if (!same) mismatches.incrementAndGet();
+        long now = System.nanoTime();
+        for (; replayAt < capture.size() && !capture.get(replayAt).fromHost; replayAt++) {
+            SessionCapture.Entry reply = capture.get(replayAt);
+            deliver(corrupt(reply.bytes.clone()), now + TimeUnit.MILLISECONDS.toNanos(reply.atMillis - recorded.atMillis));
+        }
+    }
+
+    /** Through the link model: latency, then the bytes in fragments at the link's rate. */
+    private void send(byte[] reply) {
+        long at = Math.max(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(opts.latencyMs), busyUntilNanos);
+        for (int off = 0; off < reply.length; ) {
+            int n = opts.maxFragmentBytes <= 0 ? reply.length - off
+                    : Math.min(reply.length - off, 1 + random.nextInt(opts.maxFragmentBytes));
+            byte[] fragment = corrupt(Arrays.copyOfRange(reply, off, off + n));
+            if (opts.bytesPerSecond > 0) at += n * 1_000_000_000L / opts.bytesPerSecond;
+            deliver(fragment, at);
+            off += n;
+        }
+        busyUntilNanos = at;
+    }
+
+    private byte[] corrupt(byte[] bytes) {
+        if (opts.corruptionRate <= 0) return bytes;
+        for (int i = 0; i < bytes.length; i++) {
+            if (random.nextDouble() < opts.corruptionRate) {
+                bytes[i] ^= (byte) (1 << random.nextInt(8));
+                corrupted.incrementAndGet();
+            }
+        }
+        return bytes;
+    }
+
+    private void deliver(byte[] bytes, long dueNanos) {
+        wire.add(new InFlight(bytes, dueNanos));
+    }
+
+    private void transmit() {
+        try {
+            while (true) {
+                InFlight next = wire.take();
+                for (long wait; (wait = next.dueNanos - System.nanoTime()) > 0; ) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                fromDevice.out.write(next.bytes);
+                bytesSent.addAndGet(next.bytes.length);
+            }
+        } catch (InterruptedException | IOException closed) {
+            // closed
+        }
+    }
+}
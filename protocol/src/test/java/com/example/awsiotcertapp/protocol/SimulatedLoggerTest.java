@@ -0,0 +1,140 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SimulatedLoggerTest {
+
+    private final List<SimulatedLogger> devices = new ArrayList<>();
+    private final List<UartProtocolEngine> engines = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (UartProtocolEngine e : engines) e.close();
+        for (SimulatedLogger d : devices) d.close();
+    }
+
+    @Test
+    public void fragmentedRepliesAreReassembled() throws Exception {
+        SimulatedLogger.Options opts = new SimulatedLogger.Options();
+        opts.setMaxFragmentBytes(3);
+        SimulatedLogger device = device(opts);
+
+        assertArrayEquals(device.payload(), transfer(device.link(), new UartProtocolEngine.Options()).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void bandwidthBoundsTheTransferTime() throws Exception {
+        SimulatedLogger.Options opts = new SimulatedLogger.Options();
+        opts.setPayloadBytes(1_000);
+        opts.setBytesPerSecond(20_000); // 50 ms for the payload alone
+        SimulatedLogger device = device(opts);
+
+        long start = System.nanoTime();
+        transfer(device.link(), new UartProtocolEngine.Options(), 1_000).get(5, TimeUnit.SECONDS);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void corruptedChunksAreFetchedAgain() throws Exception {
+        SimulatedLogger.Options opts = new SimulatedLogger.Options();
+        opts.setPayloadBytes(2_000);
+        opts.setCorruptionRate(0.002);
+        opts.setSeed(3);
+        SimulatedLogger device = device(opts);
+        UartProtocolEngine.Options engine = new UartProtocolEngine.Options();
+        engine.setChunkSize(100);
+
+        assertArrayEquals(device.payload(), transfer(device.link(), engine, 2_000).get(10, TimeUnit.SECONDS));
+        assertTrue(device.bytesCorrupted() > 0);
+        // Time sync and one command per chunk when nothing is damaged.
+        assertTrue(device.commandsReceived() > 1 + 20);
+    }
+
+    @Test
+    public void capturedSessionReplaysToTheSamePayload() throws Exception {
+        SimulatedLogger.Options live = new SimulatedLogger.Options();
+        live.setMaxFragmentBytes(64);
+        live.setLatencyMs(5);
+        SimulatedLogger device = device(live);
+        StringWriter log = new StringWriter();
+        DeviceConnectionManager.Link recorded = SessionCapture.record(device.link(), log);
+        byte[] original = transfer(recorded, new UartProtocolEngine.Options()).get(5, TimeUnit.SECONDS);
+        recorded.close();
+
+        List<SessionCapture.Entry> capture = SessionCapture.read(new StringReader(log.toString()));
+        SimulatedLogger.Options replay = new SimulatedLogger.Options();
+        replay.setReplay(capture);
+        SimulatedLogger player = device(replay);
+
+        assertTrue(log.toString().startsWith(SessionCapture.HEADER));
+        assertTrue(capture.size() > 4); // at least sync, ACK, two requests and several fragments
+        assertArrayEquals(original, transfer(player.link(), new UartProtocolEngine.Options()).get(5, TimeUnit.SECONDS));
+        assertEquals(0, player.replayMismatches());
+    }
+
+    @Test
+    public void payloadsWithMarkersInsideSurviveFragmentation() throws Exception {
+        byte[] payload = SimulatedLogger.payload(814);
+        int markers = 0;
+        for (int i = 1; i < payload.length - 1; i++) {
+            if (payload[i] == 0x40 || payload[i] == 0x4F) markers++;
+        }
+        SimulatedLogger.Options opts = new SimulatedLogger.Options();
+        opts.setMaxFragmentBytes(5);
+        SimulatedLogger device = device(opts);
+        UartProtocolEngine.Options engine = new UartProtocolEngine.Options();
+        engine.setPipelineChecksum(true);
+
+        assertTrue(markers > 0);
+        assertArrayEquals(payload, transfer(device.link(), engine).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedCaptureLineIsRejected() throws Exception {
+        SessionCapture.read(new StringReader("12 ? 40014F\n"));
+    }
+
+    private SimulatedLogger device(SimulatedLogger.Options opts) {
+        SimulatedLogger d = new SimulatedLogger(opts);
+        devices.add(d);
+        return d;
+    }
+
+    /** Transfers the default-sized payload of {@link SimulatedLogger.Options}. */
+    private CompletableFuture<byte[]> transfer(DeviceConnectionManager.Link link, UartProtocolEngine.Options opts) throws IOException {
+        return transfer(link, opts, new SimulatedLogger.Options().payloadBytes);
+    }
+
+    private CompletableFuture<byte[]> transfer(DeviceConnectionManager.Link link, UartProtocolEngine.Options opts,
+                                               int payloadBytes) throws IOException {
+        CompletableFuture<byte[]> done = new CompletableFuture<>();
+        opts.setDataTimeoutMs(300);
+        opts.setPayloadLength(payloadBytes);
+        UartProtocolEngine engine = new UartProtocolEngine(link.input(), link.output(), opts, new UartProtocolEngine.Listener() {
+            @Override public void onStateChanged(UartProtocolEngine.State state) { }
+
+            @Override public void onTransferComplete(byte[] payload, long elapsedNanos) {
+                done.complete(payload);
+            }
+
+            @Override public void onTransferFailed(UartProtocolEngine.State state, String reason) {
+                done.completeExceptionally(new IOException(reason));
+            }
+        });
+        engines.add(engine);
+        engine.start();
+        return done;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+import static org.junit.Assert.*;
+
+public class SslContextCacheTest {
+
+    private final SslContextCache cache = new SslContextCache();
+    private byte[] ca;
+    private byte[] cert;
+    private byte[] key;
+
+    @Before
+    public void setUp() throws IOException {
+        ca   = resource("/tls/ca.crt");
+        cert = resource("/tls/client.crt");
+        key  = resource("/tls/client.key");
+    }
+
+    @Test
+    public void buildsOncePerCredentialSet() throws Exception {
+        SSLContext first = cache.get(ca, cert, key);
+        SSLContext second = cache.get(ca.clone(), cert.clone(), key.clone());
+
+        assertSame(first, second);
+        assertEquals("TLSv1.2", first.getProtocol());
+        assertEquals(SslContextCache.SESSION_CACHE_SIZE, first.getClientSessionContext().getSessionCacheSize());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void differentCredentialsGetDifferentContexts() throws Exception {
+        assertNotSame(cache.get(ca, cert, key), cache.get(cert, cert, key));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void concurrentPrewarmSharesOneBuild() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        AtomicInteger builds = new AtomicInteger();
+        try {
+            CompletableFuture<SSLContext> a = cache.getAsync(ca, cert, key, r -> {
+                builds.incrementAndGet();
+                pool.execute(r);
+            });
+            CompletableFuture<SSLContext> b = cache.getAsync(ca, cert, key, r -> {
+                builds.incrementAndGet();
+                pool.execute(r);
+            });
+            assertSame(a.get(), b.get());
+            assertEquals(1, builds.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedBuildIsNotCached() throws Exception {
+        try {
+            cache.get(ca, cert, "not a key".getBytes());
+            fail("expected failure");
+        } catch (GeneralSecurityException | IllegalArgumentException expected) {
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void pemDecodeMatchesKeyLength() throws Exception {
+        byte[] der = Pem.decode(key);
+        assertEquals(0x30, der[0] & 0xFF); // DER SEQUENCE
+        int len = ((der[2] & 0xFF) << 8) | (der[3] & 0xFF);
+        assertEquals(len + 4, der.length);
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        try (InputStream in = SslContextCacheTest.class.getResourceAsStream(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+            return out.toByteArray();
+        }
+    }
+}
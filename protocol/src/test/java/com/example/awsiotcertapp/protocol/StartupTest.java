@@ -0,0 +1,109 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StartupTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+    private final Metrics metrics = new Metrics(true);
+    private final Startup startup = new Startup(pool, metrics);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void aPartStartsWhenFirstAskedForAndOnlyOnce() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        Startup.Part<String> part = startup.add("config", () -> {
+            runs.incrementAndGet();
+            return "ready";
+        });
+        Thread.sleep(20);
+        assertEquals(0, runs.get());
+        assertFalse(part.isReady());
+
+        assertEquals("ready", part.get().get(1, TimeUnit.SECONDS));
+        startup.startAll();
+        assertEquals("ready", part.get().get(1, TimeUnit.SECONDS));
+
+        assertEquals(1, runs.get());
+        assertTrue(part.isReady());
+        assertEquals(1, metrics.histogram("startup.config").count());
+    }
+
+    @Test
+    public void independentPartsRunSideBySide() throws Exception {
+        CountDownLatch both = new CountDownLatch(2);
+        Startup.Init<Boolean> meet = () -> {
+            both.countDown();
+            return both.await(1, TimeUnit.SECONDS);
+        };
+        Startup.Part<Boolean> a = startup.add("a", meet);
+        Startup.Part<Boolean> b = startup.add("b", meet);
+
+        startup.startAll();
+
+        assertTrue(a.get().get(2, TimeUnit.SECONDS));
+        assertTrue(b.get().get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void aDependentPartWaitsForItsDependency() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Startup.Part<Integer> port = startup.add("port", () -> {
+            release.await();
+            return 8883;
+        });
+        Startup.Part<String> uri = startup.add("uri", port, p -> () -> "ssl://broker:" + p);
+
+        uri.get();
+        Thread.sleep(20);
+        assertFalse(uri.isReady());
+        release.countDown();
+
+        assertEquals("ssl://broker:8883", uri.get().get(1, TimeUnit.SECONDS));
+        assertTrue(uri.readyNanos() >= port.readyNanos());
+    }
+
+    @Test
+    public void aFailureReachesTheDependentParts() throws Exception {
+        Startup.Part<String> credentials = startup.add("credentials", () -> {
+            throw new IllegalStateException("no key");
+        });
+        Startup.Part<String> client = startup.add("client", credentials, c -> () -> "client");
+
+        try {
+            client.get().join();
+            fail("expected the credentials failure");
+        } catch (CompletionException e) {
+            assertEquals("credentials failed", e.getMessage());
+            assertEquals("no key", e.getCause().getMessage());
+        }
+        assertFalse(client.isReady());
+    }
+
+    @Test
+    public void onlyTheFirstPublishIsTimed() throws Exception {
+        assertEquals(-1, startup.firstPublishNanos());
+        assertTrue(startup.firstPublish());
+        long first = startup.firstPublishNanos();
+        Thread.sleep(5);
+        assertFalse(startup.firstPublish());
+
+        assertEquals(first, startup.firstPublishNanos());
+        assertEquals(1, metrics.histogram("startup.first_publish").count());
+        assertTrue(startup.toString(), startup.toString().contains("first publish"));
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TopicRouterTest {
+
+    private final List<String> unrouted = new ArrayList<>();
+    private final List<String> failed   = new ArrayList<>();
+
+    private final TopicRouter.Listener listener = new TopicRouter.Listener() {
+        @Override public void onUnrouted(String topic, ByteBuffer payload) {
+            unrouted.add(topic);
+        }
+
+        @Override public void onHandlerFailed(String filter, String topic, RuntimeException error) {
+            failed.add(filter + " " + topic);
+        }
+    };
+
+    /** Runs handlers inline, recording which filter each delivery came from. */
+    private final List<String> hits   = new ArrayList<>();
+    private final TopicRouter  router = new TopicRouter(Runnable::run, listener);
+
+    private void on(String filter) {
+        router.add(filter, (topic, payload) -> hits.add(filter));
+    }
+
+    private List<String> route(String topic) {
+        hits.clear();
+        router.route(topic, ByteBuffer.allocate(0));
+        List<String> sorted = new ArrayList<>(hits);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    @Test
+    public void matchesSingleAndMultiLevelWildcards() {
+        on("dt/loggers/+/readings");
+        on("dt/loggers/#");
+        on("dt/loggers/abc/readings");
+        on("cmd/+/+");
+        on("#");
+
+        assertEquals(Arrays.asList("#", "dt/loggers/#", "dt/loggers/+/readings", "dt/loggers/abc/readings"),
+                route("dt/loggers/abc/readings"));
+        assertEquals(Arrays.asList("#", "dt/loggers/#"), route("dt/loggers"));
+        assertEquals(Arrays.asList("#", "cmd/+/+"), route("cmd/abc/reboot"));
+        assertEquals(Arrays.asList("#"), route("cmd/abc"));
+        assertEquals(Arrays.asList("#"), route("cmd/abc/reboot/now"));
+    }
+
+    @Test
+    public void wildcardsSkipSystemTopics() {
+        on("#");
+        on("+/things/shadow");
+        on("$aws/things/+/shadow/update/delta");
+
+        assertEquals(Arrays.asList("$aws/things/+/shadow/update/delta"), route("$aws/things/abc/shadow/update/delta"));
+        assertEquals(Collections.emptyList(), route("$aws/things/shadow"));
+        assertEquals(Collections.singletonList("$aws/things/shadow"), unrouted);
+    }
+
+    @Test
+    public void removedHandlersStopReceiving() {
+        TopicRouter.Registration a = router.add("a/+", (t, p) -> hits.add("first"));
+        router.add("a/+", (t, p) -> hits.add("second"));
+
+        a.remove();
+        assertEquals(Collections.singletonList("second"), route("a/b"));
+        assertEquals(Collections.singletonList("a/+"), router.filters());
+        router.add("a/b/c", (t, p) -> { });
+        assertEquals(2, router.filters().size());
+    }
+
+    @Test
+    public void everyHandlerGetsItsOwnReadOnlyView() {
+        List<String> seen = new ArrayList<>();
+        TopicRouter.Handler reader = (topic, payload) -> {
+            assertTrue(payload.isReadOnly());
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            seen.add(new String(bytes, StandardCharsets.UTF_8));
+        };
+        router.add("t", reader);
+        router.add("+", reader);
+
+        router.route("t", ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Arrays.asList("hello", "hello"), seen);
+    }
+
+    @Test
+    public void decodesAndDispatchesOnTheWorker() throws Exception {
+        ExecutorService worker = Executors.newSingleThreadExecutor(r -> new Thread(r, "router-worker"));
+        TopicRouter async = new TopicRouter(worker, listener);
+        AtomicReference<String> thread = new AtomicReference<>();
+        AtomicReference<Integer> value = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        async.add("n", ByteBuffer::getInt, (String topic, Integer n) -> {
+            thread.set(Thread.currentThread().getName());
+            value.set(n);
+            done.countDown();
+        });
+
+        assertEquals(1, async.route("n", (ByteBuffer) ByteBuffer.allocate(4).putInt(42).flip()));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("router-worker", thread.get());
+        assertEquals(Integer.valueOf(42), value.get());
+        worker.shutdown();
+    }
+
+    @Test
+    public void reportsFailingHandlers() {
+        router.add("x/#", (t, p) -> { throw new IllegalStateException("boom"); });
+        router.route("x/y", ByteBuffer.allocate(0));
+        assertEquals(Collections.singletonList("x/# x/y"), failed);
+    }
+
+    @Test
+    public void matchesTopicFilters() {
+        assertTrue(TopicRouter.matches("a/+/c", "a/b/c"));
+        assertTrue(TopicRouter.matches("a/#", "a"));
+        assertFalse(TopicRouter.matches("a/+", "a/b/c"));
+        assertFalse(TopicRouter.matches("#", "$aws/things"));
+        assertTrue(TopicRouter.matches("$aws/#", "$aws/things"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHashBeforeTheLastLevel() {
+        on("a/#/b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPartialLevelWildcards() {
+        on("a/b+");
+    }
+}
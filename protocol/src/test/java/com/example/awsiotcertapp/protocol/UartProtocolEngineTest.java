@@ -0,0 +1,434 @@
+package com.example.awsiotcertapp.protocol;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class UartProtocolEngineTest {
+
+    /** Both data frame markers inside, and a checksum of 0x4F. */
+    private static final byte[] PAYLOAD = {0x40, 0x4F, 0x40, 0x10, (byte) 0xB0, 0x4F};
+
+    private FakeLoggerDevice   device;
+    private UartProtocolEngine engine;
+    private Metrics            metrics = new Metrics(false);
+
+    private volatile CountDownLatch           done     = new CountDownLatch(1);
+    private final AtomicReference<byte[]>     received = new AtomicReference<>();
+    private final AtomicReference<String>     failure  = new AtomicReference<>();
+    private final AtomicLong                  elapsed  = new AtomicLong();
+
+    private final UartProtocolEngine.Listener listener = new UartProtocolEngine.Listener() {
+        @Override public void onStateChanged(UartProtocolEngine.State state) { }
+
+        @Override public void onTransferComplete(byte[] payload, long elapsedNanos) {
+            received.set(payload);
+            elapsed.set(elapsedNanos);
+            done.countDown();
+        }
+
+        @Override public void onTransferFailed(UartProtocolEngine.State state, String reason) {
+            failure.set(reason);
+            done.countDown();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        if (engine != null) engine.close();
+        if (device != null) device.close();
+    }
+
+    private long transfer(boolean pipeline, long linkDelayMs, int corruptChecksums) throws Exception {
+        device = new FakeLoggerDevice(PAYLOAD, linkDelayMs);
+        device.corruptChecksums = corruptChecksums;
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setPipelineChecksum(pipeline);
+        opts.setPayloadLength(PAYLOAD.length);
+        opts.setMetrics(metrics);
+        engine = new UartProtocolEngine(device.hostIn(), device.hostOut(), opts, listener);
+        engine.start();
+        assertTrue("transfer did not finish", done.await(5, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        assertArrayEquals(PAYLOAD, received.get());
+        assertEquals(UartProtocolEngine.State.COMPLETE, engine.state());
+        return TimeUnit.NANOSECONDS.toMillis(elapsed.get());
+    }
+
+    /** Runs a second transfer on the synced link, so thread start-up does not skew the timing. */
+    private long retransfer() throws Exception {
+        done = new CountDownLatch(1);
+        received.set(null);
+        engine.requestTransfer();
+        assertTrue("transfer did not finish", done.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(PAYLOAD, received.get());
+        return TimeUnit.NANOSECONDS.toMillis(elapsed.get());
+    }
+
+    @Test
+    public void completesSequentialTransfer() throws Exception {
+        transfer(false, 0, 0);
+        assertEquals(3, engine.requestsSent());
+    }
+
+    @Test
+    public void resendsAfterChecksumMismatch() throws Exception {
+        transfer(false, 0, 1);
+        assertEquals(5, engine.requestsSent());
+    }
+
+    @Test
+    public void recordsStepLatenciesAndResends() throws Exception {
+        metrics = new Metrics(true);
+        transfer(false, 0, 1);
+
+        assertEquals(1, metrics.histogram("bt.time_sync_ack").count());
+        assertEquals("once for the first payload, once for the resent one", 2, metrics.histogram("bt.frame_receive").count());
+        assertEquals(1, metrics.histogram("bt.transfer").count());
+        assertEquals(1, metrics.counter("bt.checksum_failures").get());
+        assertEquals(1, metrics.counter("bt.resends").get());
+        assertEquals(0, metrics.counter("bt.timeouts").get());
+    }
+
+    @Test
+    public void pipelinedTransferCostsOneRoundTrip() throws Exception {
+        transfer(true, 50, 0);
+        long pipelined = retransfer();
+        assertTrue("pipelined transfer took " + pipelined + " ms", pipelined < 100);
+    }
+
+    @Test
+    public void sequentialTransferCostsTwoRoundTrips() throws Exception {
+        transfer(false, 50, 0);
+        long sequential = retransfer();
+        assertTrue("sequential transfer took " + sequential + " ms", sequential >= 100);
+    }
+
+    @Test
+    public void syncTimeResendsOnlyTheTimeSync() throws Exception {
+        transfer(false, 0, 0);
+        done = new CountDownLatch(1);
+        received.set(null);
+        engine.syncTime();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (engine.requestsSent() < 4 || engine.state() != UartProtocolEngine.State.COMPLETE) {
+            assertTrue("resync did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        assertEquals("no data request after the ACK", 4, engine.requestsSent());
+        assertNull(received.get());
+
+        retransfer();
+        assertEquals("the link still transfers afterwards", 6, engine.requestsSent());
+    }
+
+    @Test
+    public void endMarkersInsideThePayloadAreKept() throws Exception {
+        transfer(true, 0, 0);
+        assertEquals(3, engine.requestsSent());
+    }
+
+    @Test
+    public void checksumOf4FIsReadWhileScanning() throws Exception {
+        byte[] payload = {0x40, 0x20, 0x2F, 0x4F}; // no marker inside, but the sum is 0x4F
+        device = new FakeLoggerDevice(payload, 0);
+        engine = new UartProtocolEngine(device.hostIn(), device.hostOut(), new UartProtocolEngine.Options(), listener);
+        engine.start();
+
+        assertTrue("transfer did not finish", done.await(5, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        assertArrayEquals(payload, received.get());
+    }
+
+    @Test
+    public void endMarkersInsideThePayloadAreKeptWhileScanning() throws Exception {
+        for (boolean pipeline : new boolean[] {false, true}) {
+            done = new CountDownLatch(1);
+            device = new FakeLoggerDevice(PAYLOAD, 0);
+            UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+            opts.setPipelineChecksum(pipeline);
+            engine = new UartProtocolEngine(device.hostIn(), device.hostOut(), opts, listener);
+            engine.start();
+
+            assertTrue("transfer did not finish", done.await(5, TimeUnit.SECONDS));
+            assertNull(failure.get());
+            assertArrayEquals(PAYLOAD, received.get());
+            assertEquals("no resend", 3, engine.requestsSent());
+            engine.close();
+            device.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAPayloadLongerThanTheReadBuffer() throws Exception {
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setReadBufferSize(64);
+        opts.setPayloadLength(65);
+        new UartProtocolEngine(new BytePipe().in, new BytePipe().out, opts, listener);
+    }
+
+    @Test
+    public void enginesCanShareOneLoopThread() throws Exception {
+        ExecutorService shared = Executors.newSingleThreadExecutor(r -> new Thread(r, "shared-loop"));
+        List<String> ranOn = new CopyOnWriteArrayList<>();
+        CountDownLatch both = new CountDownLatch(2);
+        UartProtocolEngine.Listener recorder = new UartProtocolEngine.Listener() {
+            @Override public void onStateChanged(UartProtocolEngine.State state) { }
+
+            @Override public void onTransferComplete(byte[] payload, long elapsedNanos) {
+                ranOn.add(Thread.currentThread().getName());
+                both.countDown();
+            }
+
+            @Override public void onTransferFailed(UartProtocolEngine.State state, String reason) { }
+        };
+        FakeLoggerDevice[] devices = {new FakeLoggerDevice(PAYLOAD, 5), new FakeLoggerDevice(PAYLOAD, 5)};
+        UartProtocolEngine[] engines = new UartProtocolEngine[2];
+        try {
+            for (int i = 0; i < 2; i++) {
+                UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+                opts.setPayloadLength(PAYLOAD.length);
+                opts.setLoopExecutor(shared);
+                engines[i] = new UartProtocolEngine(devices[i].hostIn(), devices[i].hostOut(), opts, recorder);
+                engines[i].start();
+            }
+
+            assertTrue(both.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("shared-loop", "shared-loop"), ranOn);
+        } finally {
+            for (UartProtocolEngine e : engines) if (e != null) e.close();
+            for (FakeLoggerDevice d : devices) d.close();
+            shared.shutdownNow();
+        }
+        assertEquals(UartProtocolEngine.State.CLOSED, engines[1].state());
+    }
+
+    @Test
+    public void failsWhenDeviceNeverAnswers() throws Exception {
+        BytePipe silent = new BytePipe();
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setTimeSyncTimeoutMs(10);
+        opts.setMaxRetries(2);
+        engine = new UartProtocolEngine(silent.in, new BytePipe().out, opts, listener);
+        engine.start();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(UartProtocolEngine.State.FAILED, engine.state());
+        assertEquals(3, engine.requestsSent());
+        silent.close();
+    }
+
+    @Test
+    public void timeSyncSendsTheFullYear() {
+        Calendar c = Calendar.getInstance();
+        c.set(2026, Calendar.OCTOBER, 17, 13, 45, 30);
+        assertArrayEquals(new byte[]{0x50, 0x00, 0x07, 0x07, (byte) 0xEA, 10, 17, 13, 45, 30, 0x5F},
+                UartProtocolEngine.timeSyncCommand(c));
+    }
+
+    @Test
+    public void ackCompletesTheTimeSyncFuture() throws Exception {
+        transfer(false, 20, 0);
+        long setupMs = TimeUnit.NANOSECONDS.toMillis(engine.timeSynced().get());
+        assertTrue("time sync took " + setupMs + " ms", setupMs >= 20 && setupMs < 1000);
+    }
+
+    @Test
+    public void timeSyncBacksOffUpToTheCap() throws Exception {
+        List<Long> sentAt = new CopyOnWriteArrayList<>();
+        OutputStream recorder = new OutputStream() {
+            @Override public void write(int b) { }
+            @Override public void write(byte[] b, int off, int len) { sentAt.add(System.nanoTime()); }
+        };
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setTimeSyncTimeoutMs(20);
+        opts.setTimeSyncMaxTimeoutMs(80);
+        opts.setMaxRetries(4);
+        BytePipe silent = new BytePipe();
+        engine = new UartProtocolEngine(silent.in, recorder, opts, listener);
+        engine.start();
+
+        try {
+            engine.timeSynced().get(5, TimeUnit.SECONDS);
+            fail("the device never answered");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        assertEquals(5, sentAt.size());
+        long[] expectedGaps = {20, 40, 80, 80};
+        for (int i = 0; i < expectedGaps.length; i++) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(sentAt.get(i + 1) - sentAt.get(i));
+            assertTrue("gap " + i + " was " + gap + " ms", gap >= expectedGaps[i] - 2 && gap < expectedGaps[i] + 60);
+        }
+        silent.close();
+    }
+
+    @Test
+    public void commandsOfOneStepShareAFlush() throws Exception {
+        device = new FakeLoggerDevice(PAYLOAD, 0);
+        AtomicLong flushes = new AtomicLong();
+        OutputStream counted = new FilterOutputStream(device.hostOut()) {
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override public void flush() throws IOException {
+                flushes.incrementAndGet();
+                super.flush();
+            }
+        };
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setPipelineChecksum(true);
+        opts.setPayloadLength(PAYLOAD.length);
+        engine = new UartProtocolEngine(device.hostIn(), counted, opts, listener);
+        engine.start();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("time sync, data and checksum requests", 3, engine.requestsSent());
+        assertEquals("the time sync, then both requests together", 2, flushes.get());
+    }
+
+    @Test
+    public void nothingIsWrittenOnceCloseReturns() throws Exception {
+        AtomicLong writes = new AtomicLong();
+        AtomicReference<String> late = new AtomicReference<>();
+        AtomicBoolean socketClosed = new AtomicBoolean();
+        OutputStream socket = new OutputStream() {
+            @Override public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                if (socketClosed.get()) late.set("write after close");
+                writes.incrementAndGet();
+            }
+        };
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setTimeSyncTimeoutMs(1);
+        opts.setTimeSyncMaxTimeoutMs(1);
+        opts.setMaxRetries(Integer.MAX_VALUE);
+        BytePipe silent = new BytePipe();
+        engine = new UartProtocolEngine(silent.in, socket, opts, new UartProtocolEngine.Listener() {
+            @Override public void onStateChanged(UartProtocolEngine.State state) {
+                if (socketClosed.get()) late.set("state change to " + state + " after close");
+            }
+
+            @Override public void onTransferComplete(byte[] payload, long elapsedNanos) { }
+
+            @Override public void onTransferFailed(UartProtocolEngine.State state, String reason) {
+                late.set(reason);
+            }
+        });
+        engine.start();
+        while (writes.get() < 20) Thread.sleep(1);
+
+        engine.close();
+        socketClosed.set(true);
+        Thread.sleep(30);
+
+        assertNull(late.get());
+        assertEquals(UartProtocolEngine.State.CLOSED, engine.state());
+        silent.close();
+    }
+
+    private byte[] chunkedTransfer(FakeLoggerDevice device, int chunkSize, int window) throws Exception {
+        this.device = device;
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setChunkSize(chunkSize);
+        opts.setChunkWindow(window);
+        opts.setDataTimeoutMs(200);
+        opts.setMetrics(metrics);
+        engine = new UartProtocolEngine(device.hostIn(), device.hostOut(), opts, listener);
+        engine.start();
+        assertTrue("transfer did not finish", done.await(5, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        return received.get();
+    }
+
+    private static byte[] dump(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) data[i] = (byte) (i * 31 + 7); // end markers included
+        return data;
+    }
+
+    @Test
+    public void chunkedTransferReassemblesThePayload() throws Exception {
+        byte[] data = dump(1000);
+        assertArrayEquals(data, chunkedTransfer(new FakeLoggerDevice(data, 0), 64, 4));
+        assertEquals("time sync plus one request per chunk", 1 + 16, engine.requestsSent());
+    }
+
+    @Test
+    public void chunkedTransferOfAPayloadSmallerThanTheWindow() throws Exception {
+        byte[] data = dump(10);
+        assertArrayEquals(data, chunkedTransfer(new FakeLoggerDevice(data, 0), 64, 4));
+    }
+
+    @Test
+    public void refetchesOnlyTheChunksThatFailed() throws Exception {
+        metrics = new Metrics(true);
+        byte[] data = dump(1000);
+        FakeLoggerDevice device = new FakeLoggerDevice(data, 0);
+        device.corruptChunks.add(5);
+        device.dropChunks.add(9);
+        device.dropChunks.add(15); // the last one, only noticed by the timeout
+
+        assertArrayEquals(data, chunkedTransfer(device, 64, 4));
+        assertEquals(1 + 16 + 3, engine.requestsSent());
+        assertEquals(3, metrics.counter("bt.resends").get());
+        assertEquals(1, metrics.counter("bt.checksum_failures").get());
+        assertEquals(1, metrics.counter("bt.timeouts").get());
+    }
+
+    @Test
+    public void failsALogWithMoreChunksThanCanBeFetched() throws Exception {
+        device = new FakeLoggerDevice(dump(ChunkedTransfer.MAX_NUMBER + 2), 0);
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setChunkSize(1);
+        engine = new UartProtocolEngine(device.hostIn(), device.hostOut(), opts, listener);
+        engine.start();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("16385 chunks, more than 16384 can be fetched", failure.get());
+        assertEquals(UartProtocolEngine.State.FAILED, engine.state());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void commandsRejectNumbersTheyCannotCarry() {
+        ChunkedTransfer.command(ChunkedTransfer.FETCH, ChunkedTransfer.MAX_NUMBER + 1);
+    }
+
+    @Test
+    public void chunkWindowOverlapsRoundTrips() throws Exception {
+        byte[] data = dump(16 * 32);
+        chunkedTransfer(new FakeLoggerDevice(data, 20), 32, 8);
+        long windowed = TimeUnit.NANOSECONDS.toMillis(elapsed.get());
+        engine.close();
+        device.close();
+
+        done = new CountDownLatch(1);
+        chunkedTransfer(new FakeLoggerDevice(data, 20), 32, 1);
+        long serial = TimeUnit.NANOSECONDS.toMillis(elapsed.get());
+        assertTrue("16 chunks one at a time took " + serial + " ms", serial >= 16 * 20);
+        assertTrue("windowed took " + windowed + " ms, serial " + serial + " ms", windowed < serial / 2);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.awsiotcertapp.protocol;
+
+import java.util.PriorityQueue;
+
+/** A {@link ReconnectController.Scheduler} whose clock only moves when the test advances it. */
+final class VirtualScheduler implements ReconnectController.Scheduler {
+
+    private static final class Task implements Comparable<Task>, ReconnectController.Cancellable {
+        final long     at;
+        final long     order;
+        final Runnable run;
+        boolean        cancelled;
+
+        Task(long at, long order, Runnable run) {
+            this.at    = at;
+            this.order = order;
+            this.run   = run;
+        }
+
+        @Override public void cancel() {
+            cancelled = true;
+        }
+
+        @Override public int compareTo(Task o) {
+            return at != o.at ? Long.compare(at, o.at) : Long.compare(order, o.order);
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long now;
+    private long scheduled;
+
+    @Override public long nowMillis() {
+        return now;
+    }
+
+    @Override public ReconnectController.Cancellable schedule(Runnable task, long delayMs) {
+        Task t = new Task(now + delayMs, scheduled++, task);
+        tasks.add(t);
+        return t;
+    }
+
+    /** Moves the clock forward, running every task that comes due on the way. */
+    void advance(long ms) {
+        long until = now + ms;
+        Task t;
+        while ((t = tasks.peek()) != null && t.at <= until) {
+            tasks.poll();
+            now = t.at;
+            if (!t.cancelled) t.run.run();
+        }
+        now = until;
+    }
+
+    /** Runs the next live task, however far away; returns how long the clock moved. */
+    long runNext() {
+        Task t;
+        while ((t = tasks.poll()) != null) {
+            if (t.cancelled) continue;
+            long waited = t.at - now;
+            now = t.at;
+            t.run.run();
+            return waited;
+        }
+        throw new IllegalStateException("nothing scheduled");
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import com.example.awsiotcertapp.protocol.DeviceConnectionManager;
+import com.example.awsiotcertapp.protocol.FakeLoggerDevice;
+import com.example.awsiotcertapp.protocol.SimulatedLogger;
+import com.example.awsiotcertapp.protocol.UartProtocolEngine;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate readings per second for 1 to 8 simulated loggers on one {@link DeviceConnectionManager},
+ * each polled back to back over a link with {@value #LINK_DELAY_MS} ms one-way latency.
+ * Run with {@code ./gradlew :protocol:acquisitionBenchmark}.
+ */
+public final class AcquisitionBenchmark {
+    private static final long LINK_DELAY_MS = 20;
+    private static final int  PAYLOAD_BYTES = 814;
+    private static final long RUN_MS        = 3_000;
+
+    public static void main(String[] args) throws Exception {
+        byte[] payload = SimulatedLogger.payload(PAYLOAD_BYTES);
+
+        System.out.println("devices  readings/s  KB/s     speed-up");
+        double single = 0;
+        for (int devices : new int[]{1, 2, 4, 8}) {
+            double rate = run(devices, payload);
+            if (devices == 1) single = rate;
+            System.out.println(String.format(Locale.US, "%7d  %10.1f  %7.1f  %7.2fx",
+                    devices, rate, rate * PAYLOAD_BYTES / 1024, rate / single));
+        }
+    }
+
+    private static double run(int devices, byte[] payload) throws Exception {
+        AtomicLong readings = new AtomicLong();
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setPipelineChecksum(true);
+        opts.setPayloadLength(payload.length);
+        try (DeviceConnectionManager manager = new DeviceConnectionManager(
+                FakeLoggerDevice.connector(payload, LINK_DELAY_MS), devices, opts,
+                new DeviceConnectionManager.Listener() {
+                    @Override public void onReading(DeviceConnectionManager.Reading reading) {
+                        readings.incrementAndGet();
+                    }
+
+                    @Override public void onDeviceFailed(String address, String reason) {
+                        System.err.println(address + ": " + reason);
+                    }
+                })) {
+            manager.setPollInterval(1);
+            for (int i = 0; i < devices; i++) manager.open("logger-" + i);
+            Thread.sleep(500); // connects and time syncs
+            long before = readings.get();
+            long start = System.nanoTime();
+            Thread.sleep(RUN_MS);
+            return (readings.get() - before) / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+}
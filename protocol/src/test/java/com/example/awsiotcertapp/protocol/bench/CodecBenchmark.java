@@ -0,0 +1,84 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import com.example.awsiotcertapp.protocol.DeflateCodec;
+import com.example.awsiotcertapp.protocol.DeltaCodec;
+import com.example.awsiotcertapp.protocol.PayloadCodec;
+import com.example.awsiotcertapp.protocol.PayloadCodecs;
+import com.example.awsiotcertapp.protocol.SampleSchema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Bytes on the wire and encode time per reading for every payload codec, over simulated logger
+ * frames of 40 three-channel samples (temperature, humidity, pressure) with sensor noise. Run with
+ * {@code ./gradlew :protocol:codecBenchmark}; the JMH {@code PayloadCodecBenchmark} measures the
+ * encode cost more rigorously.
+ */
+public final class CodecBenchmark {
+    private static final int READINGS = 20_000;
+    private static final int SAMPLES  = 40;
+    private static final int ROUNDS   = 5;
+
+    public static void main(String[] args) {
+        SampleSchema schema = SampleSchema.loggerFrame(1, 3);
+        List<byte[]> readings = readings(READINGS, new Random(42));
+        DeltaCodec delta = new DeltaCodec(schema);
+        byte[] dict = DeflateCodec.trainDictionary(delta, readings(64, new Random(7)), 2048);
+
+        List<PayloadCodec> codecs = new ArrayList<>();
+        for (String name : Arrays.asList("raw", "hex", "json", "delta", "delta+deflate")) {
+            codecs.add(PayloadCodecs.byName(name, schema));
+        }
+        PayloadCodec primed = new DeflateCodec(delta, dict, 1);
+
+        long raw = 0;
+        for (byte[] r : readings) raw += r.length;
+        System.out.println("codec                  B/reading   vs raw   ns/reading");
+        for (PayloadCodec codec : codecs) report(codec.name(), codec, readings, raw);
+        report("delta+deflate+dict", primed, readings, raw);
+    }
+
+    private static void report(String name, PayloadCodec codec, List<byte[]> readings, long rawBytes) {
+        long bytes = 0;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long wire = 0;
+            long start = System.nanoTime();
+            for (byte[] r : readings) wire += codec.encode(r, 0, r.length).length;
+            best = Math.min(best, System.nanoTime() - start);
+            bytes = wire;
+        }
+        System.out.println(String.format(Locale.US, "%-20s %11.1f %7.0f%% %12.0f", name,
+                (double) bytes / readings.size(), bytes * 100.0 / rawBytes, (double) best / readings.size()));
+    }
+
+    static List<byte[]> readings(int count, Random random) {
+        List<byte[]> out = new ArrayList<>(count);
+        double temp = 2150, humidity = 5200, pressure = 10130;
+        for (int n = 0; n < count; n++) {
+            byte[] frame = new byte[2 + SAMPLES * 6];
+            frame[0] = 0x40;
+            for (int i = 0; i < SAMPLES; i++) {
+                temp     += random.nextGaussian() * 2;
+                humidity += random.nextGaussian() * 5;
+                pressure += random.nextGaussian();
+                put(frame, 1 + i * 6, temp);
+                put(frame, 3 + i * 6, humidity);
+                put(frame, 5 + i * 6, pressure);
+            }
+            frame[frame.length - 1] = 0x4F;
+            out.add(frame);
+        }
+        return out;
+    }
+
+    private static void put(byte[] frame, int at, double value) {
+        int v = (int) Math.max(0, Math.min(0xFFFF, Math.round(value)));
+        frame[at]     = (byte) (v >>> 8);
+        frame[at + 1] = (byte) v;
+    }
+}
@@ -0,0 +1,477 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import com.example.awsiotcertapp.protocol.Pem;
+import com.example.awsiotcertapp.protocol.SslContextCache;
+import com.example.awsiotcertapp.protocol.TopicRouter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * In-process MQTT 3.1.1 broker for end-to-end tests and load runs, so the real client stack (Paho,
+ * TLS, the publish pipeline) can be exercised without the cloud endpoint. It speaks enough of the
+ * protocol for this app: CONNECT with clean or persistent sessions, PUBLISH at QoS 0, 1 and 2,
+ * SUBSCRIBE with wildcards, PING and DISCONNECT. Persistent sessions keep their subscriptions, not
+ * the messages missed while away.
+ * <p>
+ * {@link Faults} injects what a real broker does on a bad day: latency on everything it sends,
+ * PUBLISHes silently lost, connections dropped mid-stream and connections refused.
+ */
+public final class EmbeddedBroker implements Closeable {
+
+    private static final int CONNECT = 1, CONNACK = 2, PUBLISH = 3, PUBACK = 4, PUBREC = 5, PUBREL = 6,
+            PUBCOMP = 7, SUBSCRIBE = 8, SUBACK = 9, UNSUBSCRIBE = 10, UNSUBACK = 11, PINGREQ = 12,
+            PINGRESP = 13, DISCONNECT = 14;
+
+    /** Changes take effect for the next packet. */
+    public static final class Faults {
+        volatile long    latencyMs;
+        volatile double  dropRate;
+        volatile double  disconnectRate;
+        volatile boolean refuseConnections;
+
+        /** Delay before every packet the broker sends, acknowledgements included. */
+        public void setLatencyMs(long ms)            { this.latencyMs = ms; }
+
+        /** Share of inbound PUBLISHes that vanish: neither acknowledged nor delivered. */
+        public void setDropRate(double rate)         { this.dropRate = rate; }
+
+        /** Share of inbound PUBLISHes on which the broker closes the connection instead. */
+        public void setDisconnectRate(double rate)   { this.disconnectRate = rate; }
+
+        /** Answer every CONNECT with "server unavailable". */
+        public void setRefuseConnections(boolean on) { this.refuseConnections = on; }
+    }
+
+    private static final class Session {
+        final Set<String> filters = new CopyOnWriteArraySet<>();
+    }
+
+    private final SSLContext                 tls;
+    private final boolean                    requireClientCert;
+    private final Faults                     faults = new Faults();
+    private final Random                     random;
+    private final ScheduledExecutorService   delayed = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "broker-latency");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, Session>       sessions    = new ConcurrentHashMap<>();
+    private final Map<String, Connection>    connections = new ConcurrentHashMap<>();
+    private final AtomicLong received  = new AtomicLong();
+    private final AtomicLong dropped   = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong accepted  = new AtomicLong();
+    private ServerSocket     server;
+
+    /** A plain TCP broker. */
+    public EmbeddedBroker() {
+        this(null, false, 1);
+    }
+
+    /**
+     * @param tls               server context, see {@link #serverContext}; {@code null} for plain TCP
+     * @param requireClientCert reject clients without a certificate the context trusts, like AWS IoT
+     * @param seed              seeds the fault injection, so a run can be repeated
+     */
+    public EmbeddedBroker(SSLContext tls, boolean requireClientCert, long seed) {
+        this.tls               = tls;
+        this.requireClientCert = requireClientCert;
+        this.random            = new Random(seed);
+    }
+
+    /**
+     * A server context presenting {@code certPem} and trusting client certificates issued by (or
+     * equal to) {@code trustedPem}.
+     */
+    public static SSLContext serverContext(byte[] certPem, byte[] keyPem, byte[] trustedPem) throws GeneralSecurityException {
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        X509Certificate cert = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(certPem));
+        X509Certificate trusted = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(trustedPem));
+        PrivateKey key = KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(Pem.decode(keyPem)));
+        try {
+            KeyStore keys = KeyStore.getInstance(KeyStore.getDefaultType());
+            keys.load(null);
+            keys.setKeyEntry("broker", key, new char[0], new Certificate[]{cert});
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keys, new char[0]);
+
+            KeyStore trust = KeyStore.getInstance(KeyStore.getDefaultType());
+            trust.load(null);
+            trust.setCertificateEntry("client", trusted);
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(trust);
+
+            SSLContext ssl = SSLContext.getInstance("TLSv1.2");
+            ssl.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+            return ssl;
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+
+    /**
+     * A TLS broker with the test certificates under {@code /tls} on the test classpath: it presents
+     * {@code broker.crt} and only accepts clients presenting {@code client.crt}.
+     */
+    public static EmbeddedBroker withTestCertificates(long seed) throws IOException, GeneralSecurityException {
+        SSLContext ssl = serverContext(resource("/tls/broker.crt"), resource("/tls/broker.key"), resource("/tls/client.crt"));
+        return new EmbeddedBroker(ssl, true, seed);
+    }
+
+    /** A client context that trusts the test broker and presents {@code client.crt}. */
+    public static SSLContext testClientContext() throws IOException, GeneralSecurityException {
+        return new SslContextCache().get(resource("/tls/broker.crt"), resource("/tls/client.crt"), resource("/tls/client.key"));
+    }
+
+    static byte[] resource(String name) throws IOException {
+        try (InputStream in = EmbeddedBroker.class.getResourceAsStream(name)) {
+            if (in == null) throw new FileNotFoundException(name);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+            return out.toByteArray();
+        }
+    }
+
+    /** Listens on an ephemeral loopback port and returns it. */
+    public synchronized int start() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        if (tls == null) {
+            server = new ServerSocket(0, 128, loopback);
+        } else {
+            SSLServerSocket s = (SSLServerSocket) tls.getServerSocketFactory().createServerSocket(0, 128, loopback);
+            s.setNeedClientAuth(requireClientCert);
+            server = s;
+        }
+        Thread acceptor = new Thread(this::acceptLoop, "broker-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server.getLocalPort();
+    }
+
+    /** {@code ssl://} or {@code tcp://} URI of the running broker, as Paho expects it. */
+    public String uri() {
+        return (tls == null ? "tcp" : "ssl") + "://localhost:" + server.getLocalPort();
+    }
+
+    public Faults faults() {
+        return faults;
+    }
+
+    /** Drops every client connection at once, as a broker restart would. */
+    public void disconnectAll() {
+        for (Connection c : connections.values()) c.close();
+    }
+
+    /** Inbound PUBLISHes, including dropped ones. */
+    public long received()    { return received.get(); }
+    public long dropped()     { return dropped.get(); }
+    /** PUBLISHes forwarded to subscribers. */
+    public long delivered()   { return delivered.get(); }
+    /** Connections accepted, reconnects included. */
+    public long connections() { return accepted.get(); }
+    public int  connected()   { return connections.size(); }
+
+    @Override public synchronized void close() {
+        try {
+            if (server != null) server.close();
+        } catch (IOException ignored) {
+        }
+        disconnectAll();
+        delayed.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                accepted.incrementAndGet();
+                Connection c = new Connection(socket);
+                Thread reader = new Thread(c::run, "broker-client-" + accepted.get());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                return; // closed
+            }
+        }
+    }
+
+    private boolean chance(double rate) {
+        if (rate <= 0) return false;
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    private void route(String topic, byte[] payload, int qos) {
+        for (Connection c : connections.values()) {
+            for (String filter : c.session.filters) {
+                if (!TopicRouter.matches(filter, topic)) continue;
+                // Subscriptions are granted QoS 1 at most, so QoS 2 is delivered as 1.
+                c.deliver(topic, payload, Math.min(qos, 1));
+                delivered.incrementAndGet();
+                break;
+            }
+        }
+    }
+
+    private final class Connection {
+        final Socket       socket;
+        final OutputStream out;
+        String             clientId;
+        Session            session;
+        int                nextPacketId = 1;
+        volatile boolean   closed;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out    = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                if (!handshake(in)) return;
+                while (!closed) {
+                    int header = in.read();
+                    if (header < 0) return;
+                    byte[] body = new byte[remainingLength(in)];
+                    in.readFully(body);
+                    if (!handle(header >> 4, header & 0x0F, body)) return;
+                }
+            } catch (IOException e) {
+                // client went away or we closed it
+            } finally {
+                close();
+            }
+        }
+
+        boolean handshake(DataInputStream in) throws IOException {
+            if (in.read() >> 4 != CONNECT) return false;
+            byte[] body = new byte[remainingLength(in)];
+            in.readFully(body);
+            Reader r = new Reader(body);
+            r.string();              // "MQTT", or "MQIsdp" for 3.1
+            r.u8();                  // protocol level
+            int flags = r.u8();
+            r.u16();                 // keep-alive: clients ping on their own, nothing to enforce here
+            clientId = r.string();
+            boolean clean = (flags & 0x02) != 0;
+
+            if (faults.refuseConnections) {
+                send(new byte[]{CONNACK << 4, 2, 0, 3});
+                return false;
+            }
+            Connection previous = connections.put(clientId, this);
+            if (previous != null) previous.close(); // a client id connects only once
+            boolean present = !clean && sessions.containsKey(clientId);
+            session = clean ? new Session() : sessions.computeIfAbsent(clientId, id -> new Session());
+            if (clean) sessions.remove(clientId);
+            send(new byte[]{CONNACK << 4, 2, (byte) (present ? 1 : 0), 0});
+            return true;
+        }
+
+        boolean handle(int type, int flags, byte[] body) throws IOException {
+            Reader r = new Reader(body);
+            switch (type) {
+                case PUBLISH: {
+                    int qos = (flags >> 1) & 3;
+                    String topic = r.string();
+                    int id = qos > 0 ? r.u16() : 0;
+                    byte[] payload = r.rest();
+                    received.incrementAndGet();
+                    if (chance(faults.disconnectRate)) return false;
+                    if (chance(faults.dropRate)) {
+                        dropped.incrementAndGet();
+                        return true;
+                    }
+                    if (qos == 1) send(ack(PUBACK, 0, id));
+                    else if (qos == 2) send(ack(PUBREC, 0, id));
+                    route(topic, payload, qos);
+                    return true;
+                }
+                case PUBREL:
+                    send(ack(PUBCOMP, 0, r.u16()));
+                    return true;
+                case PUBACK:
+                case PUBREC:
+                case PUBCOMP:
+                    if (type == PUBREC) send(ack(PUBREL, 2, r.u16()));
+                    return true;
+                case SUBSCRIBE: {
+                    int id = r.u16();
+                    ByteArrayOutputStream codes = new ByteArrayOutputStream();
+                    while (r.remaining() > 0) {
+                        String filter = r.string();
+                        int qos = r.u8();
+                        session.filters.add(filter);
+                        codes.write(Math.min(qos, 1));
+                    }
+                    byte[] granted = codes.toByteArray();
+                    byte[] suback = new byte[4 + granted.length];
+                    suback[0] = (byte) (SUBACK << 4);
+                    suback[1] = (byte) (2 + granted.length);
+                    suback[2] = (byte) (id >> 8);
+                    suback[3] = (byte) id;
+                    System.arraycopy(granted, 0, suback, 4, granted.length);
+                    send(suback);
+                    return true;
+                }
+                case UNSUBSCRIBE: {
+                    int id = r.u16();
+                    while (r.remaining() > 0) session.filters.remove(r.string());
+                    send(ack(UNSUBACK, 0, id));
+                    return true;
+                }
+                case PINGREQ:
+                    send(new byte[]{(byte) (PINGRESP << 4), 0});
+                    return true;
+                case DISCONNECT:
+                default:
+                    return false;
+            }
+        }
+
+        void deliver(String topic, byte[] payload, int qos) {
+            byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream packet = new ByteArrayOutputStream(payload.length + name.length + 8);
+            packet.write((PUBLISH << 4) | (qos << 1));
+            int length = 2 + name.length + (qos > 0 ? 2 : 0) + payload.length;
+            do {
+                int digit = length & 0x7F;
+                length >>>= 7;
+                packet.write(length > 0 ? digit | 0x80 : digit);
+            } while (length > 0);
+            packet.write(name.length >> 8);
+            packet.write(name.length);
+            packet.write(name, 0, name.length);
+            if (qos > 0) {
+                int id;
+                synchronized (this) {
+                    id = nextPacketId;
+                    nextPacketId = nextPacketId == 0xFFFF ? 1 : nextPacketId + 1;
+                }
+                packet.write(id >> 8);
+                packet.write(id);
+            }
+            packet.write(payload, 0, payload.length);
+            send(packet.toByteArray());
+        }
+
+        void send(byte[] packet) {
+            long latency = faults.latencyMs;
+            if (latency <= 0) {
+                write(packet);
+            } else {
+                delayed.schedule(() -> write(packet), latency, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void write(byte[] packet) {
+            if (closed) return;
+            try {
+                out.write(packet);
+                out.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            closed = true;
+            if (clientId != null) connections.remove(clientId, this);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static byte[] ack(int type, int flags, int id) {
+        return new byte[]{(byte) (type << 4 | flags), 2, (byte) (id >> 8), (byte) id};
+    }
+
+    private static int remainingLength(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 28; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("malformed remaining length");
+    }
+
+    private static final class Reader {
+        final byte[] b;
+        int          pos;
+
+        Reader(byte[] b) {
+            this.b = b;
+        }
+
+        int u8() {
+            return b[pos++] & 0xFF;
+        }
+
+        int u16() {
+            return u8() << 8 | u8();
+        }
+
+        String string() {
+            int n = u16();
+            String s = new String(b, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+
+        int remaining() {
+            return b.length - pos;
+        }
+
+        byte[] rest() {
+            byte[] out = new byte[b.length - pos];
+            System.arraycopy(b, pos, out, 0, out.length);
+            pos = b.length;
+            return out;
+        }
+    }
+}
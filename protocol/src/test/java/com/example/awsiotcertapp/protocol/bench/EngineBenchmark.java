@@ -0,0 +1,91 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import com.example.awsiotcertapp.protocol.FakeLoggerDevice;
+import com.example.awsiotcertapp.protocol.Metrics;
+import com.example.awsiotcertapp.protocol.SimulatedLogger;
+import com.example.awsiotcertapp.protocol.UartProtocolEngine;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Back-to-back transfers from one {@link FakeLoggerDevice} with no link delay, so what is left is
+ * the engine's own cost: transfers per second, transfer latency and how many flushes reach the
+ * link per transfer. Run with {@code ./gradlew :protocol:engineBenchmark}.
+ */
+public final class EngineBenchmark {
+    private static final int  PAYLOAD_BYTES = 814;
+    private static final long RUN_MS        = 3_000;
+
+    public static void main(String[] args) throws Exception {
+        byte[] payload = SimulatedLogger.payload(PAYLOAD_BYTES);
+
+        System.out.println("transfer        transfers/s  p50 ms  p99 ms  flushes/transfer");
+        run("whole", payload, false, 0);
+        run("whole, piped", payload, true, 0);
+        run("64 B chunks", payload, false, 64);
+    }
+
+    private static void run(String name, byte[] payload, boolean pipeline, int chunk) throws Exception {
+        FakeLoggerDevice device = new FakeLoggerDevice(payload, 0);
+        AtomicLong flushes = new AtomicLong();
+        FilterOutputStream counted = new FilterOutputStream(device.hostOut()) {
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override public void flush() throws IOException {
+                flushes.incrementAndGet();
+                super.flush();
+            }
+        };
+        Metrics metrics = new Metrics(true);
+        Metrics.Histogram latency = metrics.histogram("transfer");
+        Semaphore done = new Semaphore(0);
+        UartProtocolEngine.Options opts = new UartProtocolEngine.Options();
+        opts.setPipelineChecksum(pipeline);
+        opts.setChunkSize(chunk);
+        opts.setPayloadLength(payload.length);
+        opts.setMetrics(new Metrics(false));
+        UartProtocolEngine engine = new UartProtocolEngine(device.hostIn(), counted, opts, new UartProtocolEngine.Listener() {
+            @Override public void onStateChanged(UartProtocolEngine.State state) { }
+
+            @Override public void onTransferComplete(byte[] p, long elapsedNanos) {
+                latency.record(elapsedNanos);
+                done.release();
+            }
+
+            @Override public void onTransferFailed(UartProtocolEngine.State state, String reason) {
+                System.err.println(name + ": " + reason);
+                done.release();
+            }
+        });
+        engine.start();
+        done.acquire();
+        // Warm up before measuring.
+        long warmUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        while (System.nanoTime() < warmUntil) {
+            engine.requestTransfer();
+            done.acquire();
+        }
+        metrics.reset();
+        long flushesBefore = flushes.get();
+        long n = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(RUN_MS);
+        while (System.nanoTime() < end) {
+            engine.requestTransfer();
+            done.acquire();
+            n++;
+        }
+        double rate = n / ((System.nanoTime() - start) / 1e9);
+        engine.close();
+        device.close();
+        System.out.println(String.format(Locale.US, "%-15s %11.0f  %6.3f  %6.3f  %16.1f", name, rate,
+                latency.percentile(50) / 1e6, latency.percentile(99) / 1e6, (flushes.get() - flushesBefore) / (double) n));
+    }
+}
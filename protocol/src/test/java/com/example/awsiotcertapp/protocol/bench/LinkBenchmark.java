@@ -0,0 +1,81 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import com.example.awsiotcertapp.protocol.DeviceConnectionManager;
+import com.example.awsiotcertapp.protocol.SimulatedLogger;
+import com.example.awsiotcertapp.protocol.UartProtocolEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Readings per second and commands per reading from one {@link SimulatedLogger} on a link with
+ * {@value #BYTES_PER_SECOND} B/s and {@value #LATENCY_MS} ms latency, as fragmentation and
+ * corruption get worse, for whole-payload and chunked transfers. Commands per reading shows the
+ * retries. Run with {@code ./gradlew :protocol:linkBenchmark}.
+ */
+public final class LinkBenchmark {
+    private static final long BYTES_PER_SECOND = 100_000;
+    private static final long LATENCY_MS       = 15;
+    private static final int  PAYLOAD_BYTES    = 4_096;
+    private static final int  CHUNK_BYTES      = 128;
+    private static final long RUN_MS           = 3_000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("link                 transfer  readings/s  cmds/reading  failures");
+        run("clean", 0, 0);
+        run("fragments <= 16 B", 16, 0);
+        run("1e-5 corrupt", 16, 1e-5);
+        run("1e-4 corrupt", 16, 1e-4);
+        run("1e-3 corrupt", 16, 1e-3);
+    }
+
+    private static void run(String link, int fragment, double corruption) throws Exception {
+        for (int chunk : new int[]{0, CHUNK_BYTES}) {
+            SimulatedLogger.Options device = new SimulatedLogger.Options();
+            device.setPayloadBytes(PAYLOAD_BYTES);
+            device.setBytesPerSecond(BYTES_PER_SECOND);
+            device.setLatencyMs(LATENCY_MS);
+            device.setMaxFragmentBytes(fragment);
+            device.setCorruptionRate(corruption);
+
+            UartProtocolEngine.Options engine = new UartProtocolEngine.Options();
+            engine.setPipelineChecksum(true);
+            engine.setChunkSize(chunk);
+            engine.setDataTimeoutMs(500);
+            engine.setReadBufferSize(PAYLOAD_BYTES * 2);
+            engine.setPayloadLength(PAYLOAD_BYTES);
+
+            AtomicLong readings = new AtomicLong();
+            AtomicLong failures = new AtomicLong();
+            List<SimulatedLogger> devices = new ArrayList<>();
+            double rate;
+            double perReading;
+            try (DeviceConnectionManager manager = new DeviceConnectionManager(
+                    SimulatedLogger.connector(device, devices), 1, engine,
+                    new DeviceConnectionManager.Listener() {
+                        @Override public void onReading(DeviceConnectionManager.Reading reading) {
+                            readings.incrementAndGet();
+                        }
+
+                        @Override public void onDeviceFailed(String address, String reason) {
+                            failures.incrementAndGet();
+                        }
+                    })) {
+                manager.setPollInterval(1);
+                manager.open("logger");
+                Thread.sleep(300); // connect and time sync
+                long before = readings.get();
+                long commandsBefore = devices.get(0).commandsReceived();
+                long start = System.nanoTime();
+                Thread.sleep(RUN_MS);
+                long n = readings.get() - before;
+                rate = n / ((System.nanoTime() - start) / 1e9);
+                perReading = (devices.get(0).commandsReceived() - commandsBefore) / (double) Math.max(n, 1);
+            }
+            System.out.println(String.format(Locale.US, "%-20s %-9s %10.1f  %12.1f  %8d",
+                    link, chunk == 0 ? "whole" : chunk + " B", rate, perReading, failures.get()));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * End-to-end load test: N Paho publishers, each with its own TLS connection, push QoS 1 readings
+ * into {@link EmbeddedBroker} as fast as their in-flight window allows. Reports messages per
+ * second, PUBLISH-to-PUBACK latency percentiles and heap use. Run with
+ * {@code ./gradlew :protocol:loadTest --args="publishers=16 latency=20 drop=0.01"}; keys are
+ * {@code publishers}, {@code messages} (per publisher), {@code bytes}, {@code inflight},
+ * {@code latency} (ms), {@code drop} and {@code disconnect} (rates per PUBLISH).
+ */
+public final class LoadGenerator {
+    private static final long ACK_TIMEOUT_MS = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> conf = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("expected key=value: " + arg);
+            conf.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int publishers = Integer.parseInt(conf.getOrDefault("publishers", "8"));
+        int messages   = Integer.parseInt(conf.getOrDefault("messages", "2000"));
+        int bytes      = Integer.parseInt(conf.getOrDefault("bytes", "256"));
+        int inflight   = Integer.parseInt(conf.getOrDefault("inflight", "10"));
+
+        try (EmbeddedBroker broker = EmbeddedBroker.withTestCertificates(42)) {
+            broker.start();
+            broker.faults().setLatencyMs(Long.parseLong(conf.getOrDefault("latency", "0")));
+            broker.faults().setDropRate(Double.parseDouble(conf.getOrDefault("drop", "0")));
+            broker.faults().setDisconnectRate(Double.parseDouble(conf.getOrDefault("disconnect", "0")));
+            run(broker, publishers, messages, bytes, inflight);
+        }
+    }
+
+    private static void run(EmbeddedBroker broker, int publishers, int messages, int bytes, int inflight) throws Exception {
+        SSLSocketFactory tls = EmbeddedBroker.testClientContext().getSocketFactory();
+        MqttAsyncClient[] clients = new MqttAsyncClient[publishers];
+        for (int p = 0; p < publishers; p++) {
+            MqttConnectOptions opts = new MqttConnectOptions();
+            opts.setSocketFactory(tls);
+            opts.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
+            // The window is enforced here; Paho's own would stay full of PUBLISHes the broker dropped.
+            opts.setMaxInflight(65_535);
+            opts.setAutomaticReconnect(true);
+            clients[p] = new MqttAsyncClient(broker.uri(), "load-" + p, new MemoryPersistence());
+            clients[p].connect(opts).waitForCompletion(10_000);
+        }
+
+        HeapSampler heap = new HeapSampler();
+        long[] latencies = new long[publishers * messages];
+        AtomicInteger acked = new AtomicInteger();
+        AtomicLong lost = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        Thread[] threads = new Thread[publishers];
+        long start = System.nanoTime();
+        for (int p = 0; p < publishers; p++) {
+            MqttAsyncClient client = clients[p];
+            String topic = "dt/load/" + p + "/readings";
+            threads[p] = new Thread(() -> {
+                Semaphore window = new Semaphore(inflight);
+                byte[] payload = new byte[bytes];
+                for (int i = 0; i < messages; i++) {
+                    try {
+                        // A PUBLISH the broker dropped is never acknowledged; give its slot up.
+                        if (!window.tryAcquire(ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) lost.incrementAndGet();
+                        long sentAt = System.nanoTime();
+                        client.publish(topic, payload, 1, false, null, new IMqttActionListener() {
+                            @Override public void onSuccess(IMqttToken token) {
+                                latencies[acked.getAndIncrement()] = System.nanoTime() - sentAt;
+                                window.release();
+                            }
+
+                            @Override public void onFailure(IMqttToken token, Throwable error) {
+                                failed.incrementAndGet();
+                                window.release();
+                            }
+                        });
+                    } catch (MqttException e) {
+                        // Not connected: wait for the automatic reconnect and send it again.
+                        window.release();
+                        i--;
+                        try {
+                            Thread.sleep(20);
+                        } catch (InterruptedException stop) {
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                try {
+                    if (!window.tryAcquire(inflight, ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        lost.addAndGet(inflight - window.availablePermits());
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }, "load-" + p);
+            threads[p].start();
+        }
+        for (Thread t : threads) t.join();
+        long elapsed = System.nanoTime() - start;
+        heap.stop();
+        int n = acked.get();
+        long failures = failed.get(); // before disconnecting fails the PUBLISHes still waiting
+        for (MqttAsyncClient c : clients) {
+            try {
+                c.disconnectForcibly(0, 500); // also ends a reconnect cycle in progress
+            } catch (MqttException ignored) {
+            }
+            c.close(true);
+        }
+
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.US, "%d publishers x %d msgs of %d B, in flight %d",
+                publishers, messages, bytes, inflight));
+        System.out.println(String.format(Locale.US, "acked %d  lost %d  failed %d  reconnects %d  in %.1f s",
+                n, lost.get(), failures, broker.connections() - publishers, elapsed / 1e9));
+        System.out.println(String.format(Locale.US, "throughput  %.0f msgs/s", n * 1e9 / elapsed));
+        if (n > 0) {
+            System.out.println(String.format(Locale.US, "PUBACK ms   p50 %.1f  p90 %.1f  p99 %.1f  max %.1f",
+                    millis(sorted, 0.50), millis(sorted, 0.90), millis(sorted, 0.99), sorted[n - 1] / 1e6));
+        }
+        System.out.println(String.format(Locale.US, "heap MB     before %.1f  peak %.1f",
+                heap.baseline / 1048576.0, heap.peak / 1048576.0));
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)] / 1e6;
+    }
+
+    /** Heap in use, sampled every 50 ms; the baseline is taken after a GC, before the run. */
+    private static final class HeapSampler {
+        final long baseline;
+        volatile long peak;
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heap-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+
+        HeapSampler() {
+            System.gc();
+            baseline = peak = used();
+            timer.scheduleAtFixedRate(() -> peak = Math.max(peak, used()), 50, 50, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            timer.shutdownNow();
+            peak = Math.max(peak, used());
+        }
+
+        private static long used() {
+            Runtime rt = Runtime.getRuntime();
+            return rt.totalMemory() - rt.freeMemory();
+        }
+    }
+}
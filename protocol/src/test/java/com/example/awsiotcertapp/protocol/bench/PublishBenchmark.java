@@ -0,0 +1,73 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import com.example.awsiotcertapp.protocol.BatchingPublisher;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares batched and unbatched publishing against {@link SimulatedBroker}: messages per second
+ * and publish-to-ack latency percentiles. Run with {@code ./gradlew :protocol:publishBenchmark}.
+ */
+public final class PublishBenchmark {
+    private static final int  MESSAGES      = 5_000;
+    private static final int  MESSAGE_BYTES = 64;
+    private static final long RTT_MICROS    = 40_000;
+    private static final long PER_PUBLISH   = 200;
+    private static final double PER_BYTE    = 0.01;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("mode       msgs/s      p50 ms   p99 ms   publishes");
+        run("unbatched", false);
+        run("batched", true);
+    }
+
+    private static void run(String name, boolean batching) throws Exception {
+        SimulatedBroker broker = new SimulatedBroker(RTT_MICROS, PER_PUBLISH, PER_BYTE);
+        BatchingPublisher.Options opts = new BatchingPublisher.Options();
+        opts.setBatching(batching);
+        opts.setMaxInFlight(16);
+        opts.setMaxBatchBytes(8 * 1024);
+        opts.setMaxDelayMs(20);
+
+        long[] latencies = new long[MESSAGES];
+        BlockingQueue<Long> sentAt = new ArrayBlockingQueue<>(MESSAGES);
+        CountDownLatch acked = new CountDownLatch(MESSAGES);
+        int[] publishes = {0};
+        int[] next = {0};
+        BatchingPublisher publisher = new BatchingPublisher(broker, opts, (topic, messages, bytes, error) -> {
+            long now = System.nanoTime();
+            synchronized (next) {
+                publishes[0]++;
+                for (int i = 0; i < messages; i++) {
+                    latencies[next[0]++] = now - sentAt.poll();
+                    acked.countDown();
+                }
+            }
+        });
+
+        byte[] payload = new byte[MESSAGE_BYTES];
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            sentAt.add(System.nanoTime());
+            publisher.publish("bench/data", payload, 0, payload.length);
+        }
+        publisher.flush();
+        if (!acked.await(5, TimeUnit.MINUTES)) throw new IllegalStateException("acks missing");
+        long elapsed = System.nanoTime() - start;
+        publisher.close();
+        broker.close();
+
+        Arrays.sort(latencies);
+        System.out.println(String.format(Locale.US, "%-9s %9.0f %10.1f %8.1f %10d", name,
+                MESSAGES * 1e9 / elapsed, millis(latencies, 0.50), millis(latencies, 0.99), publishes[0]));
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)] / 1e6;
+    }
+}
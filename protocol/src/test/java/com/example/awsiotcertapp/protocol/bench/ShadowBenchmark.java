@@ -0,0 +1,122 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import com.example.awsiotcertapp.protocol.ReconnectController;
+import com.example.awsiotcertapp.protocol.ShadowSync;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A controller editing the settings of {@value #LOGGERS} loggers behind one gateway: single
+ * changes, and bursts of updates to one value such as a slider being dragged. Every edit window
+ * ends with a flush, as the coalescing delay would. Reports the bytes sent as patches against a
+ * whole document per update, and the time-set commands the gateway sends because a logger's clock
+ * settings changed against one per document received. Run with
+ * {@code ./gradlew :protocol:shadowBenchmark}.
+ */
+public final class ShadowBenchmark {
+    private static final int LOGGERS = 50;
+    private static final int WINDOWS = 2_000;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        List<byte[]> wire = new ArrayList<>();
+        int[] timeSets = new int[1];
+        ShadowSync.Options opts = new ShadowSync.Options();
+        ReconnectController.Scheduler manual = new ReconnectController.Scheduler() {
+            @Override public long nowMillis() { return 0; }
+
+            @Override public ReconnectController.Cancellable schedule(Runnable task, long delayMs) {
+                return () -> { };
+            }
+        };
+        ShadowSync gateway = new ShadowSync("shadow", ShadowSync.Role.GATEWAY, (t, p) -> true, manual, opts,
+                (device, delta) -> {
+                    if (delta.containsKey("clock")) timeSets[0]++;
+                });
+        ShadowSync controller = new ShadowSync("shadow", ShadowSync.Role.CONTROLLER, (topic, payload) -> {
+            wire.add(payload);
+            gateway.onMessage(topic, ByteBuffer.wrap(payload));
+            return true;
+        }, manual, opts, (device, delta) -> { });
+
+        for (int i = 0; i < LOGGERS; i++) controller.update(logger(i), settings(i));
+        for (int i = 0; i < LOGGERS; i++) controller.flush(logger(i));
+        ShadowSync.Stats initial = controller.stats();
+        int initialTimeSets = timeSets[0];
+
+        long start = System.nanoTime();
+        for (int w = 0; w < WINDOWS; w++) {
+            String device = logger(random.nextInt(LOGGERS));
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                // A slider: many updates to one value, the last one kept.
+                int steps = 1 + random.nextInt(8);
+                for (int s = 0; s < steps; s++) controller.update(device, one("alarmHigh", 20 + random.nextInt(10)));
+            } else if (kind < 8) {
+                controller.update(device, one("pollMs", 1_000 * (1 + random.nextInt(60))));
+            } else if (kind < 9) {
+                Map<String, Object> clock = one("tz", random.nextBoolean() ? "UTC" : "CET");
+                controller.update(device, one("clock", clock));
+            } else {
+                controller.update(device, one("label", "cold store " + random.nextInt(100)));
+            }
+            controller.flush(device);
+        }
+        long elapsed = System.nanoTime() - start;
+        ShadowSync.Stats all = controller.stats();
+
+        // With whole documents the gateway cannot tell what changed, so every document it receives
+        // for a logger means a time-set to be safe.
+        long fullTimeSets = all.updates - initial.updates;
+        long sent = all.sentBytes - initial.sentBytes;
+        long full = all.fullBytes - initial.fullBytes;
+        System.out.println(String.format(Locale.US, "%d loggers, %d edit windows, %d updates in %d publishes",
+                LOGGERS, WINDOWS, all.updates - initial.updates, all.publishes - initial.publishes));
+        System.out.println(String.format(Locale.US, "bytes: %d as patches vs %d as whole documents (%.0f%% saved), %.1f B per publish",
+                sent, full, 100 * (1 - (double) sent / full), (double) sent / (all.publishes - initial.publishes)));
+        System.out.println(String.format(Locale.US, "time-set commands: %d vs %d with whole documents",
+                timeSets[0] - initialTimeSets, fullTimeSets));
+        System.out.println(String.format(Locale.US, "%.1f us per update, diff and apply included",
+                elapsed / 1e3 / (all.updates - initial.updates)));
+        System.out.println("documents in sync: " + inSync(controller, gateway) + ", " + wire.size() + " messages");
+    }
+
+    private static boolean inSync(ShadowSync controller, ShadowSync gateway) {
+        for (int i = 0; i < LOGGERS; i++) {
+            if (!controller.owned(logger(i)).equals(gateway.followed(logger(i)))) return false;
+        }
+        return true;
+    }
+
+    private static String logger(int i) {
+        return String.format(Locale.US, "logger-%02d", i);
+    }
+
+    private static Map<String, Object> settings(int i) {
+        Map<String, Object> clock = new LinkedHashMap<>();
+        clock.put("tz", "UTC");
+        clock.put("dst", true);
+        clock.put("ntp", "pool.ntp.org");
+        Map<String, Object> doc = new LinkedHashMap<>();
+        doc.put("label", "cold store " + i);
+        doc.put("pollMs", 30_000);
+        doc.put("alarmHigh", 25);
+        doc.put("alarmLow", 2);
+        doc.put("units", "celsius");
+        doc.put("channels", 3);
+        doc.put("clock", clock);
+        return doc;
+    }
+
+    private static Map<String, Object> one(String key, Object value) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put(key, value);
+        return m;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import com.example.awsiotcertapp.protocol.BatchingPublisher;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broker stand-in for publish benchmarks: every PUBLISH is acknowledged one round trip after it
+ * is sent, and the broker spends a fixed amount of time on each PUBLISH plus a per-byte cost,
+ * one at a time, like a rate-limited IoT endpoint.
+ */
+final class SimulatedBroker implements BatchingPublisher.Transport {
+    private final ScheduledExecutorService acks = Executors.newSingleThreadScheduledExecutor();
+    private final long rttMicros;
+    private final long perPublishMicros;
+    private final double perByteMicros;
+    private long busyUntilMicros;
+
+    SimulatedBroker(long rttMicros, long perPublishMicros, double perByteMicros) {
+        this.rttMicros        = rttMicros;
+        this.perPublishMicros = perPublishMicros;
+        this.perByteMicros    = perByteMicros;
+    }
+
+    @Override public void publish(String topic, byte[] payload, BatchingPublisher.Callback done) {
+        long now = System.nanoTime() / 1000;
+        long ackAt;
+        synchronized (this) {
+            long start = Math.max(now + rttMicros / 2, busyUntilMicros);
+            busyUntilMicros = start + perPublishMicros + (long) (payload.length * perByteMicros);
+            ackAt = busyUntilMicros + rttMicros / 2;
+        }
+        acks.schedule(() -> done.onComplete(null), ackAt - now, TimeUnit.MICROSECONDS);
+    }
+
+    void close() {
+        acks.shutdownNow();
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import com.example.awsiotcertapp.protocol.Metrics;
+import com.example.awsiotcertapp.protocol.SslContextCache;
+import com.example.awsiotcertapp.protocol.Startup;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * A cold start of the publish path against the TLS {@link EmbeddedBroker}, done the old way (every
+ * step on the calling "main" thread before the connect) and through a {@link Startup} with the
+ * parts of the app's {@code AppStartup}. Reports how long the main thread was busy and the time
+ * from start to the PUBACK of the first message. Each round gets a fresh {@link SslContextCache},
+ * so the certificates are parsed and the keys imported every time, as in a new process; the
+ * Bluetooth adapter lookup is a stand-in of {@value #ADAPTER_LOOKUP_MS} ms. A first untimed round
+ * of each loads the classes, which would otherwise all be charged to whichever runs first. Run with
+ * {@code ./gradlew :protocol:startupBenchmark}.
+ */
+public final class StartupBenchmark {
+    private static final int  ROUNDS            = 15;
+    private static final long ADAPTER_LOOKUP_MS = 10;
+
+    /** What the publish path needs, as the app has it after startup. */
+    private static final class Ready {
+        final MqttAsyncClient   client;
+        final MqttConnectOptions options;
+
+        Ready(MqttAsyncClient client, MqttConnectOptions options) {
+            this.client  = client;
+            this.options = options;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File config = File.createTempFile("broker", ".properties");
+        config.deleteOnExit();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try (EmbeddedBroker broker = EmbeddedBroker.withTestCertificates(1)) {
+            broker.start();
+            Properties p = new Properties();
+            p.setProperty("uri", broker.uri());
+            try (OutputStream out = new FileOutputStream(config)) {
+                p.store(out, null);
+            }
+            long[][] sequential = new long[2][ROUNDS];
+            long[][] parallel = new long[2][ROUNDS];
+            run(0, config, null, sequential);
+            run(0, config, pool, parallel);
+            for (int i = 0; i < ROUNDS; i++) {
+                run(i, config, null, sequential);
+                run(i, config, pool, parallel);
+            }
+            System.out.println("startup        main thread ms (p50/max)  first publish ms (p50/max)");
+            report("sequential", sequential);
+            report("orchestrated", parallel);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** One cold start; {@code pool} is {@code null} for the sequential one. */
+    private static void run(int round, File config, ExecutorService pool, long[][] out) throws Exception {
+        long start = System.nanoTime();
+        CompletableFuture<Ready> ready;
+        if (pool == null) {
+            Properties broker = load(config);
+            SSLContext ssl = credentials();
+            adapter();
+            ready = CompletableFuture.completedFuture(client(broker, ssl, round));
+        } else {
+            Startup startup = new Startup(pool, new Metrics(false));
+            Startup.Part<Properties> broker = startup.add("broker", () -> load(config));
+            Startup.Part<SSLContext> credentials = startup.add("credentials", StartupBenchmark::credentials);
+            startup.add("bluetooth", StartupBenchmark::adapter);
+            startup.startAll();
+            ready = broker.get().thenCombineAsync(credentials.get(), (b, ssl) -> {
+                try {
+                    return client(b, ssl, round);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, pool);
+        }
+        long mainThread = System.nanoTime() - start;
+        Ready r = ready.get(10, TimeUnit.SECONDS);
+        r.client.connect(r.options).waitForCompletion(10_000);
+        r.client.publish("dt/startup", new byte[64], 1, false).waitForCompletion(10_000);
+        out[0][round] = mainThread;
+        out[1][round] = System.nanoTime() - start;
+        r.client.disconnect().waitForCompletion(10_000);
+        r.client.close();
+    }
+
+    private static Properties load(File config) throws Exception {
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(config)) {
+            p.load(in);
+        }
+        return p;
+    }
+
+    private static SSLContext credentials() throws Exception {
+        return new SslContextCache().get(EmbeddedBroker.resource("/tls/broker.crt"),
+                EmbeddedBroker.resource("/tls/client.crt"), EmbeddedBroker.resource("/tls/client.key"));
+    }
+
+    private static Object adapter() throws InterruptedException {
+        Thread.sleep(ADAPTER_LOOKUP_MS);
+        return new Object();
+    }
+
+    private static Ready client(Properties broker, SSLContext ssl, int round) throws Exception {
+        MqttConnectOptions opts = new MqttConnectOptions();
+        opts.setSocketFactory(ssl.getSocketFactory());
+        opts.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
+        return new Ready(new MqttAsyncClient(broker.getProperty("uri"), "startup-" + round, new MemoryPersistence()), opts);
+    }
+
+    private static void report(String name, long[][] rounds) {
+        long[] busy = rounds[0].clone();
+        long[] publish = rounds[1].clone();
+        Arrays.sort(busy);
+        Arrays.sort(publish);
+        System.out.println(String.format(Locale.US, "%-15s %10.1f / %6.1f  %12.1f / %6.1f", name,
+                busy[ROUNDS / 2] / 1e6, busy[ROUNDS - 1] / 1e6, publish[ROUNDS / 2] / 1e6, publish[ROUNDS - 1] / 1e6));
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.awsiotcertapp.protocol.bench;
+
+import com.example.awsiotcertapp.protocol.Metrics;
+import com.example.awsiotcertapp.protocol.SampleSchema;
+import com.example.awsiotcertapp.protocol.SampleStore;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Fills a {@link SampleStore} to its size limit with the simulated three-channel readings of
+ * {@link CodecBenchmark}, one every second, then reports the heap per sample, the append cost and
+ * the latency of range queries of a few widths. Run with {@code ./gradlew :protocol:storeBenchmark}.
+ */
+public final class StoreBenchmark {
+    private static final int  SAMPLES_PER_READING = 40;
+    private static final long READING_PERIOD_MS   = 1_000;
+    private static final int  MAX_SAMPLES         = 256 * 1024;
+    private static final int  QUERIES             = 2_000;
+
+    public static void main(String[] args) {
+        SampleSchema schema = SampleSchema.loggerFrame(1, 3);
+        List<byte[]> readings = CodecBenchmark.readings(1_000, new Random(42));
+        SampleStore.Options opts = new SampleStore.Options();
+        opts.setMaxSamples(MAX_SAMPLES);
+        opts.setSamplePeriodMs(READING_PERIOD_MS / SAMPLES_PER_READING);
+        SampleStore store = new SampleStore(schema, opts);
+
+        // Twice the limit, so the second half runs with eviction.
+        int appends = 2 * MAX_SAMPLES / SAMPLES_PER_READING;
+        long t = 1_700_000_000_000L;
+        long start = System.nanoTime();
+        for (int i = 0; i < appends; i++, t += READING_PERIOD_MS) {
+            byte[] r = readings.get(i % readings.size());
+            store.append(t, r, 0, r.length);
+        }
+        long appendNanos = System.nanoTime() - start;
+        long appended = (long) appends * SAMPLES_PER_READING;
+        long frameBytes = (long) readings.get(0).length * store.size() / SAMPLES_PER_READING;
+        System.out.println(store + ", " + store.evicted() + " evicted");
+        System.out.println(String.format(Locale.US, "%.2f B/sample (frames: %.2f), append %.0f ns/sample",
+                (double) store.memoryBytes() / store.size(), (double) frameBytes / store.size(),
+                (double) appendNanos / appended));
+
+        Random random = new Random(1);
+        for (int i = 0; i < QUERIES; i++) store.recent(60 * 60_000L); // warm up
+        System.out.println("window      samples   p50 ms  p99 ms");
+        for (long width : new long[]{60_000L, 60 * 60_000L, 6 * 60 * 60_000L}) {
+            Metrics metrics = new Metrics(true);
+            Metrics.Histogram latency = metrics.histogram("query");
+            long first = store.firstTime();
+            long span = store.lastTime() - first - width;
+            int size = 0;
+            for (int i = 0; i < QUERIES; i++) {
+                long from = first + (long) (random.nextDouble() * span);
+                long q = System.nanoTime();
+                size = store.query(from, from + width).size();
+                latency.record(System.nanoTime() - q);
+            }
+            System.out.println(String.format(Locale.US, "%-10s %8d  %7.3f %7.3f", width / 60_000 + " min", size,
+                    latency.percentile(50) / 1e6, latency.percentile(99) / 1e6));
+        }
+    }
+}
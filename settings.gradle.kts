@@ -15,3 +15,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "AWSIotCertApp"
 include(":app")
+include(":protocol")